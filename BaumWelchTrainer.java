@@ -0,0 +1,582 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * semi-supervised Baum-Welch (EM) training of the bigram model on unlabeled sentences
+ * the model starts from the supervised counts of a PosTagger trained in lazy mode; every iteration
+ * runs forward-backward over the unlabeled sentences (the E-step, split across threads, each with its
+ * own expected-count accumulator) and re-estimates the probabilities from the supervised counts plus
+ * the merged expected counts (the M-step)
+ *
+ * words seen in the supervised data can only take the tags they were seen with, unlabeled words seen at least
+ * minWordCount times can take any tag and get their own emission probabilities, rarer words are scored like
+ * unknown words in decoding
+ * the entries of the new words start from newWordPseudoCount spread over the tags, so the first E-step can
+ * already place them; without it they would have no emission probability and their sentences would be skipped
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class BaumWelchTrainer {
+
+    private static final int CHECKPOINT_MAGIC = 0x504F5345;    // "POSE"
+
+    public double unlabeledWeight = 1.0;        // weight of the expected counts against the supervised counts
+    public double transitionSmoothing = 0.01;   // added to every transition count so no path is impossible
+    public double unknownScoreLog = -100.0;     // the score of a word without emission probabilities, as in PosTagger
+    public double newWordPseudoCount = 0.1;     // the prior count of a frequent new word, spread over the tags by their share of the supervised tokens
+    public int iteration = 0;                   // the number of EM iterations run so far
+
+    private final Vocabulary tags = new Vocabulary();   // tag ids, in sorted order
+    private final Vocabulary words = new Vocabulary();  // supervised words first, then unlabeled words
+    private final int numTags;
+    private final int start;                            // the row of "start" in the transition arrays
+
+    // supervised counts
+    private final double[] supTrans;                    // count of (previous tag, tag) at previous * numTags + tag
+    private final double[] supTagTotals;                // number of supervised tokens of each tag
+    private int[] entryStart;                           // emission entries of word w are in [entryStart[w], entryStart[w + 1])
+    private int[] entryTag;                             // the tag of each emission entry
+    private double[] supEmit;                           // supervised count of each emission entry
+
+    // current probabilities
+    private final double[] transProb;
+    private double[] emitProb;
+
+    // unlabeled sentences as word ids
+    private int[] offsets;
+    private int[] wordIds;
+    private int numSentences;
+
+    /**
+     * instantiate the trainer from the supervised counts of a lazily trained tagger
+     *
+     * @param supervised a PosTagger trained with trainingModel(..., true), whose counts are still raw
+     */
+    public BaumWelchTrainer(PosTagger supervised) {
+        if (supervised.lazyTransScores == null)
+            throw new IllegalArgumentException("The supervised tagger must be trained in lazy mode to keep its counts");
+
+        // assigns tag ids in sorted order
+        ArrayList<String> sortedTags = new ArrayList<>(supervised.lazyObsScores.contexts());
+        Collections.sort(sortedTags);
+        for (String tag : sortedTags) tags.add(tag);
+        numTags = tags.size();
+        start = numTags;
+
+        // copies the supervised transition counts, with "start" as the last row
+        supTrans = new double[(numTags + 1) * numTags];
+        for (String context : supervised.lazyTransScores.contexts()) {
+            int from = context.equals("start") ? start : tags.id(context);
+            HashMap<String, Double> row = supervised.lazyTransScores.countRow(context);
+            for (String next : row.keySet()) supTrans[from * numTags + tags.id(next)] += row.get(next);
+        }
+
+        // collects the tags each supervised word was seen with
+        HashMap<String, ArrayList<Integer>> wordTags = new HashMap<>();
+        supTagTotals = new double[numTags];
+        for (String tag : sortedTags) {
+            HashMap<String, Double> row = supervised.lazyObsScores.countRow(tag);
+            for (String word : row.keySet()) {
+                wordTags.computeIfAbsent(word, k -> new ArrayList<>()).add(tags.id(tag));
+                supTagTotals[tags.id(tag)] += row.get(word);
+            }
+        }
+
+        // lays the emission entries out word by word
+        ArrayList<String> sortedWords = new ArrayList<>(wordTags.keySet());
+        Collections.sort(sortedWords);
+        entryStart = new int[sortedWords.size() + 1];
+        int numEntries = 0;
+        for (String word : sortedWords) numEntries += wordTags.get(word).size();
+        entryTag = new int[numEntries];
+        supEmit = new double[numEntries];
+        numEntries = 0;
+        for (String word : sortedWords) {
+            int w = words.add(word);
+            entryStart[w] = numEntries;
+            for (int tag : wordTags.get(word)) {
+                entryTag[numEntries] = tag;
+                supEmit[numEntries] = supervised.lazyObsScores.countRow(tags.string(tag)).get(word);
+                numEntries++;
+            }
+        }
+        entryStart[words.size()] = numEntries;
+
+        transProb = new double[supTrans.length];
+        emitProb = new double[numEntries];
+        offsets = new int[]{0};
+        wordIds = new int[0];
+        maximization(null);
+    }
+
+    /**
+     * reads the unlabeled sentences, one per line, and adds emission entries for their frequent new words
+     *
+     * @param sentencesFileName name of the file with unlabeled sentences
+     * @param minWordCount      how often a new word must occur to get emission probabilities of its own
+     */
+    public void readUnlabeled(String sentencesFileName, int minWordCount) throws IOException {
+
+        BufferedReader sentencesInput = new BufferedReader(new FileReader(sentencesFileName));
+        int numSupervisedWords = words.size();
+        int[] newOffsets = new int[1024];
+        int[] newWordIds = new int[1 << 16];
+        int[] wordCounts = new int[1024];
+        int numTokens = 0;
+        numSentences = 0;
+
+        // encodes the sentences as word ids, counting how often each new word occurs
+        String currentLine;
+        while ((currentLine = sentencesInput.readLine()) != null) {
+            String[] lineWords = currentLine.toLowerCase().split(" ");
+            if (numSentences + 2 > newOffsets.length) newOffsets = Arrays.copyOf(newOffsets, newOffsets.length * 2);
+            if (numTokens + lineWords.length > newWordIds.length)
+                newWordIds = Arrays.copyOf(newWordIds, Math.max(newWordIds.length * 2, numTokens + lineWords.length));
+            for (String word : lineWords) {
+                int w = words.add(word);
+                if (w >= wordCounts.length) wordCounts = Arrays.copyOf(wordCounts, Math.max(wordCounts.length * 2, w + 1));
+                wordCounts[w]++;
+                newWordIds[numTokens++] = w;
+            }
+            newOffsets[++numSentences] = numTokens;
+        }
+        sentencesInput.close();
+        offsets = newOffsets;
+        wordIds = newWordIds;
+
+        // gives every frequent new word one entry per tag, rare new words get none
+        // each entry is seeded with the word's share of the pseudo-count, which the tag totals include too
+        double supervisedTokens = 0.0;
+        for (double tagTotal : supTagTotals) supervisedTokens += tagTotal;
+        double[] tagShares = new double[numTags];
+        for (int tag = 0; tag < numTags; tag++) tagShares[tag] = supTagTotals[tag] / supervisedTokens;
+        int numEntries = entryStart[numSupervisedWords];
+        for (int w = numSupervisedWords; w < words.size(); w++) if (wordCounts[w] >= minWordCount) numEntries += numTags;
+        int[] newEntryStart = Arrays.copyOf(entryStart, words.size() + 1);
+        int[] newEntryTag = Arrays.copyOf(entryTag, numEntries);
+        double[] newSupEmit = Arrays.copyOf(supEmit, numEntries);
+        numEntries = entryStart[numSupervisedWords];
+        for (int w = numSupervisedWords; w < words.size(); w++) {
+            newEntryStart[w] = numEntries;
+            if (wordCounts[w] < minWordCount) continue;
+            for (int tag = 0; tag < numTags; tag++) {
+                newSupEmit[numEntries] = newWordPseudoCount * tagShares[tag];
+                supTagTotals[tag] += newSupEmit[numEntries];
+                newEntryTag[numEntries++] = tag;
+            }
+        }
+        newEntryStart[words.size()] = numEntries;
+        entryStart = newEntryStart;
+        entryTag = newEntryTag;
+        supEmit = newSupEmit;
+        emitProb = new double[numEntries];
+        maximization(null);
+    }
+
+    /**
+     * expected counts gathered by one thread
+     */
+    private class Accumulator {
+        final double[] trans = new double[(numTags + 1) * numTags];
+        final double[] emit = new double[entryTag.length];
+        final double[] tagTotals = new double[numTags];
+        double logLikelihood = 0.0;
+
+        // scratch space for forward-backward, grown to the longest sentence
+        double[][] alpha = new double[0][];
+        double[][] beta = new double[0][];
+        double[][] emission = new double[0][];
+        double[] scale = new double[0];
+
+        /**
+         * adds another accumulator into this one
+         */
+        void merge(Accumulator other) {
+            for (int i = 0; i < trans.length; i++) trans[i] += other.trans[i];
+            for (int i = 0; i < emit.length; i++) emit[i] += other.emit[i];
+            for (int i = 0; i < tagTotals.length; i++) tagTotals[i] += other.tagTotals[i];
+            logLikelihood += other.logLikelihood;
+        }
+    }
+
+    /**
+     * runs EM iterations, writing a checkpoint after each one
+     *
+     * @param numIterations      the number of iterations to run
+     * @param numThreads         the number of threads for the E-step
+     * @param checkpointFileName the file to checkpoint to after every iteration, or null
+     */
+    public void train(int numIterations, int numThreads, String checkpointFileName) throws IOException {
+
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            for (int it = 0; it < numIterations; it++) {
+                long startNanos = System.nanoTime();
+
+                // E-step: each thread runs forward-backward over its own slice of the sentences
+                List<Future<Accumulator>> slices = new ArrayList<>();
+                int sliceSize = (numSentences + numThreads - 1) / Math.max(1, numThreads);
+                for (int from = 0; from < numSentences; from += sliceSize) {
+                    int sliceFrom = from;
+                    int sliceTo = Math.min(numSentences, from + sliceSize);
+                    slices.add(pool.submit(() -> expectation(sliceFrom, sliceTo)));
+                }
+
+                // merges the accumulators of the threads
+                Accumulator total = new Accumulator();
+                for (Future<Accumulator> slice : slices) {
+                    try {
+                        total.merge(slice.get());
+                    } catch (InterruptedException | ExecutionException e) {
+                        throw new IOException("E-step failed", e);
+                    }
+                }
+
+                // M-step
+                maximization(total);
+                iteration++;
+                System.out.println("iteration " + iteration + ": log likelihood " + total.logLikelihood + " in "
+                        + (System.nanoTime() - startNanos) / 1000000 + " ms");
+
+                if (checkpointFileName != null) writeCheckpoint(checkpointFileName);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * E-step over a range of sentences
+     *
+     * @return Accumulator the expected counts of the sentences
+     */
+    private Accumulator expectation(int from, int to) {
+        Accumulator acc = new Accumulator();
+        double unknownEmission = Math.exp(unknownScoreLog);
+
+        for (int s = from; s < to; s++) {
+            int first = offsets[s];
+            int length = offsets[s + 1] - first;
+            if (length == 0) continue;
+
+            // grows the scratch space
+            if (acc.alpha.length < length) {
+                acc.alpha = new double[length][numTags];
+                acc.beta = new double[length][numTags];
+                acc.emission = new double[length][numTags];
+                acc.scale = new double[length];
+            }
+            double[][] alpha = acc.alpha;
+            double[][] beta = acc.beta;
+            double[][] emission = acc.emission;
+            double[] scale = acc.scale;
+
+            // emission probability of every tag at every position, zero outside a word's tags
+            for (int i = 0; i < length; i++) {
+                int w = wordIds[first + i];
+                if (entryStart[w] == entryStart[w + 1]) {
+                    Arrays.fill(emission[i], unknownEmission);
+                } else {
+                    Arrays.fill(emission[i], 0.0);
+                    for (int e = entryStart[w]; e < entryStart[w + 1]; e++) emission[i][entryTag[e]] = emitProb[e];
+                }
+            }
+
+            // forward pass, scaled so each position sums to one
+            for (int i = 0; i < length; i++) {
+                double sum = 0.0;
+                for (int tag = 0; tag < numTags; tag++) {
+                    double value = 0.0;
+                    if (emission[i][tag] != 0.0) {
+                        if (i == 0) {
+                            value = transProb[start * numTags + tag];
+                        } else {
+                            for (int prev = 0; prev < numTags; prev++) {
+                                if (alpha[i - 1][prev] != 0.0) value += alpha[i - 1][prev] * transProb[prev * numTags + tag];
+                            }
+                        }
+                        value *= emission[i][tag];
+                    }
+                    alpha[i][tag] = value;
+                    sum += value;
+                }
+                scale[i] = sum;
+                if (sum == 0.0) break;
+                for (int tag = 0; tag < numTags; tag++) alpha[i][tag] /= sum;
+            }
+
+            // skips sentences the model cannot produce
+            if (scale[length - 1] == 0.0) continue;
+            boolean impossible = false;
+            for (int i = 0; i < length; i++) if (scale[i] == 0.0) impossible = true;
+            if (impossible) continue;
+
+            // backward pass with the same scaling
+            Arrays.fill(beta[length - 1], 1.0);
+            for (int i = length - 2; i >= 0; i--) {
+                for (int tag = 0; tag < numTags; tag++) {
+                    double value = 0.0;
+                    for (int next = 0; next < numTags; next++) {
+                        if (emission[i + 1][next] != 0.0) value += transProb[tag * numTags + next] * emission[i + 1][next] * beta[i + 1][next];
+                    }
+                    beta[i][tag] = value / scale[i + 1];
+                }
+            }
+
+            // accumulates the expected transitions, emissions and tag totals
+            for (int i = 0; i < length; i++) {
+                int w = wordIds[first + i];
+                for (int tag = 0; tag < numTags; tag++) {
+                    double posterior = alpha[i][tag] * beta[i][tag];
+                    if (posterior == 0.0) continue;
+                    acc.tagTotals[tag] += posterior;
+                    if (i == 0) acc.trans[start * numTags + tag] += posterior;
+                }
+                for (int e = entryStart[w]; e < entryStart[w + 1]; e++) acc.emit[e] += alpha[i][entryTag[e]] * beta[i][entryTag[e]];
+                if (i == 0) continue;
+                for (int prev = 0; prev < numTags; prev++) {
+                    if (alpha[i - 1][prev] == 0.0) continue;
+                    for (int tag = 0; tag < numTags; tag++) {
+                        if (emission[i][tag] == 0.0) continue;
+                        acc.trans[prev * numTags + tag] += alpha[i - 1][prev] * transProb[prev * numTags + tag]
+                                * emission[i][tag] * beta[i][tag] / scale[i];
+                    }
+                }
+            }
+            for (int i = 0; i < length; i++) acc.logLikelihood += Math.log(scale[i]);
+        }
+        return acc;
+    }
+
+    /**
+     * M-step: re-estimates the probabilities from the supervised counts plus the weighted expected counts
+     *
+     * @param expected the merged expected counts, or null to use the supervised counts alone
+     */
+    private void maximization(Accumulator expected) {
+
+        // transition probabilities, smoothed so every transition stays possible
+        for (int from = 0; from <= numTags; from++) {
+            double rowTotal = 0.0;
+            for (int tag = 0; tag < numTags; tag++) rowTotal += count(supTrans, expected == null ? null : expected.trans, from * numTags + tag);
+            for (int tag = 0; tag < numTags; tag++) {
+                double c = count(supTrans, expected == null ? null : expected.trans, from * numTags + tag);
+                transProb[from * numTags + tag] = (c + transitionSmoothing) / (rowTotal + transitionSmoothing * numTags);
+            }
+        }
+
+        // emission probabilities over all tokens of the tag, including those of words without entries
+        for (int e = 0; e < entryTag.length; e++) {
+            int tag = entryTag[e];
+            double tagTotal = count(supTagTotals, expected == null ? null : expected.tagTotals, tag);
+            emitProb[e] = tagTotal > 0 ? count(supEmit, expected == null ? null : expected.emit, e) / tagTotal : 0.0;
+        }
+    }
+
+    /**
+     * @return double the supervised count plus the weighted expected count at an index
+     */
+    private double count(double[] supervised, double[] expected, int index) {
+        return supervised[index] + (expected == null ? 0.0 : unlabeledWeight * expected[index]);
+    }
+
+    /**
+     * builds a bigram tagger from the current probabilities
+     *
+     * @return PosTagger the tagger
+     */
+    public PosTagger toTagger() {
+        HashMap<String, HashMap<String, Double>> transScores = new HashMap<>();
+        for (int from = 0; from <= numTags; from++) {
+            HashMap<String, Double> row = new HashMap<>();
+            for (int tag = 0; tag < numTags; tag++) row.put(tags.string(tag), Math.log(transProb[from * numTags + tag]));
+            transScores.put(from == start ? "start" : tags.string(from), row);
+        }
+
+        HashMap<String, HashMap<String, Double>> obsScores = new HashMap<>();
+        for (int tag = 0; tag < numTags; tag++) obsScores.put(tags.string(tag), new HashMap<>());
+        for (int w = 0; w < words.size(); w++) {
+            for (int e = entryStart[w]; e < entryStart[w + 1]; e++) {
+                if (emitProb[e] > 0.0) obsScores.get(tags.string(entryTag[e])).put(words.string(w), Math.log(emitProb[e]));
+            }
+        }
+
+        PosTagger tagger = new PosTagger();
+        tagger.setTransScores(transScores);
+        tagger.setobsScores(obsScores);
+        tagger.unknownScoreLog = unknownScoreLog;
+        return tagger;
+    }
+
+    /**
+     * writes the current probabilities so training can resume from them
+     *
+     * @param checkpointFileName the file to write
+     */
+    public void writeCheckpoint(String checkpointFileName) throws IOException {
+
+        // writes to a temporary file first so a crash never leaves a half-written checkpoint
+        File temporary = new File(checkpointFileName + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16));
+        output.writeInt(CHECKPOINT_MAGIC);
+        output.writeInt(iteration);
+        output.writeInt(numTags);
+        for (String tag : tags.strings()) output.writeUTF(tag);
+        for (double probability : transProb) output.writeDouble(probability);
+
+        // only words that have emission entries are written
+        int numWordsWithEntries = 0;
+        for (int w = 0; w < words.size(); w++) if (entryStart[w] != entryStart[w + 1]) numWordsWithEntries++;
+        output.writeInt(numWordsWithEntries);
+        for (int w = 0; w < words.size(); w++) {
+            if (entryStart[w] == entryStart[w + 1]) continue;
+            output.writeUTF(words.string(w));
+            output.writeInt(entryStart[w + 1] - entryStart[w]);
+            for (int e = entryStart[w]; e < entryStart[w + 1]; e++) {
+                output.writeInt(entryTag[e]);
+                output.writeDouble(emitProb[e]);
+            }
+        }
+        output.close();
+
+        File checkpoint = new File(checkpointFileName);
+        if (checkpoint.exists() && !checkpoint.delete()) throw new IOException("Could not replace " + checkpointFileName);
+        if (!temporary.renameTo(checkpoint)) throw new IOException("Could not write " + checkpointFileName);
+    }
+
+    /**
+     * resumes from a checkpoint written by writeCheckpoint
+     * entries of the checkpoint for words or tags this trainer does not have are ignored
+     *
+     * @param checkpointFileName the file to read
+     */
+    public void resumeFrom(String checkpointFileName) throws IOException {
+
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFileName), 1 << 16));
+        try {
+            if (input.readInt() != CHECKPOINT_MAGIC) throw new IOException(checkpointFileName + " is not an EM checkpoint");
+            int checkpointIteration = input.readInt();
+            int checkpointTags = input.readInt();
+            int[] tagMap = new int[checkpointTags];
+            for (int i = 0; i < checkpointTags; i++) tagMap[i] = tags.id(input.readUTF());
+            if (checkpointTags != numTags) throw new IOException("The checkpoint has " + checkpointTags + " tags but the model has " + numTags);
+
+            // transitions, "start" is the last row in both
+            for (int from = 0; from <= numTags; from++) {
+                for (int tag = 0; tag < numTags; tag++) {
+                    double probability = input.readDouble();
+                    int mappedFrom = from == numTags ? start : tagMap[from];
+                    if (mappedFrom >= 0 && tagMap[tag] >= 0) transProb[mappedFrom * numTags + tagMap[tag]] = probability;
+                }
+            }
+
+            // emissions
+            int numWordsWithEntries = input.readInt();
+            for (int i = 0; i < numWordsWithEntries; i++) {
+                int w = words.id(input.readUTF());
+                int numEntries = input.readInt();
+                for (int j = 0; j < numEntries; j++) {
+                    int tag = tagMap[input.readInt()];
+                    double probability = input.readDouble();
+                    if (w < 0 || tag < 0) continue;
+                    for (int e = entryStart[w]; e < entryStart[w + 1]; e++) if (entryTag[e] == tag) emitProb[e] = probability;
+                }
+            }
+            iteration = checkpointIteration;
+        } finally {
+            input.close();
+        }
+    }
+
+    // runs EM on the Brown test sentences as unlabeled text, starting from the Brown training counts
+    // holds out the last fifth of the Brown training sentences as unlabeled text, trains on the rest with EM over it,
+    // and scores on the test sentences, which EM never sees
+    public static void main(String[] args) {
+
+        try {
+            System.out.println("Splitting the Brown training corpus into labeled and held-out unlabeled sentences");
+            int numLines = 0;
+            BufferedReader counter = new BufferedReader(new FileReader("texts/brown-train-sentences.txt"));
+            while (counter.readLine() != null) numLines++;
+            counter.close();
+            int numLabeled = numLines - numLines / 5;
+            File labeledSentences = File.createTempFile("brown-labeled-sentences", ".txt");
+            File labeledTags = File.createTempFile("brown-labeled-tags", ".txt");
+            File unlabeledSentences = File.createTempFile("brown-unlabeled-sentences", ".txt");
+            labeledSentences.deleteOnExit();
+            labeledTags.deleteOnExit();
+            unlabeledSentences.deleteOnExit();
+            splitLines("texts/brown-train-sentences.txt", numLabeled, labeledSentences, unlabeledSentences);
+            splitLines("texts/brown-train-tags.txt", numLabeled, labeledTags, null);
+
+            System.out.println("Training supervised counts with " + numLabeled + " sentences");
+            PosTagger supervised = new PosTagger();
+            supervised.trainingModel(labeledSentences.getPath(), labeledTags.getPath(), true);
+
+            BaumWelchTrainer trainer = new BaumWelchTrainer(supervised);
+            trainer.readUnlabeled(unlabeledSentences.getPath(), 2);
+            System.out.println("EM over " + (numLines - numLabeled) + " held-out unlabeled sentences");
+            Set<String> supervisedWords = new HashSet<>();
+            for (String tag : supervised.lazyObsScores.contexts()) supervisedWords.addAll(supervised.lazyObsScores.countRow(tag).keySet());
+
+            System.out.println("Before EM");
+            PosTagger tagger = trainer.toTagger();
+            tagger.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-EM.txt");
+            double supervisedAccuracy = tagger.calculateAccuracy("texts/brown-test-tags-result-EM.txt", "texts/brown-test-tags.txt");
+            double accuracy = supervisedAccuracy;
+
+            for (int round = 0; round < 3; round++) {
+                trainer.train(1, Runtime.getRuntime().availableProcessors(), "texts/brown-em.checkpoint");
+                tagger = trainer.toTagger();
+                tagger.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-EM.txt");
+                accuracy = tagger.calculateAccuracy("texts/brown-test-tags-result-EM.txt", "texts/brown-test-tags.txt");
+
+                // the frequent new words must have learned emissions, shown with their highest-scoring tag
+                Map<String, String> newWordTags = new TreeMap<>();
+                Map<String, Double> newWordScores = new HashMap<>();
+                for (String tag : tagger.obsScores.keySet()) {
+                    for (Map.Entry<String, Double> entry : tagger.obsScores.get(tag).entrySet()) {
+                        if (supervisedWords.contains(entry.getKey())) continue;
+                        if (entry.getValue() > newWordScores.getOrDefault(entry.getKey(), Double.NEGATIVE_INFINITY)) {
+                            newWordScores.put(entry.getKey(), entry.getValue());
+                            newWordTags.put(entry.getKey(), tag);
+                        }
+                    }
+                }
+                System.out.println(newWordTags.size() + " new words have emissions, e.g. "
+                        + new ArrayList<>(newWordTags.entrySet()).subList(0, Math.min(8, newWordTags.size())));
+            }
+
+            // maximum likelihood on unlabeled text is not tagging accuracy, so EM may as well make the tagger worse
+            String effect = accuracy > supervisedAccuracy ? "helped" : accuracy < supervisedAccuracy ? "hurt" : "did not change";
+            System.out.println("EM " + effect + " the tagger on this data: "
+                    + String.format("%.2f%% -> %.2f%%", 100 * supervisedAccuracy, 100 * accuracy));
+        } catch (IOException e) {
+            System.err.println("Something went wrong while running EM: " + e.getMessage());
+        }
+    }
+
+    /**
+     * copies the first lines of a file to one file and the rest to another
+     *
+     * @param fileName the file to split
+     * @param numHead  the number of lines of the first part
+     * @param head     receives the first lines
+     * @param tail     receives the other lines, or null to drop them
+     */
+    private static void splitLines(String fileName, int numHead, File head, File tail) throws IOException {
+        BufferedReader input = new BufferedReader(new FileReader(fileName));
+        BufferedWriter headOutput = new BufferedWriter(new FileWriter(head));
+        BufferedWriter tailOutput = tail == null ? null : new BufferedWriter(new FileWriter(tail));
+        String currentLine;
+        for (int l = 0; (currentLine = input.readLine()) != null; l++) {
+            if (l < numHead) headOutput.write(currentLine + "\n");
+            else if (tailOutput != null) tailOutput.write(currentLine + "\n");
+        }
+        input.close();
+        headOutput.close();
+        if (tailOutput != null) tailOutput.close();
+    }
+}
@@ -0,0 +1,58 @@
+import java.util.*;
+
+/**
+ * EmissionModel that asks a list of models in order and takes all scores of a word from the first model that knows it,
+ * e.g. a domain lexicon in front of the trained observation scores
+ * scores of different models are never mixed for the same word
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class ChainedEmissionModel implements EmissionModel {
+
+    private final EmissionModel[] models;   // the models, most trusted first
+
+    /**
+     * instantiate the chain
+     *
+     * @param models the models, most trusted first
+     */
+    public ChainedEmissionModel(EmissionModel... models) {
+        this.models = models;
+    }
+
+    public double score(String tag, String word) {
+        for (EmissionModel model : models) if (model.contains(word)) return model.score(tag, word);
+        return Double.NaN;
+    }
+
+    public boolean contains(String word) {
+        for (EmissionModel model : models) if (model.contains(word)) return true;
+        return false;
+    }
+
+    public double[][] scoreSentence(String[] words, Vocabulary tags) {
+        double[][] scores = new double[words.length][];
+        String[] pending = new String[words.length];
+
+        // each model resolves, in one batch, the words no earlier model knew
+        for (EmissionModel model : models) {
+            boolean any = false;
+            for (int i = 0; i < words.length; i++) {
+                pending[i] = scores[i] == null && words[i] != null && model.contains(words[i]) ? words[i] : null;
+                any |= pending[i] != null;
+            }
+            if (!any) continue;
+            double[][] modelScores = model.scoreSentence(pending, tags);
+            for (int i = 0; i < words.length; i++) if (pending[i] != null) scores[i] = modelScores[i];
+        }
+
+        // words no model knows have no scores
+        for (int i = 0; i < words.length; i++) {
+            if (scores[i] != null) continue;
+            scores[i] = new double[tags.size()];
+            Arrays.fill(scores[i], Double.NaN);
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,196 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * reader for the columnar tag files written by ColumnarTagWriter
+ * each block is memory-mapped on its own, so files larger than 2GB are fine, and tag ids are read
+ * straight from the mapping without parsing any text
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class ColumnarTagReader {
+
+    public final Vocabulary tags;           // the tag dictionary from the header
+    private final int tagIdBytes;
+    private final long[] offsets;           // the first token of each sentence, plus the total
+    private final long[] blockTokens;       // the first token of each block, plus the total
+    private final MappedByteBuffer[] blocks;// the tag ids of each block
+
+    /**
+     * opens a columnar tag file
+     *
+     * @param resultFileName name of the file written by ColumnarTagWriter
+     */
+    public ColumnarTagReader(String resultFileName) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(Paths.get(resultFileName), StandardOpenOption.READ)) {
+
+            // reads the header, counting the bytes read since the tags are in modified UTF-8
+            CountingInputStream headerBytes = new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            DataInputStream header = new DataInputStream(headerBytes);
+            if (header.readInt() != ColumnarTagWriter.MAGIC) throw new IOException(resultFileName + " is not a columnar tag file");
+            int version = header.readInt();
+            if (version != ColumnarTagWriter.VERSION) throw new IOException("Unsupported columnar tag file version " + version);
+            tagIdBytes = header.readInt();
+            int numTags = header.readInt();
+            tags = new Vocabulary();
+            for (int i = 0; i < numTags; i++) tags.add(header.readUTF());
+            long position = headerBytes.count;
+
+            // walks the blocks, collecting the sentence lengths and mapping the tag ids
+            long size = channel.size();
+            long[] sentenceOffsets = new long[1024];
+            int numSentences = 0;
+            long numTokens = 0;
+            List<MappedByteBuffer> blockList = new ArrayList<>();
+            List<Long> blockStarts = new ArrayList<>();
+            ByteBuffer blockHeader = ByteBuffer.allocate(8);
+            while (position < size) {
+                blockHeader.clear();
+                while (blockHeader.hasRemaining() && channel.read(blockHeader, position + blockHeader.position()) >= 0) ;
+                blockHeader.flip();
+                if (blockHeader.remaining() < 8) throw new IOException(resultFileName + " ends inside a block header");
+                int blockSentences = blockHeader.getInt();
+                int blockTokenCount = blockHeader.getInt();
+                position += 8;
+                if (blockSentences < 0 || blockTokenCount < 0 || position + 4L * blockSentences + (long) tagIdBytes * blockTokenCount > size)
+                    throw new IOException(resultFileName + " ends inside a block");
+
+                MappedByteBuffer lengths = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * blockSentences);
+                if (numSentences + blockSentences + 1 > sentenceOffsets.length)
+                    sentenceOffsets = Arrays.copyOf(sentenceOffsets, Math.max(sentenceOffsets.length * 2, numSentences + blockSentences + 1));
+                for (int s = 0; s < blockSentences; s++) {
+                    sentenceOffsets[numSentences++] = numTokens;
+                    numTokens += lengths.getInt(4 * s);
+                }
+                position += 4L * blockSentences;
+
+                blockStarts.add(numTokens - blockTokenCount);
+                blockList.add(channel.map(FileChannel.MapMode.READ_ONLY, position, (long) tagIdBytes * blockTokenCount));
+                position += (long) tagIdBytes * blockTokenCount;
+            }
+            sentenceOffsets[numSentences] = numTokens;
+            offsets = Arrays.copyOf(sentenceOffsets, numSentences + 1);
+
+            blocks = blockList.toArray(new MappedByteBuffer[0]);
+            blockTokens = new long[blocks.length + 1];
+            for (int b = 0; b < blocks.length; b++) blockTokens[b] = blockStarts.get(b);
+            blockTokens[blocks.length] = numTokens;
+        }
+    }
+
+    /**
+     * input stream that counts the bytes read through it
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        long count;
+
+        CountingInputStream(InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int n = super.read(bytes, offset, length);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * @return int the number of sentences
+     */
+    public int numSentences() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @return long the number of tokens
+     */
+    public long numTokens() {
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * @param sentence the sentence index
+     * @return long the index of the first token of the sentence
+     */
+    public long sentenceStart(int sentence) {
+        return offsets[sentence];
+    }
+
+    /**
+     * @param sentence the sentence index
+     * @return int the number of tokens of the sentence
+     */
+    public int sentenceLength(int sentence) {
+        return (int) (offsets[sentence + 1] - offsets[sentence]);
+    }
+
+    /**
+     * @param token the token index
+     * @return int the tag id of the token
+     */
+    public int tagId(long token) {
+        int b = Arrays.binarySearch(blockTokens, token);
+        // a token that starts a block is found directly, any other lies in the block before the insertion point
+        if (b < 0) b = -b - 2;
+        // skips empty blocks that share the start
+        while (blockTokens[b + 1] <= token) b++;
+        int index = (int) (token - blockTokens[b]);
+        return tagIdBytes == 1 ? blocks[b].get(index) & 0xFF : blocks[b].getShort(2 * index) & 0xFFFF;
+    }
+
+    /**
+     * @param sentence the sentence index
+     * @return List<String> the tags of the sentence
+     */
+    public List<String> sentenceTags(int sentence) {
+        List<String> tagList = new ArrayList<>(sentenceLength(sentence));
+        for (long token = offsets[sentence]; token < offsets[sentence + 1]; token++) tagList.add(tags.string(tagId(token)));
+        return tagList;
+    }
+
+    // prints a columnar tag file as text, one sentence per line
+    // usage: java ColumnarTagReader columnarFile
+    public static void main(String[] args) {
+
+        if (args.length != 1) {
+            System.err.println("usage: java ColumnarTagReader columnarFile");
+            return;
+        }
+        try {
+            ColumnarTagReader reader = new ColumnarTagReader(args[0]);
+            BufferedWriter output = new BufferedWriter(new OutputStreamWriter(System.out));
+            for (int s = 0; s < reader.numSentences(); s++) {
+                for (String tag : reader.sentenceTags(s)) output.write(tag + " ");
+                output.write('\n');
+            }
+            output.flush();
+        } catch (IOException e) {
+            System.err.println("Something went wrong while reading " + args[0] + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,209 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * writes decoded tags as tag ids in a columnar binary file, read back by ColumnarTagReader
+ * sentences are gathered into large direct buffers and each full block goes to the FileChannel
+ * in one gathering write, so writing allocates nothing per sentence
+ *
+ * layout (all numbers big-endian):
+ * magic, version, bytes per tag id (1 or 2), number of tags, the tags (UTF),
+ * then blocks of: number of sentences, number of tokens, the length of each sentence (int), the tag id of each token
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class ColumnarTagWriter implements Closeable {
+
+    public static final int MAGIC = 0x504F5354;             // "POST"
+    public static final int VERSION = 1;
+    public static final int BLOCK_BYTES = 1 << 24;          // the size of the tag id buffer of a block
+    public static final int MAX_BLOCK_SENTENCES = 1 << 18;  // the sentence lengths a block holds
+
+    private final FileChannel channel;
+    private final HashMap<String, Integer> tagIds;  // the id of each tag in the dictionary
+    public final int tagIdBytes;                    // 1 when there are at most 256 tags, 2 otherwise
+    private final ByteBuffer blockHeader;           // sentence and token counts of the block
+    private final ByteBuffer lengths;               // the sentence lengths of the block
+    private final ByteBuffer tags;                  // the tag ids of the block
+    private final ByteBuffer[] block;               // the three buffers in file order, for gathering writes
+    private int blockTokens;
+    private int[] scratch = new int[256];           // tag ids of the sentence being written by write(List)
+    public long numSentences;
+    public long numTokens;
+
+    /**
+     * creates the file and writes the header
+     *
+     * @param resultFileName name of the file to write
+     * @param tagSet         the tag dictionary, ids are the positions in the list
+     */
+    public ColumnarTagWriter(String resultFileName, List<String> tagSet) throws IOException {
+        if (tagSet.size() > 1 << 16) throw new IllegalArgumentException("At most 65536 tags are supported");
+        // ids are positions in the header, so a repeated tag would shift the ids of every tag after it
+        tagIds = new HashMap<>();
+        for (String tag : tagSet) {
+            if (tagIds.putIfAbsent(tag, tagIds.size()) != null) throw new IllegalArgumentException("The tag set lists " + tag + " more than once");
+        }
+        tagIdBytes = tagSet.size() <= 1 << 8 ? 1 : 2;
+
+        blockHeader = ByteBuffer.allocateDirect(8);
+        lengths = ByteBuffer.allocateDirect(4 * MAX_BLOCK_SENTENCES);
+        tags = ByteBuffer.allocateDirect(BLOCK_BYTES);
+        block = new ByteBuffer[]{blockHeader, lengths, tags};
+
+        // writes the header with the dictionary, closing the file if that fails
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(tagIdBytes);
+        header.writeInt(tagSet.size());
+        for (String tag : tagSet) header.writeUTF(tag);
+        header.close();
+        ByteBuffer headerBuffer = ByteBuffer.wrap(headerBytes.toByteArray());
+        channel = FileChannel.open(Paths.get(resultFileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            while (headerBuffer.hasRemaining()) channel.write(headerBuffer);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * appends the tags of a sentence
+     *
+     * @param tagList the tags of the sentence, all in the dictionary
+     */
+    public void write(List<String> tagList) throws IOException {
+        if (tagList.size() > scratch.length) scratch = new int[Math.max(tagList.size(), scratch.length * 2)];
+        for (int i = 0; i < tagList.size(); i++) {
+            Integer id = tagIds.get(tagList.get(i));
+            if (id == null) throw new IllegalArgumentException("Tag " + tagList.get(i) + " is not in the dictionary");
+            scratch[i] = id;
+        }
+        write(scratch, tagList.size());
+    }
+
+    /**
+     * appends the tag ids of a sentence
+     *
+     * @param ids   the tag ids
+     * @param count the number of words in the sentence
+     */
+    public void write(int[] ids, int count) throws IOException {
+        if ((long) count * tagIdBytes > BLOCK_BYTES) throw new IllegalArgumentException("Sentence of " + count + " words does not fit in a block");
+        if (!lengths.hasRemaining() || tags.remaining() < count * tagIdBytes) flush();
+
+        lengths.putInt(count);
+        for (int i = 0; i < count; i++) {
+            if (tagIdBytes == 1) tags.put((byte) ids[i]);
+            else tags.putShort((short) ids[i]);
+        }
+        blockTokens += count;
+        numSentences++;
+        numTokens += count;
+    }
+
+    /**
+     * writes the buffered sentences as one block
+     */
+    public void flush() throws IOException {
+        if (lengths.position() == 0) return;
+        blockHeader.clear();
+        blockHeader.putInt(lengths.position() / 4).putInt(blockTokens);
+        blockHeader.flip();
+        lengths.flip();
+        tags.flip();
+        while (tags.hasRemaining() || lengths.hasRemaining() || blockHeader.hasRemaining()) channel.write(block);
+        lengths.clear();
+        tags.clear();
+        blockTokens = 0;
+    }
+
+    /**
+     * writes the last block and closes the file
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    // compares writing the Brown test tags many times as text and as columns, then reads the columns back
+    // usage: java ColumnarTagWriter [repetitions]
+    public static void main(String[] args) {
+
+        int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        try {
+            // reads the tag lines once
+            List<List<String>> tagLines = new ArrayList<>();
+            BufferedReader tagsInput = new BufferedReader(new FileReader("texts/brown-test-tags.txt"));
+            String currentLine;
+            while ((currentLine = tagsInput.readLine()) != null) tagLines.add(Arrays.asList(currentLine.split(" ")));
+            tagsInput.close();
+            TreeSet<String> tagSet = new TreeSet<>();
+            for (List<String> tagLine : tagLines) tagSet.addAll(tagLine);
+
+            for (int round = 0; round < 3; round++) {
+                // text, as testingModel writes it
+                long start = System.nanoTime();
+                BufferedWriter text = new BufferedWriter(new FileWriter("texts/brown-test-tags-result-text.txt"));
+                for (int r = 0; r < repetitions; r++) {
+                    for (List<String> tagLine : tagLines) {
+                        String line = "";
+                        for (String tag : tagLine) line += tag + " ";
+                        line += "\n";
+                        text.write(line);
+                    }
+                }
+                text.close();
+                double textSeconds = (System.nanoTime() - start) / 1e9;
+
+                // columns
+                start = System.nanoTime();
+                ColumnarTagWriter columns = new ColumnarTagWriter("texts/brown-test-tags-result.cols", new ArrayList<>(tagSet));
+                for (int r = 0; r < repetitions; r++) for (List<String> tagLine : tagLines) columns.write(tagLine);
+                columns.close();
+                double columnSeconds = (System.nanoTime() - start) / 1e9;
+
+                System.out.println("round " + (round + 1) + ": " + columns.numTokens + " tokens, text "
+                        + String.format("%.2f", textSeconds) + " s (" + new File("texts/brown-test-tags-result-text.txt").length() + " bytes), columns "
+                        + String.format("%.2f", columnSeconds) + " s (" + new File("texts/brown-test-tags-result.cols").length() + " bytes), "
+                        + String.format("%.0f", columns.numTokens / columnSeconds) + " tokens/s");
+            }
+
+            // reads the columns back and checks them against the text
+            ColumnarTagReader reader = new ColumnarTagReader("texts/brown-test-tags-result.cols");
+            long mismatches = 0;
+            for (int s = 0; s < reader.numSentences(); s++) {
+                List<String> expected = tagLines.get(s % tagLines.size());
+                if (!reader.sentenceTags(s).equals(expected)) mismatches++;
+            }
+            System.out.println("Read back " + reader.numSentences() + " sentences and " + reader.numTokens() + " tokens, " + mismatches + " mismatches");
+
+            // a tagger writing its results as columns, scored straight from the tag ids
+            Tagger baseline = new MostFrequentTagger("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt");
+            baseline.testingModelColumnar("texts/brown-test-sentences.txt", "texts/brown-test-tags-result.cols", new ArrayList<>(tagSet));
+            reader = new ColumnarTagReader("texts/brown-test-tags-result.cols");
+            long correct = 0;
+            for (int s = 0; s < reader.numSentences(); s++) {
+                List<String> expected = tagLines.get(s);
+                for (int i = 0; i < reader.sentenceLength(s); i++) {
+                    if (reader.tags.string(reader.tagId(reader.sentenceStart(s) + i)).equals(expected.get(i))) correct++;
+                }
+            }
+            System.out.println("Baseline tagged " + correct + " out of " + reader.numTokens() + " tags correctly.");
+        } catch (IOException e) {
+            System.err.println("Something went wrong while writing the results: " + e.getMessage());
+        }
+    }
+}
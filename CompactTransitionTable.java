@@ -0,0 +1,265 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * compact, read-only form of a transition table such as trigramTransScores
+ * each context (a previous tag, or a pair of previous tags) owns a row of (next tag id, score) entries
+ * stored in flat primitive arrays: sparse rows keep their tag ids sorted and are searched with binary search,
+ * rows filled above denseFillRatio are stored at full width and indexed by tag id directly
+ *
+ * scores can be stored as doubles, floats, or 16/8-bit codes spread linearly over the range of the table,
+ * and are decoded back to doubles on every read
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class CompactTransitionTable {
+
+    /**
+     * how the scores of a table are stored
+     */
+    public enum Precision {
+        DOUBLE, FLOAT, SHORT, BYTE
+    }
+
+    private static final short MISSING_SHORT = Short.MIN_VALUE;    // code of a missing entry in SHORT tables
+    private static final byte MISSING_BYTE = Byte.MIN_VALUE;        // code of a missing entry in BYTE tables
+
+    public final int numContexts;
+    public final int numTags;
+    private final int[] rowStarts;      // entries of context c are in [rowStarts[c], rowStarts[c + 1])
+    private final boolean[] present;    // whether the context had a row at all
+    private final boolean[] dense;      // whether the row of the context is stored at full width
+    private final int[] nextTags;       // the next tag id of each entry
+    public final Precision precision;   // how the scores are stored, only one of the score arrays is used
+    private double[] scores;            // the score of each entry, NaN for the missing entries of dense rows
+    private float[] floatScores;
+    private short[] shortScores;
+    private byte[] byteScores;
+    private double minScore;            // the score of the lowest code of SHORT and BYTE tables
+    private double step;                // the score difference between two consecutive codes
+
+    private CompactTransitionTable(int numContexts, int numTags, int[] rowStarts, boolean[] present, boolean[] dense,
+                                   int[] nextTags, double[] scores, Precision precision) {
+        this.numContexts = numContexts;
+        this.numTags = numTags;
+        this.rowStarts = rowStarts;
+        this.present = present;
+        this.dense = dense;
+        this.nextTags = nextTags;
+        this.precision = precision;
+
+        // finds the range of the scores for the quantized precisions
+        minScore = Double.POSITIVE_INFINITY;
+        double maxScore = Double.NEGATIVE_INFINITY;
+        for (double score : scores) {
+            if (Double.isNaN(score)) continue;
+            minScore = Math.min(minScore, score);
+            maxScore = Math.max(maxScore, score);
+        }
+        if (minScore > maxScore) minScore = maxScore = 0.0;
+
+        // stores the scores, codes run from -(levels / 2) to levels / 2 with the lowest value kept for missing entries
+        switch (precision) {
+            case DOUBLE:
+                this.scores = scores;
+                break;
+            case FLOAT:
+                floatScores = new float[scores.length];
+                for (int i = 0; i < scores.length; i++) floatScores[i] = (float) scores[i];
+                break;
+            case SHORT:
+                step = maxScore > minScore ? (maxScore - minScore) / (2 * Short.MAX_VALUE) : 1.0;
+                shortScores = new short[scores.length];
+                for (int i = 0; i < scores.length; i++) {
+                    shortScores[i] = Double.isNaN(scores[i]) ? MISSING_SHORT
+                            : (short) (Math.round((scores[i] - minScore) / step) - Short.MAX_VALUE);
+                }
+                break;
+            case BYTE:
+                step = maxScore > minScore ? (maxScore - minScore) / (2 * Byte.MAX_VALUE) : 1.0;
+                byteScores = new byte[scores.length];
+                for (int i = 0; i < scores.length; i++) {
+                    byteScores[i] = Double.isNaN(scores[i]) ? MISSING_BYTE
+                            : (byte) (Math.round((scores[i] - minScore) / step) - Byte.MAX_VALUE);
+                }
+                break;
+        }
+    }
+
+    /**
+     * builds the compact table from string-keyed rows
+     *
+     * @param numContexts    the number of context ids
+     * @param tags           the tag dictionary used for the next tag ids
+     * @param rowOf          the row of each context id, or null if the context has no row
+     * @param denseFillRatio rows with at least this fraction of the tags are stored at full width
+     * @return CompactTransitionTable the compact table
+     */
+    public static CompactTransitionTable build(int numContexts, Vocabulary tags, IntFunction<Map<String, Double>> rowOf, double denseFillRatio) {
+        return build(numContexts, tags, rowOf, denseFillRatio, Precision.DOUBLE);
+    }
+
+    /**
+     * builds the compact table from string-keyed rows, storing the scores at the given precision
+     *
+     * @param numContexts    the number of context ids
+     * @param tags           the tag dictionary used for the next tag ids
+     * @param rowOf          the row of each context id, or null if the context has no row
+     * @param denseFillRatio rows with at least this fraction of the tags are stored at full width
+     * @param precision      how the scores are stored
+     * @return CompactTransitionTable the compact table
+     */
+    public static CompactTransitionTable build(int numContexts, Vocabulary tags, IntFunction<Map<String, Double>> rowOf,
+                                               double denseFillRatio, Precision precision) {
+
+        int numTags = tags.size();
+        int[] rowStarts = new int[numContexts + 1];
+        boolean[] present = new boolean[numContexts];
+        boolean[] dense = new boolean[numContexts];
+        int[] nextTags = new int[1024];
+        double[] scores = new double[1024];
+        int numEntries = 0;
+
+        for (int context = 0; context < numContexts; context++) {
+            rowStarts[context] = numEntries;
+            Map<String, Double> row = rowOf.apply(context);
+            if (row == null) continue;
+            present[context] = true;
+
+            // sorts the entries of the row by tag id
+            int[] rowTags = new int[row.size()];
+            int j = 0;
+            for (String tag : row.keySet()) rowTags[j++] = tags.id(tag);
+            Arrays.sort(rowTags);
+
+            dense[context] = rowTags.length >= denseFillRatio * numTags;
+            int width = dense[context] ? numTags : rowTags.length;
+            if (numEntries + width > nextTags.length) {
+                nextTags = Arrays.copyOf(nextTags, Math.max(nextTags.length * 2, numEntries + width));
+                scores = Arrays.copyOf(scores, nextTags.length);
+            }
+
+            // dense rows hold every tag with NaN for the missing ones, sparse rows only the present ones
+            if (dense[context]) {
+                for (int tag = 0; tag < numTags; tag++) {
+                    nextTags[numEntries + tag] = tag;
+                    scores[numEntries + tag] = Double.NaN;
+                }
+                for (int tag : rowTags) scores[numEntries + tag] = row.get(tags.string(tag));
+            } else {
+                for (j = 0; j < rowTags.length; j++) {
+                    nextTags[numEntries + j] = rowTags[j];
+                    scores[numEntries + j] = row.get(tags.string(rowTags[j]));
+                }
+            }
+            numEntries += width;
+        }
+        rowStarts[numContexts] = numEntries;
+
+        return new CompactTransitionTable(numContexts, numTags, rowStarts, present, dense,
+                Arrays.copyOf(nextTags, numEntries), Arrays.copyOf(scores, numEntries), precision);
+    }
+
+    /**
+     * @param context the context id
+     * @return boolean whether the context has a row, like containsKey on the map form
+     */
+    public boolean hasRow(int context) {
+        return present[context];
+    }
+
+    /**
+     * @param context the context id
+     * @param tag     the next tag id
+     * @return double the score of the transition, or NaN if it was never seen
+     */
+    public double score(int context, int tag) {
+        int start = rowStarts[context];
+        if (dense[context]) return entryScore(start + tag);
+        int index = Arrays.binarySearch(nextTags, start, rowStarts[context + 1], tag);
+        return index >= 0 ? entryScore(index) : Double.NaN;
+    }
+
+    /**
+     * @param context the context id
+     * @return int the index of the first entry of the row
+     */
+    public int rowStart(int context) {
+        return rowStarts[context];
+    }
+
+    /**
+     * @param context the context id
+     * @return int the index after the last entry of the row
+     */
+    public int rowEnd(int context) {
+        return rowStarts[context + 1];
+    }
+
+    /**
+     * @param entry the index of an entry
+     * @return int the next tag id of the entry
+     */
+    public int entryTag(int entry) {
+        return nextTags[entry];
+    }
+
+    /**
+     * @param entry the index of an entry
+     * @return double the score of the entry, NaN for a missing entry of a dense row
+     */
+    public double entryScore(int entry) {
+        switch (precision) {
+            case FLOAT:
+                return floatScores[entry];
+            case SHORT:
+                short shortCode = shortScores[entry];
+                return shortCode == MISSING_SHORT ? Double.NaN : minScore + (shortCode + Short.MAX_VALUE) * step;
+            case BYTE:
+                byte byteCode = byteScores[entry];
+                return byteCode == MISSING_BYTE ? Double.NaN : minScore + (byteCode + Byte.MAX_VALUE) * step;
+            default:
+                return scores[entry];
+        }
+    }
+
+    /**
+     * @return int the number of stored entries, counting the full width of dense rows
+     */
+    public int numEntries() {
+        return nextTags.length;
+    }
+
+    /**
+     * @return long an estimate of the heap used by the table in bytes
+     */
+    public long estimatedBytes() {
+        // array headers are 16 bytes
+        int bytesPerScore = precision == Precision.DOUBLE ? 8 : precision == Precision.FLOAT ? 4 : precision == Precision.SHORT ? 2 : 1;
+        return 16 + 4L * rowStarts.length + 16 + present.length + 16 + dense.length
+                + 16 + 4L * nextTags.length + 16 + (long) bytesPerScore * nextTags.length;
+    }
+
+    // compares the accuracy, speed and size of the trigram tagger at every score precision
+    public static void main(String[] args) {
+
+        System.out.println("Training with the Brown corpus");
+        ViterbiTaggerEC tagger = new ViterbiTaggerEC("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt");
+
+        for (Precision precision : Precision.values()) {
+            System.out.println("\nTesting with " + precision + " scores");
+            tagger.compactTables(false, precision);
+            System.out.println("Score tables use " + (tagger.compactBigramScores.estimatedBytes() + tagger.compactTrigramScores.estimatedBytes()) + " bytes");
+            try {
+                long start = System.nanoTime();
+                tagger.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-EC-" + precision + ".txt");
+                System.out.println("Tagged the Brown test sentences in " + String.format("%.2f", (System.nanoTime() - start) / 1e9) + " s");
+                tagger.calculateAccuracy("texts/brown-test-tags-result-EC-" + precision + ".txt", "texts/brown-test-tags.txt");
+            } catch (IOException e) {
+                System.err.println("Something went wrong while testing model");
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+import java.io.*;
+import java.util.*;
+import java.util.zip.Deflater;
+
+/**
+ * converts a pair of parallel sentence/tag text files into the binary corpus format read by PackedCorpus
+ * words and tags are replaced by ids so training never has to split or hash the text again
+ *
+ * layout (all numbers big-endian):
+ * magic, version, flags, header length, header (tag dictionary, word dictionary, sentence and token counts),
+ * then the body: sentence offsets, word ids, tag ids
+ * when FLAG_DEFLATE is set the body is stored as a sequence of deflated frames
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class CorpusPacker {
+
+    public static final int MAGIC = 0x504F5343;     // "POSC"
+    public static final int VERSION = 1;
+    public static final int FLAG_DEFLATE = 1;       // the body is stored in deflated frames
+    public static final int FRAME_SIZE = 1 << 20;   // uncompressed bytes per deflated frame
+
+    /**
+     * packs the parallel sentence and tag files into a binary corpus file
+     *
+     * @param sentencesFileName name of file with one sentence per line
+     * @param tagsFileName      name of the file with the corresponding tags
+     * @param packedFileName    name of the binary corpus file to write
+     * @param deflate           whether to compress the body
+     */
+    public static void pack(String sentencesFileName, String tagsFileName, String packedFileName, boolean deflate) throws IOException {
+
+        // read the files
+        BufferedReader sentencesInput = new BufferedReader(new FileReader(sentencesFileName));
+        BufferedReader tagsInput = new BufferedReader(new FileReader(tagsFileName));
+
+        // initializes the dictionaries and the growable id columns
+        Vocabulary tagVocabulary = new Vocabulary();
+        Vocabulary wordVocabulary = new Vocabulary();
+        int[] offsets = new int[1024];
+        int[] wordIds = new int[1 << 16];
+        int[] tagIds = new int[1 << 16];
+        int numSentences = 0;
+        int numTokens = 0;
+
+        String currentSentenceLine;
+        String currentTagLine;
+
+        // encodes the files line by line
+        while ((currentSentenceLine = sentencesInput.readLine()) != null) {
+            currentTagLine = tagsInput.readLine();
+            if (currentTagLine == null)
+                throw new IOException("The tags file has fewer lines than the sentences file");
+
+            String[] words = currentSentenceLine.split(" ");
+            String[] tags = currentTagLine.split(" ");
+            if (words.length != tags.length)
+                throw new IOException("Sentence " + (numSentences + 1) + " has " + words.length + " words but " + tags.length + " tags");
+
+            // grows the columns when they are full
+            if (numSentences + 2 > offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            if (numTokens + words.length > wordIds.length) {
+                int newLength = Math.max(wordIds.length * 2, numTokens + words.length);
+                wordIds = Arrays.copyOf(wordIds, newLength);
+                tagIds = Arrays.copyOf(tagIds, newLength);
+            }
+
+            // records the ids of the words and tags
+            offsets[numSentences] = numTokens;
+            for (int i = 0; i < words.length; i++) {
+                wordIds[numTokens] = wordVocabulary.add(words[i]);
+                tagIds[numTokens] = tagVocabulary.add(tags[i]);
+                numTokens++;
+            }
+            numSentences++;
+        }
+        offsets[numSentences] = numTokens;
+
+        // closes the files
+        sentencesInput.close();
+        tagsInput.close();
+
+        // writes the header into memory first so its length can be recorded
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(tagVocabulary.size());
+        for (String tag : tagVocabulary.strings()) header.writeUTF(tag);
+        header.writeInt(wordVocabulary.size());
+        for (String word : wordVocabulary.strings()) header.writeUTF(word);
+        header.writeInt(numSentences);
+        header.writeInt(numTokens);
+        header.close();
+
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(packedFileName), 1 << 16));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(deflate ? FLAG_DEFLATE : 0);
+        output.writeInt(headerBytes.size());
+        headerBytes.writeTo(output);
+
+        // writes the body either raw or through the frame compressor
+        if (deflate) {
+            FrameDeflater body = new FrameDeflater(output);
+            writeColumns(new DataOutputStream(body), offsets, numSentences + 1, wordIds, tagIds, numTokens);
+            body.close();
+        } else {
+            writeColumns(output, offsets, numSentences + 1, wordIds, tagIds, numTokens);
+        }
+
+        output.close();
+    }
+
+    /**
+     * writes the three id columns of the body
+     */
+    private static void writeColumns(DataOutputStream output, int[] offsets, int numOffsets, int[] wordIds, int[] tagIds, int numTokens) throws IOException {
+        for (int i = 0; i < numOffsets; i++) output.writeInt(offsets[i]);
+        for (int i = 0; i < numTokens; i++) output.writeInt(wordIds[i]);
+        for (int i = 0; i < numTokens; i++) output.writeInt(tagIds[i]);
+        output.flush();
+    }
+
+    /**
+     * output stream that buffers FRAME_SIZE bytes at a time and writes each buffer as
+     * [uncompressed length, compressed length, deflated bytes]
+     */
+    private static class FrameDeflater extends OutputStream {
+
+        private final DataOutputStream output;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final byte[] frame = new byte[FRAME_SIZE];
+        private byte[] compressed = new byte[FRAME_SIZE + 1024];
+        private int frameLength = 0;
+
+        FrameDeflater(DataOutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (frameLength == frame.length) flushFrame();
+            frame[frameLength++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (frameLength == frame.length) flushFrame();
+                int chunk = Math.min(length, frame.length - frameLength);
+                System.arraycopy(bytes, offset, frame, frameLength, chunk);
+                frameLength += chunk;
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        /**
+         * deflates the buffered bytes as one frame
+         */
+        private void flushFrame() throws IOException {
+            if (frameLength == 0) return;
+            deflater.reset();
+            deflater.setInput(frame, 0, frameLength);
+            deflater.finish();
+            int compressedLength = 0;
+            while (!deflater.finished()) {
+                if (compressedLength == compressed.length) compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+            output.writeInt(frameLength);
+            output.writeInt(compressedLength);
+            output.write(compressed, 0, compressedLength);
+            frameLength = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushFrame();
+            deflater.end();
+            output.flush();
+        }
+    }
+
+    /**
+     * packs a corpus from the command line
+     * usage: CorpusPacker sentences-file tags-file packed-file [--deflate]
+     */
+    public static void main(String[] args) {
+
+        if (args.length < 3) {
+            System.err.println("usage: CorpusPacker sentences-file tags-file packed-file [--deflate]");
+            return;
+        }
+        boolean deflate = args.length > 3 && args[3].equals("--deflate");
+
+        try {
+            long start = System.nanoTime();
+            pack(args[0], args[1], args[2], deflate);
+            System.out.println("Packed " + args[0] + " into " + args[2] + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+        } catch (IOException e) {
+            System.err.println("Something went wrong while packing corpus: " + e.getMessage());
+        }
+    }
+}
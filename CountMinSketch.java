@@ -0,0 +1,96 @@
+/**
+ * approximate frequencies of strings in a fixed amount of memory
+ * each string is counted in one cell of every row, picked by a different hash, and its estimate is the smallest
+ * of its cells; estimates never fall below the true count and exceed it by at most a small share of the total
+ * increments only raise the cells that are at the current minimum (conservative update), which tightens the estimates
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class CountMinSketch {
+
+    private final int[] cells;      // depth rows of width cells, row after row
+    private final int depth;
+    private final int mask;         // width - 1, the width is a power of two
+    public long total;              // the number of increments
+
+    /**
+     * @param depth the number of rows, each with its own hash
+     * @param width the cells of each row, rounded down to a power of two
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth < 1 || width < 2) throw new IllegalArgumentException("A sketch needs at least one row of two cells");
+        this.depth = depth;
+        int rowWidth = Integer.highestOneBit(width);
+        this.mask = rowWidth - 1;
+        this.cells = new int[depth * rowWidth];
+    }
+
+    /**
+     * sizes a sketch to a memory budget
+     *
+     * @param depth       the number of rows
+     * @param budgetBytes the bytes the cells may take
+     * @return CountMinSketch the sketch with the widest rows that fit
+     */
+    public static CountMinSketch ofBytes(int depth, long budgetBytes) {
+        long width = Math.max(2, budgetBytes / (4L * depth));
+        return new CountMinSketch(depth, (int) Math.min(width, 1 << 30));
+    }
+
+    /**
+     * counts one occurrence of a string
+     *
+     * @param key the string
+     * @return int the estimated count of the string, including this occurrence
+     */
+    public int add(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) estimate = Math.min(estimate, cells[row * (mask + 1) + ((h1 + row * h2) & mask)]);
+        if (estimate < Integer.MAX_VALUE) estimate++;
+        for (int row = 0; row < depth; row++) {
+            int cell = row * (mask + 1) + ((h1 + row * h2) & mask);
+            if (cells[cell] < estimate) cells[cell] = estimate;
+        }
+        total++;
+        return estimate;
+    }
+
+    /**
+     * @param key a string
+     * @return int the estimated count of the string, at least its true count
+     */
+    public int estimate(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) estimate = Math.min(estimate, cells[row * (mask + 1) + ((h1 + row * h2) & mask)]);
+        return estimate;
+    }
+
+    /**
+     * @return long the bytes taken by the cells
+     */
+    public long estimatedBytes() {
+        return 4L * cells.length;
+    }
+
+    /**
+     * 64-bit hash of the characters, split by the callers into the two hashes that pick a cell in each row
+     */
+    private static long hash(String key) {
+        long hash = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < key.length(); i++) hash = (hash ^ key.charAt(i)) * 0x100000001B3L;
+        // finalizer of MurmurHash3, so both halves depend on every character
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * decodes batches of sentences in parallel so that all threads finish together
+ * the cost of each sentence is estimated as the sum over its words of the candidate tags,
+ * i.e. tokens times expected candidate tags; sentences are sorted by cost and packed into bins of
+ * roughly equal cost (an expensive sentence gets a bin of its own), and the bins are run
+ * most expensive first on a work-stealing fork-join pool
+ * results always come back in the original order
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class DecodeScheduler {
+
+    private final Tagger tagger;
+    private final ForkJoinPool pool;
+    private final int binsPerThread;    // how many bins each thread gets on average, more bins balance better
+    public LatencyStats lastBatchStats; // per-sentence decode latency of the most recent batch
+
+    /**
+     * instantiate the scheduler
+     *
+     * @param tagger     the tagger to decode with, its viterbiDecoding must be safe to call from many threads
+     * @param numThreads the number of decoding threads
+     */
+    public DecodeScheduler(Tagger tagger, int numThreads) {
+        this.tagger = tagger;
+        this.pool = new ForkJoinPool(numThreads);
+        this.binsPerThread = 8;
+    }
+
+    /**
+     * decodes a batch of lines
+     *
+     * @param lines the strings to be decoded
+     * @return List<List<String>> the decoded tags of each line, in the same order
+     */
+    public List<List<String>> viterbiDecodingBatch(List<String> lines) {
+
+        int numLines = lines.size();
+        List<List<String>> results = new ArrayList<>(Collections.nCopies(numLines, null));
+        LatencyStats stats = new LatencyStats(Math.max(1, numLines));
+        if (numLines == 0) {
+            lastBatchStats = stats;
+            return results;
+        }
+
+        // estimates the cost of every sentence
+        long[] costs = new long[numLines];
+        long totalCost = 0;
+        Integer[] order = new Integer[numLines];
+        for (int i = 0; i < numLines; i++) {
+            for (String word : lines.get(i).split(" ")) costs[i] += tagger.candidateTagCount(word);
+            totalCost += costs[i];
+            order[i] = i;
+        }
+
+        // packs the sentences, most expensive first, into bins of about the target cost
+        Arrays.sort(order, (a, b) -> Long.compare(costs[b], costs[a]));
+        long targetCost = Math.max(1, totalCost / ((long) pool.getParallelism() * binsPerThread));
+        List<int[]> bins = new ArrayList<>();
+        int[] bin = new int[numLines];
+        int binSize = 0;
+        long binCost = 0;
+        for (int index : order) {
+            bin[binSize++] = index;
+            binCost += costs[index];
+            if (binCost >= targetCost) {
+                bins.add(Arrays.copyOf(bin, binSize));
+                binSize = 0;
+                binCost = 0;
+            }
+        }
+        if (binSize > 0) bins.add(Arrays.copyOf(bin, binSize));
+
+        // runs the bins on the pool, each decoded sentence goes to its original position
+        pool.invoke(new DecodeBins(bins, 0, bins.size(), lines, results, stats));
+        lastBatchStats = stats;
+        return results;
+    }
+
+    /**
+     * fork-join task over a range of bins, split in halves so idle threads can steal the rest
+     */
+    private class DecodeBins extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<int[]> bins;
+        private final int from;
+        private final int to;
+        private final List<String> lines;
+        private final List<List<String>> results;
+        private final LatencyStats stats;
+
+        DecodeBins(List<int[]> bins, int from, int to, List<String> lines, List<List<String>> results, LatencyStats stats) {
+            this.bins = bins;
+            this.from = from;
+            this.to = to;
+            this.lines = lines;
+            this.results = results;
+            this.stats = stats;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new DecodeBins(bins, from, middle, lines, results, stats),
+                        new DecodeBins(bins, middle, to, lines, results, stats));
+                return;
+            }
+            for (int index : bins.get(from)) {
+                long start = System.nanoTime();
+                List<String> tags = tagger.viterbiDecoding(lines.get(index));
+                stats.record(System.nanoTime() - start, 1);
+                results.set(index, tags);
+            }
+        }
+    }
+
+    /**
+     * tests the model on a file in batches, writing the tags in the original order
+     * and printing the latency of each batch
+     *
+     * @param testSentencesFileName the file name of the testing sentences
+     * @param resultFileName        the file name of the testing tags
+     * @param batchSize             the number of lines decoded together
+     */
+    public void testingModel(String testSentencesFileName, String resultFileName, int batchSize) throws IOException {
+
+        // opens the files
+        BufferedReader testInput = new BufferedReader(new FileReader(testSentencesFileName));
+        BufferedWriter result = new BufferedWriter(new FileWriter(resultFileName));
+
+        List<String> batch = new ArrayList<>(batchSize);
+        String currentLine;
+        int batchNumber = 0;
+        while (true) {
+            currentLine = testInput.readLine();
+            if (currentLine != null) batch.add(currentLine);
+
+            // decodes a full batch, or the last partial one
+            if (batch.size() == batchSize || (currentLine == null && !batch.isEmpty())) {
+                long start = System.nanoTime();
+                List<List<String>> tagLists = viterbiDecodingBatch(batch);
+                long wallNanos = System.nanoTime() - start;
+                for (List<String> tags : tagLists) {
+                    StringBuilder tagLine = new StringBuilder();
+                    for (String tag : tags) tagLine.append(tag).append(' ');
+                    result.write(tagLine.append('\n').toString());
+                }
+                System.out.println("batch " + (++batchNumber) + ": " + batch.size() + " sentences in "
+                        + String.format("%.1f", wallNanos / 1e6) + " ms, sentence p50=" + String.format("%.3f", lastBatchStats.percentileMillis(50))
+                        + "ms p99=" + String.format("%.3f", lastBatchStats.percentileMillis(99))
+                        + "ms max=" + String.format("%.3f", lastBatchStats.percentileMillis(100)) + "ms");
+                batch.clear();
+            }
+            if (currentLine == null) break;
+        }
+
+        // closes the files
+        testInput.close();
+        result.close();
+    }
+
+    /**
+     * stops the decoding threads
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    // decodes the Brown test sentences with the trigram tagger on every core
+    public static void main(String[] args) {
+
+        System.out.println("Training with the Brown corpus");
+        ViterbiTaggerEC tagger = new ViterbiTaggerEC("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt");
+        tagger.compactTables(true);
+
+        DecodeScheduler scheduler = new DecodeScheduler(tagger, Runtime.getRuntime().availableProcessors());
+        try {
+            scheduler.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-EC-scheduler.txt", 512);
+            tagger.calculateAccuracy("texts/brown-test-tags-result-EC-scheduler.txt", "texts/brown-test-tags.txt");
+        } catch (IOException e) {
+            System.err.println("Something went wrong while testing model");
+        }
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,232 @@
+import javax.tools.*;
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.*;
+
+/**
+ * generates a trigram decoder specialized to one SmoothedTransitionTable when a model is loaded
+ * the source is written with the tag count and table layout as constants and the innermost loop fully unrolled,
+ * compiled in memory with the system Java compiler and defined as a hidden class, so the JIT sees constant
+ * loop bounds and a trusted final score array
+ *
+ * needs a JDK (the system compiler is missing from a plain runtime); decoding tags exactly like SmoothedTransitionTable.decode
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class DecoderSpecializer {
+
+    /**
+     * a decoder generated for one table
+     */
+    public interface Decoder {
+        /**
+         * @param emissions the log observation score of each tag id at each position, as for SmoothedTransitionTable.decode
+         * @return int[] the decoded tag ids, or null if every path was ruled out
+         */
+        int[] decode(double[][] emissions);
+    }
+
+    private static final String CLASS_NAME = "SpecializedTrigramDecoder";
+
+    // each unrolled prevPrev step is about 34 bytes of bytecode, so at this many tags decode stays near 4.5 KB,
+    // well under the 8000 bytes above which HotSpot does not compile a method (HugeMethodLimit) and the 64 KB class file limit
+    public static final int MAX_UNROLLED_TAGS = 128;
+
+    /**
+     * generates, compiles and loads a decoder for a trigram table
+     *
+     * @param table a trigram SmoothedTransitionTable
+     * @return Decoder the specialized decoder
+     */
+    public static Decoder specialize(SmoothedTransitionTable table) {
+        if (!table.isTrigram()) throw new IllegalArgumentException("Only trigram tables are specialized");
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) throw new IllegalStateException("Specializing needs the system Java compiler of a JDK");
+
+        byte[] classBytes = compile(compiler, source(table.numTags));
+        try {
+            // the hidden class lives in this class's package and can only be reached through its constructor handle
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+            MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, double[].class));
+            return (Decoder) constructor.invoke(table.trigramScores());
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not load the specialized decoder: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * writes the source of a decoder for numTags tags
+     * the loops are those of SmoothedTransitionTable.decodeTrigram, with the prevPrev loop unrolled for every step after the second;
+     * above MAX_UNROLLED_TAGS tags it stays a loop, still over the constant tag count
+     *
+     * @param numTags the number of tags of the table
+     * @return String the Java source
+     */
+    public static String source(int numTags) {
+        StringBuilder unrolled = new StringBuilder();
+        if (numTags > MAX_UNROLLED_TAGS) {
+            unrolled.append("                        for (int prevPrev = 1; prevPrev < N; prevPrev++) {\n")
+                    .append("                            score = column[stateRow + prevPrev] + scores[scoreRow + prevPrev];\n")
+                    .append("                            if (score > best) {\n")
+                    .append("                                best = score;\n")
+                    .append("                                bestPrevPrev = prevPrev;\n")
+                    .append("                            }\n")
+                    .append("                        }\n");
+        }
+        for (int prevPrev = 1; prevPrev < numTags && numTags <= MAX_UNROLLED_TAGS; prevPrev++) {
+            unrolled.append("                        score = column[stateRow + ").append(prevPrev).append("] + scores[scoreRow + ").append(prevPrev).append("];\n")
+                    .append("                        if (score > best) {\n")
+                    .append("                            best = score;\n")
+                    .append("                            bestPrevPrev = ").append(prevPrev).append(";\n")
+                    .append("                        }\n");
+        }
+
+        return "public final class " + CLASS_NAME + " implements DecoderSpecializer.Decoder {\n"
+                + "    private static final int N = " + numTags + ";\n"
+                + "    private static final int W = " + (numTags + 1) + ";\n"
+                + "    private static final int START = " + numTags + ";\n"
+                + "    private final double[] scores;\n"
+                + "\n"
+                + "    public " + CLASS_NAME + "(double[] scores) {\n"
+                + "        if (scores.length != W * N * W) throw new IllegalArgumentException(\"Table does not match the decoder\");\n"
+                + "        this.scores = scores;\n"
+                + "    }\n"
+                + "\n"
+                + "    public int[] decode(double[][] emissions) {\n"
+                + "        final double[] scores = this.scores;\n"
+                + "        int length = emissions.length;\n"
+                + "        double[] column = new double[W * W];\n"
+                + "        java.util.Arrays.fill(column, Double.NEGATIVE_INFINITY);\n"
+                + "        column[START * W + START] = 0.0;\n"
+                + "        double[] nextColumn = new double[W * W];\n"
+                + "        java.util.Arrays.fill(nextColumn, Double.NEGATIVE_INFINITY);\n"
+                + "        int[][] backPointers = new int[length][W * W];\n"
+                + "\n"
+                + "        for (int i = 0; i < length; i++) {\n"
+                + "            double[] emission = emissions[i];\n"
+                + "            int[] back = backPointers[i];\n"
+                + "            if (i <= 1) {\n"
+                + "                int prevFrom = i == 0 ? START : 0;\n"
+                + "                int prevTo = i == 0 ? W : N;\n"
+                + "                for (int prev = prevFrom; prev < prevTo; prev++) {\n"
+                + "                    for (int next = 0; next < N; next++) {\n"
+                + "                        double score = column[prev * W + START] + scores[(prev * N + next) * W + START];\n"
+                + "                        nextColumn[next * W + prev] = score + emission[next];\n"
+                + "                        back[next * W + prev] = START;\n"
+                + "                    }\n"
+                + "                }\n"
+                + "            } else {\n"
+                + "                for (int prev = 0; prev < N; prev++) {\n"
+                + "                    int stateRow = prev * W;\n"
+                + "                    for (int next = 0; next < N; next++) {\n"
+                + "                        int scoreRow = (prev * N + next) * W;\n"
+                + "                        double best = column[stateRow] + scores[scoreRow];\n"
+                + "                        int bestPrevPrev = 0;\n"
+                + "                        double score;\n"
+                + unrolled
+                + "                        nextColumn[next * W + prev] = best + emission[next];\n"
+                + "                        back[next * W + prev] = bestPrevPrev;\n"
+                + "                    }\n"
+                + "                }\n"
+                + "            }\n"
+                + "            if (i == 0) column[START * W + START] = Double.NEGATIVE_INFINITY;\n"
+                + "            if (i == 1) for (int tag = 0; tag < N; tag++) column[tag * W + START] = Double.NEGATIVE_INFINITY;\n"
+                + "            double[] swap = column;\n"
+                + "            column = nextColumn;\n"
+                + "            nextColumn = swap;\n"
+                + "        }\n"
+                + "\n"
+                + "        int best = 0;\n"
+                + "        for (int state = 1; state < W * W; state++) if (column[state] > column[best]) best = state;\n"
+                + "        if (column[best] == Double.NEGATIVE_INFINITY) return null;\n"
+                + "        int[] tagIds = new int[length];\n"
+                + "        for (int i = length - 1; i >= 0; i--) {\n"
+                + "            tagIds[i] = best / W;\n"
+                + "            best = (best % W) * W + backPointers[i][best];\n"
+                + "        }\n"
+                + "        return tagIds;\n"
+                + "    }\n"
+                + "}\n";
+    }
+
+    /**
+     * compiles one source file in memory against the current class path
+     *
+     * @return byte[] the class file
+     */
+    private static byte[] compile(JavaCompiler compiler, String source) {
+        JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///" + CLASS_NAME + ".java"), JavaFileObject.Kind.SOURCE) {
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+        JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(compiler.getStandardFileManager(null, null, null)) {
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("bytes:///" + className + ".class"), kind) {
+                    public OutputStream openOutputStream() {
+                        return classBytes;
+                    }
+                };
+            }
+        };
+
+        StringWriter errors = new StringWriter();
+        List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"));
+        boolean compiled = compiler.getTask(errors, fileManager, null, options, null, Collections.singletonList(sourceFile)).call();
+        if (!compiled) throw new IllegalStateException("Could not compile the specialized decoder:\n" + errors);
+        return classBytes.toByteArray();
+    }
+
+    // compares the generated decoder with the generic one on the Brown test sentences
+    // there is no JMH in this project, so this is a plain harness: warm-up rounds, then timed rounds with their mean and spread
+    public static void main(String[] args) {
+
+        try {
+            System.out.println("Training with the Brown corpus");
+            ViterbiTaggerEC tagger = new ViterbiTaggerEC("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt");
+            tagger.compactTables(true);
+            tagger.smoothTransitions(0.001, 1.0);
+
+            List<String> lines = new ArrayList<>();
+            BufferedReader testInput = new BufferedReader(new FileReader("texts/brown-test-sentences.txt"));
+            String currentLine;
+            while ((currentLine = testInput.readLine()) != null) lines.add(currentLine);
+            testInput.close();
+
+            long start = System.nanoTime();
+            Decoder specialized = specialize(tagger.smoothedTransitions);
+            System.out.println("Specialized for " + tagger.smoothedTransitions.numTags + " tags in "
+                    + String.format("%.0f", (System.nanoTime() - start) / 1e6) + " ms");
+
+            List<List<String>> generic = new ArrayList<>();
+            for (String line : lines) generic.add(tagger.viterbiDecoding(line));
+            tagger.specializedDecoder = specialized;
+            List<List<String>> generated = new ArrayList<>();
+            for (String line : lines) generated.add(tagger.viterbiDecoding(line));
+            System.out.println("Same tags: " + generic.equals(generated));
+
+            for (Decoder decoder : new Decoder[]{null, specialized}) {
+                tagger.specializedDecoder = decoder;
+                double[] seconds = new double[5];
+                for (int round = -3; round < seconds.length; round++) {
+                    start = System.nanoTime();
+                    for (String line : lines) tagger.viterbiDecoding(line);
+                    if (round >= 0) seconds[round] = (System.nanoTime() - start) / 1e9;
+                }
+                double mean = 0;
+                for (double s : seconds) mean += s / seconds.length;
+                double spread = 0;
+                for (double s : seconds) spread += (s - mean) * (s - mean) / seconds.length;
+                System.out.println((decoder == null ? "generic" : "specialized") + ": " + String.format("%.3f", mean) + " s +- "
+                        + String.format("%.3f", Math.sqrt(spread)) + " per pass");
+            }
+        } catch (IOException e) {
+            System.err.println("Something went wrong while testing model");
+        }
+    }
+}
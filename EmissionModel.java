@@ -0,0 +1,32 @@
+/**
+ * source of the observation scores used in decoding
+ * the taggers resolve every word of a sentence with scoreSentence before the lattice pass,
+ * so the inner loop only reads a primitive array
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public interface EmissionModel {
+
+    /**
+     * @param tag  the tag
+     * @param word the lowercased word
+     * @return double the log score of the tag emitting the word, or NaN if the model has none
+     */
+    double score(String tag, String word);
+
+    /**
+     * @param word the lowercased word
+     * @return boolean whether the model has a score for the word under any tag
+     */
+    boolean contains(String word);
+
+    /**
+     * resolves all words of a sentence at once
+     *
+     * @param words the lowercased words of the sentence, null entries are unknown words
+     * @param tags  the tag ids of the decoder
+     * @return double[][] the log score of each word under each tag id, NaN where the model has none
+     */
+    double[][] scoreSentence(String[] words, Vocabulary tags);
+}
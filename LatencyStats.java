@@ -0,0 +1,90 @@
+import java.util.Arrays;
+
+/**
+ * records latencies and reports throughput and percentiles over the most recent samples
+ * safe to share between threads
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class LatencyStats {
+
+    private final long[] window;        // the most recent latencies in nanoseconds, used as a ring
+    private long count = 0;             // the number of latencies ever recorded
+    private long items = 0;             // the number of items (e.g. sentences or tokens) served by those requests
+    private final long startNanos;      // when recording started
+
+    /**
+     * instantiate the recorder
+     *
+     * @param windowSize the number of most recent latencies kept for percentiles
+     */
+    public LatencyStats(int windowSize) {
+        window = new long[windowSize];
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * records one request
+     *
+     * @param latencyNanos the latency of the request in nanoseconds
+     * @param numItems     the number of items the request served
+     */
+    public synchronized void record(long latencyNanos, long numItems) {
+        window[(int) (count % window.length)] = latencyNanos;
+        count++;
+        items += numItems;
+    }
+
+    /**
+     * @return long the number of requests recorded
+     */
+    public synchronized long count() {
+        return count;
+    }
+
+    /**
+     * @return long the number of items served by the recorded requests
+     */
+    public synchronized long items() {
+        return items;
+    }
+
+    /**
+     * @param percentile the percentile between 0 and 100
+     * @return double the latency at the percentile in milliseconds, over the recent window
+     */
+    public double percentileMillis(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (count == 0) return 0.0;
+            sorted = Arrays.copyOf(window, (int) Math.min(count, window.length));
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    /**
+     * @return double the requests per second since recording started
+     */
+    public double requestsPerSecond() {
+        return count() / ((System.nanoTime() - startNanos) / 1e9);
+    }
+
+    /**
+     * @return double the items per second since recording started
+     */
+    public double itemsPerSecond() {
+        return items() / ((System.nanoTime() - startNanos) / 1e9);
+    }
+
+    /**
+     * @return String a one-line summary of the throughput and percentiles
+     */
+    public String summary() {
+        return String.format("requests=%d items=%d req/s=%.1f items/s=%.1f p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms",
+                count(), items(), requestsPerSecond(), itemsPerSecond(),
+                percentileMillis(50), percentileMillis(90), percentileMillis(99), percentileMillis(100));
+    }
+}
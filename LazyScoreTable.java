@@ -0,0 +1,119 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * score table that keeps raw counts and row totals and computes log probabilities on demand
+ * the first lookup of a row turns it into log probabilities and remembers the result,
+ * so training skips the full normalization pass and rows that are never used are never converted
+ *
+ * lookups are safe to share between decoding threads; add must not run while decoding
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class LazyScoreTable {
+
+    private final HashMap<String, HashMap<String, Double>> counts;             // the raw counts of each row
+    private final HashMap<String, Double> rowTotals;                           // the total count of each row, fractional counts included
+    private final ConcurrentHashMap<String, HashMap<String, Double>> logRows;  // rows already turned into log probabilities
+
+    /**
+     * instantiate the table around raw counts, which it takes ownership of
+     *
+     * @param counts the raw counts, e.g. the transition counts before normalization
+     */
+    public LazyScoreTable(HashMap<String, HashMap<String, Double>> counts) {
+        this.counts = counts;
+        this.rowTotals = new HashMap<>();
+        this.logRows = new ConcurrentHashMap<>();
+
+        // adds up the counts of each row once
+        for (String context : counts.keySet()) {
+            double total = 0;
+            for (double count : counts.get(context).values()) total += count;
+            rowTotals.put(context, total);
+        }
+    }
+
+    /**
+     * looks up a row of log probabilities, computing and remembering it on first use
+     *
+     * @param context the row to look up
+     * @return HashMap<String, Double> the log probabilities of the row, or null if the row has no counts
+     */
+    public HashMap<String, Double> row(String context) {
+        HashMap<String, Double> logRow = logRows.get(context);
+        if (logRow != null) return logRow;
+        if (!counts.containsKey(context)) return null;
+        return logRows.computeIfAbsent(context, this::normalizeRow);
+    }
+
+    /**
+     * divides each count of a row by the row total
+     */
+    private HashMap<String, Double> normalizeRow(String context) {
+        HashMap<String, Double> countRow = counts.get(context);
+        double total = rowTotals.get(context);
+        HashMap<String, Double> logRow = new HashMap<>(countRow.size() * 2);
+        for (String next : countRow.keySet()) logRow.put(next, Math.log(countRow.get(next) / total));
+        return logRow;
+    }
+
+    /**
+     * adds to a count, e.g. for one more training sentence
+     * only the total of the row is updated and its log probabilities are forgotten
+     *
+     * @param context the row
+     * @param next    the entry in the row
+     * @param count   the amount to add, which may be fractional, e.g. an expected count
+     */
+    public void add(String context, String next, double count) {
+        counts.computeIfAbsent(context, k -> new HashMap<>()).merge(next, count, Double::sum);
+        rowTotals.merge(context, count, Double::sum);
+        logRows.remove(context);
+    }
+
+    /**
+     * @return Set<String> the rows that have counts
+     */
+    public Set<String> contexts() {
+        return counts.keySet();
+    }
+
+    /**
+     * @param context the row
+     * @return boolean whether the log probabilities of the row have been computed and are remembered
+     */
+    public boolean isNormalized(String context) {
+        return logRows.containsKey(context);
+    }
+
+    /**
+     * @param context the row
+     * @return double the total count of the row
+     */
+    public double rowTotal(String context) {
+        Double total = rowTotals.get(context);
+        return total == null ? 0 : total;
+    }
+
+    /**
+     * @param context the row
+     * @return HashMap<String, Double> the raw counts of the row, or null if the row has no counts
+     */
+    public HashMap<String, Double> countRow(String context) {
+        return counts.get(context);
+    }
+
+    /**
+     * converts every row into log probabilities
+     *
+     * @param parallel whether to convert the rows on the common fork-join pool
+     * @return HashMap<String, HashMap<String, Double>> all rows as log probabilities, in the form used by the taggers
+     */
+    public HashMap<String, HashMap<String, Double>> materialize(boolean parallel) {
+        if (parallel) counts.keySet().parallelStream().forEach(this::row);
+        else counts.keySet().forEach(this::row);
+        return new HashMap<>(logRows);
+    }
+}
@@ -0,0 +1,283 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * EmissionModel over a lexicon file that is memory-mapped instead of loaded into HashMaps,
+ * so a large lexicon costs page cache rather than heap
+ *
+ * file layout (big-endian):
+ * magic, version, number of tags, the tags (UTF), number of words,
+ * the offset (long) of each word record in the order of the UTF-8 bytes of the words,
+ * then the records: UTF-8 length (unsigned short), UTF-8 bytes, number of entries (unsigned short),
+ * entries of (tag index (unsigned short), log score (double))
+ * words are found by binary search over the offsets
+ * the file is mapped in windows of 1 GB like a PackedCorpus body, each overlapping the next by the longest value read,
+ * so it may exceed 2 GB
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class MappedLexiconEmissionModel implements EmissionModel {
+
+    public static final int MAGIC = 0x504F534C;    // "POSL"
+    public static final int VERSION = 2;
+    public static final int MAX_WORD_BYTES = 0xFFFF;    // the longest word, in UTF-8 bytes, a record can hold
+    public static final int MAX_TAGS = 0xFFFF;
+
+    private static final int WINDOW_OVERLAP = 8;    // the longest value read, so no read spans two windows
+
+    private final MappedByteBuffer[] windows;       // only absolute reads are used, so lookups are safe across threads
+    private final String[] tags;                    // the tags of the lexicon
+    private final HashMap<String, Integer> tagIndex;
+    private final int numWords;
+    private final long offsetsStart;                // the position of the record offsets
+
+    /**
+     * opens a lexicon file written by write
+     *
+     * @param lexiconFileName name of the lexicon file
+     */
+    public MappedLexiconEmissionModel(String lexiconFileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(lexiconFileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 16) throw new IOException(lexiconFileName + " is not a lexicon file");
+            windows = new MappedByteBuffer[(int) ((size + PackedCorpus.WINDOW_BYTES - 1) >>> PackedCorpus.WINDOW_SHIFT)];
+            for (int w = 0; w < windows.length; w++) {
+                long windowStart = (long) w << PackedCorpus.WINDOW_SHIFT;
+                windows[w] = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(PackedCorpus.WINDOW_BYTES + WINDOW_OVERLAP, size - windowStart));
+            }
+        }
+        if (getInt(0) != MAGIC) throw new IOException(lexiconFileName + " is not a lexicon file");
+        int version = getInt(4);
+        if (version != VERSION) throw new IOException("Unsupported lexicon version " + version);
+
+        // reads the tags, each written with writeUTF as a length and the bytes in modified UTF-8, so readUTF decodes them
+        long position = 8;
+        tags = new String[getInt(position)];
+        position += 4;
+        tagIndex = new HashMap<>();
+        for (int i = 0; i < tags.length; i++) {
+            byte[] tag = new byte[2 + getUnsignedShort(position)];
+            for (int j = 0; j < tag.length; j++) tag[j] = get(position + j);
+            tags[i] = new DataInputStream(new ByteArrayInputStream(tag)).readUTF();
+            tagIndex.put(tags[i], i);
+            position += tag.length;
+        }
+        numWords = getInt(position);
+        offsetsStart = position + 4;
+    }
+
+    // absolute reads at a file offset, from the window it starts in
+
+    private MappedByteBuffer window(long offset) {
+        return windows[(int) (offset >>> PackedCorpus.WINDOW_SHIFT)];
+    }
+
+    private static int local(long offset) {
+        return (int) (offset & (PackedCorpus.WINDOW_BYTES - 1));
+    }
+
+    private byte get(long offset) {
+        return window(offset).get(local(offset));
+    }
+
+    private int getUnsignedShort(long offset) {
+        return window(offset).getShort(local(offset)) & 0xFFFF;
+    }
+
+    private int getInt(long offset) {
+        return window(offset).getInt(local(offset));
+    }
+
+    private long getLong(long offset) {
+        return window(offset).getLong(local(offset));
+    }
+
+    private double getDouble(long offset) {
+        return window(offset).getDouble(local(offset));
+    }
+
+    /**
+     * @return int the number of words in the lexicon
+     */
+    public int size() {
+        return numWords;
+    }
+
+    /**
+     * finds the record of a word by binary search over the sorted words
+     *
+     * @param word the lowercased word
+     * @return long the position of the record, or -1 if the word is not in the lexicon
+     */
+    private long find(String word) {
+        byte[] key = word.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = numWords - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long record = getLong(offsetsStart + 8L * middle);
+            int comparison = compare(record, key);
+            if (comparison < 0) low = middle + 1;
+            else if (comparison > 0) high = middle - 1;
+            else return record;
+        }
+        return -1;
+    }
+
+    /**
+     * compares the word of a record with a key as unsigned bytes
+     */
+    private int compare(long record, byte[] key) {
+        int length = getUnsignedShort(record);
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (get(record + 2 + i) & 0xFF) - (key[i] & 0xFF);
+            if (difference != 0) return difference;
+        }
+        return length - key.length;
+    }
+
+    public double score(String tag, String word) {
+        Integer index = tagIndex.get(tag);
+        long record = find(word);
+        if (index == null || record < 0) return Double.NaN;
+        long entries = record + 2 + getUnsignedShort(record);
+        int numEntries = getUnsignedShort(entries);
+        for (int e = 0; e < numEntries; e++) {
+            if (getUnsignedShort(entries + 2 + 10L * e) == index) return getDouble(entries + 4 + 10L * e);
+        }
+        return Double.NaN;
+    }
+
+    public boolean contains(String word) {
+        return find(word) >= 0;
+    }
+
+    public double[][] scoreSentence(String[] words, Vocabulary tagIds) {
+
+        // maps the tags of the lexicon to the tag ids of the decoder once per sentence
+        int[] decoderTag = new int[tags.length];
+        for (int i = 0; i < tags.length; i++) decoderTag[i] = tagIds.id(tags[i]);
+
+        double[][] scores = new double[words.length][tagIds.size()];
+        for (int i = 0; i < words.length; i++) {
+            Arrays.fill(scores[i], Double.NaN);
+            long record = words[i] == null ? -1 : find(words[i]);
+            if (record < 0) continue;
+            long entries = record + 2 + getUnsignedShort(record);
+            int numEntries = getUnsignedShort(entries);
+            for (int e = 0; e < numEntries; e++) {
+                int tag = decoderTag[getUnsignedShort(entries + 2 + 10L * e)];
+                if (tag >= 0) scores[i][tag] = getDouble(entries + 4 + 10L * e);
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * writes observation scores as a lexicon file
+     *
+     * @param obsScores       the log scores of each tag for each word, in the form used by the taggers (tag -> word -> score)
+     * @param lexiconFileName name of the file to write
+     * @throws IllegalArgumentException if there are more than MAX_TAGS tags or a word is longer than MAX_WORD_BYTES
+     */
+    public static void write(Map<String, ? extends Map<String, Double>> obsScores, String lexiconFileName) throws IOException {
+
+        // turns the rows around into word -> tag index -> score
+        List<String> tagList = new ArrayList<>(obsScores.keySet());
+        Collections.sort(tagList);
+        if (tagList.size() > MAX_TAGS) throw new IllegalArgumentException("A lexicon holds at most " + MAX_TAGS + " tags");
+        TreeMap<String, TreeMap<Integer, Double>> entries = new TreeMap<>(MappedLexiconEmissionModel::compareUtf8);
+        for (int t = 0; t < tagList.size(); t++) {
+            for (Map.Entry<String, Double> entry : obsScores.get(tagList.get(t)).entrySet()) {
+                if (entry.getKey().getBytes(StandardCharsets.UTF_8).length > MAX_WORD_BYTES)
+                    throw new IllegalArgumentException("A lexicon word is at most " + MAX_WORD_BYTES + " bytes long in UTF-8");
+                entries.computeIfAbsent(entry.getKey(), k -> new TreeMap<>()).put(t, entry.getValue());
+            }
+        }
+
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(lexiconFileName), 1 << 16));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(tagList.size());
+        for (String tag : tagList) output.writeUTF(tag);
+        output.writeInt(entries.size());
+
+        // the records start after the header and the offsets
+        long position = output.size() + 8L * entries.size();
+        for (Map.Entry<String, TreeMap<Integer, Double>> entry : entries.entrySet()) {
+            output.writeLong(position);
+            position += 2 + entry.getKey().getBytes(StandardCharsets.UTF_8).length + 2 + 10 * entry.getValue().size();
+        }
+        for (Map.Entry<String, TreeMap<Integer, Double>> entry : entries.entrySet()) {
+            byte[] word = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            output.writeShort(word.length);
+            output.write(word);
+            output.writeShort(entry.getValue().size());
+            for (Map.Entry<Integer, Double> score : entry.getValue().entrySet()) {
+                output.writeShort(score.getKey());
+                output.writeDouble(score.getValue());
+            }
+        }
+        output.close();
+    }
+
+    /**
+     * the order of words in the file: their UTF-8 bytes compared as unsigned values
+     */
+    private static int compareUtf8(String a, String b) {
+        byte[] x = a.getBytes(StandardCharsets.UTF_8);
+        byte[] y = b.getBytes(StandardCharsets.UTF_8);
+        int common = Math.min(x.length, y.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (x[i] & 0xFF) - (y[i] & 0xFF);
+            if (difference != 0) return difference;
+        }
+        return x.length - y.length;
+    }
+
+    // writes a lexicon from a tagged corpus, or with no arguments runs the Brown comparison
+    // usage: java MappedLexiconEmissionModel [sentences tags lexicon]
+    public static void main(String[] args) {
+
+        try {
+            if (args.length == 3) {
+                PosTagger tagger = new PosTagger(args[0], args[1]);
+                write(tagger.obsScores, args[2]);
+                System.out.println("Wrote " + new MappedLexiconEmissionModel(args[2]).size() + " words to " + args[2]);
+                return;
+            }
+
+            System.out.println("Training with the Brown corpus");
+            ViterbiTaggerEC tagger = new ViterbiTaggerEC("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt");
+            tagger.compactTables(true);
+
+            // the trained scores through the interface
+            tagger.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-lexicon.txt");
+            tagger.calculateAccuracy("texts/brown-test-tags-result-lexicon.txt", "texts/brown-test-tags.txt");
+
+            // the same scores from a mapped lexicon instead
+            write(tagger.obsScores, "texts/brown-train.lexicon");
+            MappedLexiconEmissionModel lexicon = new MappedLexiconEmissionModel("texts/brown-train.lexicon");
+            System.out.println("Mapped lexicon of " + lexicon.size() + " words");
+            tagger.emissionModel = lexicon;
+            tagger.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-lexicon.txt");
+            tagger.calculateAccuracy("texts/brown-test-tags-result-lexicon.txt", "texts/brown-test-tags.txt");
+
+            // a lexicon of the simple corpus in front of the trained scores
+            PosTagger simple = new PosTagger("texts/simple-train-sentences.txt", "texts/simple-train-tags.txt");
+            write(simple.obsScores, "texts/simple-train.lexicon");
+            tagger.emissionModel = new ChainedEmissionModel(new MappedLexiconEmissionModel("texts/simple-train.lexicon"), tagger.trainedEmissionModel());
+            tagger.testingModel("texts/simple-test-sentences.txt", "texts/simple-test-tags-result-lexicon.txt");
+            tagger.calculateAccuracy("texts/simple-test-tags-result-lexicon.txt", "texts/simple-test-tags.txt");
+        } catch (IOException e) {
+            System.err.println("Something went wrong with the lexicon: " + e.getMessage());
+        }
+    }
+}
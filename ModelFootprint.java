@@ -0,0 +1,351 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * estimates the heap taken by each component of a trained tagger, in every form it currently holds
+ * (the score and count maps, the compact tables, the dense smoothed table, the lazy count tables)
+ *
+ * objects are sized as on a 64-bit JDK 17 with compressed references and 8-byte alignment: 12-byte object headers,
+ * 16-byte array headers, 4-byte references; HashMap tables are sized as growing by put would leave them
+ * each object is counted once, by the first component that reaches it, so strings shared between maps are not counted twice
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class ModelFootprint {
+
+    public static final int ARRAY_HEADER = 16;
+    public static final int REFERENCE = 4;
+    public static final int HASH_MAP = 48;              // a HashMap without its table
+    public static final int HASH_MAP_NODE = 32;
+    public static final int CONCURRENT_HASH_MAP = 64;   // a ConcurrentHashMap without its table
+    public static final int ARRAY_LIST = 24;            // an ArrayList without its array
+    public static final int STRING = 24;                // a String without its bytes
+    public static final int BOX = 16;                   // a Double, Long or Integer
+    public static final int VOCABULARY = 24;            // a Vocabulary without its map and list
+    public static final int DEFAULT_LIST_CAPACITY = 10; // the array of an ArrayList filled by add
+
+    /**
+     * the estimated heap of one component in one form
+     */
+    public static class Component {
+        public final String name;       // e.g. "trigram transitions"
+        public final String form;       // e.g. "maps", "compact", "smoothed"
+        public final long entries;      // the entries of the component, e.g. the (tag, word) scores of the emissions
+        public final long bytes;
+
+        Component(String name, String form, long entries, long bytes) {
+            this.name = name;
+            this.form = form;
+            this.entries = entries;
+            this.bytes = bytes;
+        }
+    }
+
+    public final String model;
+    public final List<Component> components = new ArrayList<>();
+    private final Set<Object> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private ModelFootprint(String model) {
+        this.model = model;
+    }
+
+    /**
+     * @param tagger a trained trigram tagger
+     * @return ModelFootprint the components the tagger holds now
+     */
+    public static ModelFootprint of(ViterbiTaggerEC tagger) {
+        ModelFootprint footprint = new ModelFootprint("ViterbiTaggerEC");
+
+        // the strings first, so the tables reusing them only pay for their own structure
+        if (tagger.tagVocabulary != null)
+            footprint.add("tag dictionary", "vocabulary", tagger.tagVocabulary.size(), footprint.vocabularyBytes(tagger.tagVocabulary));
+        if (tagger.obsScores != null) footprint.addWords(tagger.obsScores.values());
+        if (tagger.wordIdCache != null)
+            footprint.add("word cache", "vocabulary", tagger.wordIdCache.words.size(), footprint.wordCacheBytes(tagger.wordIdCache));
+
+        footprint.addMaps("bigram transitions", tagger.bigramTransScores);
+        footprint.addTable("bigram transitions", tagger.compactBigramScores);
+        footprint.addMaps("trigram transitions", tagger.trigramTransScores);
+        footprint.addTable("trigram transitions", tagger.compactTrigramScores);
+        if (tagger.smoothedTransitions != null)
+            footprint.add("trigram transitions", "smoothed", tagger.smoothedTransitions.numTags, tagger.smoothedTransitions.estimatedBytes());
+        footprint.addMaps("emissions", tagger.obsScores);
+        footprint.addMaps("bigram counts", tagger.bigramTransCounts);
+        footprint.addTable("bigram counts", tagger.compactBigramCounts);
+        footprint.addMaps("trigram counts", tagger.trigramTransCounts);
+        footprint.addTable("trigram counts", tagger.compactTrigramCounts);
+        footprint.counted.clear();
+        return footprint;
+    }
+
+    /**
+     * @param tagger a trained bigram tagger
+     * @return ModelFootprint the components the tagger holds now
+     */
+    public static ModelFootprint of(PosTagger tagger) {
+        ModelFootprint footprint = new ModelFootprint("PosTagger");
+
+        if (tagger.smoothedTransitions != null)
+            footprint.add("tag dictionary", "vocabulary", tagger.smoothedTransitions.tags.size(), footprint.vocabularyBytes(tagger.smoothedTransitions.tags));
+        if (tagger.obsScores != null) footprint.addWords(tagger.obsScores.values());
+        if (tagger.lazyObsScores != null) {
+            List<Map<String, Double>> rows = new ArrayList<>();
+            for (String tag : tagger.lazyObsScores.contexts()) rows.add(tagger.lazyObsScores.countRow(tag));
+            footprint.addWords(rows);
+        }
+        if (tagger.wordIdCache != null)
+            footprint.add("word cache", "vocabulary", tagger.wordIdCache.words.size(), footprint.wordCacheBytes(tagger.wordIdCache));
+
+        footprint.addMaps("transitions", tagger.transScores);
+        footprint.addLazy("transitions", tagger.lazyTransScores);
+        if (tagger.smoothedTransitions != null)
+            footprint.add("transitions", "smoothed", tagger.smoothedTransitions.numTags, tagger.smoothedTransitions.estimatedBytes());
+        footprint.addMaps("emissions", tagger.obsScores);
+        footprint.addLazy("emissions", tagger.lazyObsScores);
+        footprint.counted.clear();
+        return footprint;
+    }
+
+    /**
+     * @return long the estimated heap of all components
+     */
+    public long totalBytes() {
+        long total = 0;
+        for (Component component : components) total += component.bytes;
+        return total;
+    }
+
+    /**
+     * @param name a component name
+     * @return long the estimated heap of the component in all its forms
+     */
+    public long bytes(String name) {
+        long total = 0;
+        for (Component component : components) if (component.name.equals(name)) total += component.bytes;
+        return total;
+    }
+
+    /**
+     * @return String one line per component and a total
+     */
+    public String toString() {
+        StringBuilder report = new StringBuilder(model + " footprint\n");
+        for (Component component : components) {
+            report.append(String.format(Locale.ROOT, "  %-22s %-10s %10d entries %14d bytes%n", component.name, component.form, component.entries, component.bytes));
+        }
+        report.append(String.format(Locale.ROOT, "  %-22s %-10s %10s         %14d bytes%n", "total", "", "", totalBytes()));
+        return report.toString();
+    }
+
+    private void add(String name, String form, long entries, long bytes) {
+        components.add(new Component(name, form, entries, bytes));
+    }
+
+    /**
+     * the distinct words of observation rows, as their own component
+     */
+    private void addWords(Collection<? extends Map<String, Double>> rows) {
+        long words = 0;
+        long bytes = 0;
+        for (Map<String, Double> row : rows) {
+            for (String word : row.keySet()) {
+                long wordBytes = object(word);
+                if (wordBytes > 0) words++;
+                bytes += wordBytes;
+            }
+        }
+        add("vocabulary", "strings", words, bytes);
+    }
+
+    private void addMaps(String name, Map<?, ? extends Map<String, Double>> maps) {
+        if (maps == null) return;
+        long entries = 0;
+        for (Map<String, Double> row : maps.values()) entries += row.size();
+        add(name, "maps", entries, object(maps));
+    }
+
+    private void addTable(String name, CompactTransitionTable table) {
+        if (table == null || !counted.add(table)) return;
+        add(name, "compact", table.numEntries(), table.estimatedBytes());
+    }
+
+    /**
+     * a lazy table: the count maps, the row totals, and the rows already turned into log probabilities
+     */
+    private void addLazy(String name, LazyScoreTable table) {
+        if (table == null) return;
+        long entries = 0;
+        long bytes = HASH_MAP + HASH_MAP + CONCURRENT_HASH_MAP + 2L * tableBytes(table.contexts().size());
+        long normalizedRows = 0;
+        for (String context : table.contexts()) {
+            Map<String, Double> row = table.countRow(context);
+            entries += row.size();
+            bytes += HASH_MAP_NODE + object(context) + object(row);
+            // the row total
+            bytes += HASH_MAP_NODE + BOX;
+            // a remembered log row has the keys of the count row and a table sized for twice its entries
+            if (table.isNormalized(context)) {
+                normalizedRows++;
+                bytes += HASH_MAP_NODE + HASH_MAP + arrayBytes(Integer.highestOneBit(Math.max(1, row.size() * 2 - 1)) * 2, REFERENCE)
+                        + (long) row.size() * (HASH_MAP_NODE + BOX);
+            }
+        }
+        bytes += normalizedRows > 0 ? tableBytes((int) normalizedRows) : 0;
+        add(name, "lazy", entries, bytes);
+    }
+
+    private long vocabularyBytes(Vocabulary vocabulary) {
+        if (!counted.add(vocabulary)) return 0;
+        int size = vocabulary.size();
+        long bytes = VOCABULARY + HASH_MAP + tableBytes(size) + (long) size * HASH_MAP_NODE + ARRAY_LIST + arrayBytes(size, REFERENCE);
+        // ids above 127 are not from the Integer cache
+        bytes += (long) Math.max(0, size - 128) * BOX;
+        for (String string : vocabulary.strings()) bytes += object(string);
+        return bytes;
+    }
+
+    private long wordCacheBytes(WordIdCache cache) {
+        return vocabularyBytes(cache.words) + CONCURRENT_HASH_MAP + tableBytes(cache.size()) + (long) cache.size() * (HASH_MAP_NODE + STRING + 16);
+    }
+
+    /**
+     * the heap of an object of the kinds models are made of, and of everything it reaches, counting each object once
+     */
+    private long object(Object object) {
+        if (object == null || !counted.add(object)) return 0;
+        if (object instanceof String) {
+            String string = (String) object;
+            boolean latin1 = true;
+            for (int i = 0; i < string.length() && latin1; i++) latin1 = string.charAt(i) <= 0xFF;
+            return STRING + arrayBytes(string.length(), latin1 ? 1 : 2);
+        }
+        if (object instanceof Double || object instanceof Long || object instanceof Integer) return BOX;
+        if (object instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) object;
+            long bytes = HASH_MAP + tableBytes(map.size()) + (long) map.size() * HASH_MAP_NODE;
+            for (Map.Entry<?, ?> entry : map.entrySet()) bytes += object(entry.getKey()) + object(entry.getValue());
+            return bytes;
+        }
+        if (object instanceof List) {
+            List<?> list = (List<?>) object;
+            long bytes = ARRAY_LIST + arrayBytes(Math.max(list.size(), DEFAULT_LIST_CAPACITY), REFERENCE);
+            for (Object element : list) bytes += object(element);
+            return bytes;
+        }
+        throw new IllegalArgumentException("Cannot size a " + object.getClass().getName());
+    }
+
+    /**
+     * @return long the bucket array of a HashMap that grew to size entries by put
+     */
+    private static long tableBytes(int size) {
+        if (size == 0) return 0;
+        int capacity = 16;
+        while (size > capacity * 3L / 4) capacity *= 2;
+        return arrayBytes(capacity, REFERENCE);
+    }
+
+    private static long arrayBytes(long length, int elementBytes) {
+        return align(ARRAY_HEADER + length * elementBytes);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * the used heap after collecting garbage, for checking the estimates
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    // reports the footprint of each representation of a model trained on the Brown corpus (or given files),
+    // next to the heap it actually added, measured around each step
+    // there is no JOL in this project, so the check is a heap measurement after forced collections, best run with -XX:+UseSerialGC
+    // usage: java ModelFootprint [bigram|trigram] [trainSentences trainTags]
+    public static void main(String[] args) {
+
+        boolean bigram = args.length > 0 && args[0].equals("bigram");
+        String sentences = args.length > 2 ? args[1] : "texts/brown-train-sentences.txt";
+        String tags = args.length > 2 ? args[2] : "texts/brown-train-tags.txt";
+
+        try {
+            // runs every step once on the small corpus, so classes and lambdas loaded on first use are not measured
+            if (args.length < 3 || !sentences.equals("texts/simple-train-sentences.txt")) {
+                PrintStream out = System.out;
+                System.setOut(new PrintStream(new ByteArrayOutputStream()));
+                main(new String[]{bigram ? "bigram" : "trigram", "texts/simple-train-sentences.txt", "texts/simple-train-tags.txt"});
+                System.setOut(out);
+            }
+
+            // each step is measured before its report is built, the report itself takes heap while it is built
+            if (bigram) {
+                long before = usedHeap();
+                PosTagger maps = new PosTagger(sentences, tags);
+                long measured = usedHeap() - before;
+                report(of(maps), measured);
+                maps = null;
+
+                before = usedHeap();
+                PosTagger lazy = new PosTagger();
+                lazy.trainingModel(sentences, tags, true);
+                measured = usedHeap() - before;
+                report(of(lazy), measured);
+
+                before = usedHeap();
+                lazy.smoothTransitions(0.01, 1.0);
+                measured = usedHeap() - before;
+                System.out.println(of(lazy));
+                System.out.println("smoothed table: estimated " + lazy.smoothedTransitions.estimatedBytes() + " bytes, measured " + measured + " bytes\n");
+            } else {
+                long before = usedHeap();
+                ViterbiTaggerEC tagger = new ViterbiTaggerEC(sentences, tags);
+                long maps = usedHeap();
+                report(of(tagger), maps - before);
+
+                maps = usedHeap();
+                tagger.compactTables(false);
+                long compact = usedHeap();
+                ModelFootprint both = of(tagger);
+                System.out.println(both);
+                long compactEstimate = 0;
+                for (Component component : both.components) {
+                    if (component.form.equals("compact") || component.name.equals("tag dictionary")) compactEstimate += component.bytes;
+                }
+                System.out.println("compact tables: estimated " + compactEstimate + " bytes, measured " + (compact - maps) + " bytes\n");
+                both = null;
+
+                // the maps the compact decoder no longer needs are dropped, leaving the observation scores
+                tagger.compactTables(true);
+                long measured = usedHeap() - before;
+                report(of(tagger), measured);
+
+                before = usedHeap();
+                tagger.smoothTransitions(0.001, 1.0);
+                measured = usedHeap() - before;
+                System.out.println("smoothed table: estimated " + tagger.smoothedTransitions.estimatedBytes() + " bytes, measured " + measured + " bytes\n");
+            }
+        } catch (Exception e) {
+            System.err.println("Something went wrong while measuring model: " + e.getMessage());
+        }
+    }
+
+    private static void report(ModelFootprint footprint, long measured) {
+        System.out.println(footprint);
+        System.out.println("estimated " + footprint.totalBytes() + " bytes, measured " + measured + " bytes ("
+                + String.format(Locale.ROOT, "%+.1f", 100.0 * (footprint.totalBytes() - measured) / measured) + "%)\n");
+    }
+}
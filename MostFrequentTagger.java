@@ -0,0 +1,296 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * baseline tagger that gives every word the tag it was seen with most often in training
+ * unknown words take the most frequent tag of the longest suffix (up to maxSuffixLength letters) seen on rare training words,
+ * and the most frequent tag overall if no suffix matches
+ *
+ * words and suffixes live in open-addressing tables over primitive arrays and are matched on character ranges,
+ * folding case on the fly, so tagId and tagLine allocate nothing
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class MostFrequentTagger implements Tagger {
+
+    public static final int maxSuffixLength = 3;    // the longest suffix used for unknown words, at most 3 so it packs in a long
+    public static final int rareWordCount = 10;     // only words seen at most this often vote for the tag of their suffixes
+
+    private final String[] tagNames;                // the name of each tag id
+    private final int defaultTag;                   // the most frequent tag overall
+
+    // word table: lowercased words and their most frequent tag, empty slots are null
+    private final char[][] wordSlots;
+    private final int[] wordTags;
+
+    // suffix table: packed suffixes (see suffixKey) and their most frequent tag, empty slots are 0
+    private final long[] suffixSlots;
+    private final int[] suffixTags;
+
+    /**
+     * instantiate the tagger with files to train the model
+     *
+     * @param trainSentencesFileName name of file with sentences for training
+     * @param trainTagsFileName      name of the file with corresponding tags
+     */
+    public MostFrequentTagger(String trainSentencesFileName, String trainTagsFileName) throws IOException {
+        this(readCounts(trainSentencesFileName, trainTagsFileName));
+    }
+
+    /**
+     * instantiate the tagger from the raw counts of a PosTagger trained in lazy mode, without reading the corpus again
+     *
+     * @param supervised a PosTagger trained with trainingModel(..., true)
+     */
+    public MostFrequentTagger(PosTagger supervised) {
+        this(lazyCounts(supervised));
+    }
+
+    /**
+     * builds the tables from observation counts
+     *
+     * @param obsCounts the count of each word for each tag (tag -> word -> count)
+     */
+    private MostFrequentTagger(Map<String, ? extends Map<String, Double>> obsCounts) {
+
+        // assigns tag ids in sorted order and counts each tag per word
+        List<String> sortedTags = new ArrayList<>(obsCounts.keySet());
+        Collections.sort(sortedTags);
+        tagNames = sortedTags.toArray(new String[0]);
+        int numTags = tagNames.length;
+        HashMap<String, double[]> wordCounts = new HashMap<>();
+        double[] tagTotals = new double[numTags];
+        for (int tag = 0; tag < numTags; tag++) {
+            for (Map.Entry<String, Double> entry : obsCounts.get(tagNames[tag]).entrySet()) {
+                wordCounts.computeIfAbsent(foldCase(entry.getKey()), k -> new double[numTags])[tag] += entry.getValue();
+                tagTotals[tag] += entry.getValue();
+            }
+        }
+        defaultTag = argmax(tagTotals);
+
+        // the word table, at most half full
+        int capacity = Integer.highestOneBit(Math.max(2, wordCounts.size()) * 2) * 2;
+        wordSlots = new char[capacity][];
+        wordTags = new int[capacity];
+        for (Map.Entry<String, double[]> entry : wordCounts.entrySet()) {
+            char[] word = entry.getKey().toCharArray();
+            int slot = hash(entry.getKey(), 0, word.length) & (capacity - 1);
+            while (wordSlots[slot] != null) slot = (slot + 1) & (capacity - 1);
+            wordSlots[slot] = word;
+            wordTags[slot] = argmax(entry.getValue());
+        }
+
+        // rare words vote for the tag of each of their suffixes
+        HashMap<Long, double[]> suffixCounts = new HashMap<>();
+        for (Map.Entry<String, double[]> entry : wordCounts.entrySet()) {
+            String word = entry.getKey();
+            double total = 0;
+            for (double count : entry.getValue()) total += count;
+            if (total > rareWordCount) continue;
+            for (int length = 1; length <= Math.min(maxSuffixLength, word.length()); length++) {
+                double[] counts = suffixCounts.computeIfAbsent(suffixKey(word, word.length() - length, word.length()), k -> new double[numTags]);
+                for (int tag = 0; tag < numTags; tag++) counts[tag] += entry.getValue()[tag];
+            }
+        }
+        capacity = Integer.highestOneBit(Math.max(2, suffixCounts.size()) * 2) * 2;
+        suffixSlots = new long[capacity];
+        suffixTags = new int[capacity];
+        for (Map.Entry<Long, double[]> entry : suffixCounts.entrySet()) {
+            long key = entry.getKey();
+            int slot = mix(Long.hashCode(key)) & (capacity - 1);
+            while (suffixSlots[slot] != 0) slot = (slot + 1) & (capacity - 1);
+            suffixSlots[slot] = key;
+            suffixTags[slot] = argmax(entry.getValue());
+        }
+    }
+
+    /**
+     * counts the words of each tag in the training files, reading them the way trainingModel does
+     */
+    private static HashMap<String, HashMap<String, Double>> readCounts(String trainSentencesFileName, String trainTagsFileName) throws IOException {
+        BufferedReader sentencesInput = new BufferedReader(new FileReader(trainSentencesFileName));
+        BufferedReader tagsInput = new BufferedReader(new FileReader(trainTagsFileName));
+        HashMap<String, HashMap<String, Double>> obsCounts = new HashMap<>();
+        String currentSentenceLine;
+        while ((currentSentenceLine = sentencesInput.readLine()) != null) {
+            String[] words = currentSentenceLine.split(" ");
+            String[] tags = tagsInput.readLine().split(" ");
+            for (int i = 0; i < words.length; i++) {
+                obsCounts.computeIfAbsent(tags[i], k -> new HashMap<>()).merge(words[i], 1.0, Double::sum);
+            }
+        }
+        sentencesInput.close();
+        tagsInput.close();
+        return obsCounts;
+    }
+
+    /**
+     * collects the raw observation counts of a lazily trained PosTagger
+     */
+    private static HashMap<String, HashMap<String, Double>> lazyCounts(PosTagger supervised) {
+        if (supervised.lazyObsScores == null)
+            throw new IllegalArgumentException("The supervised tagger must be trained in lazy mode to keep its counts");
+        HashMap<String, HashMap<String, Double>> obsCounts = new HashMap<>();
+        for (String tag : supervised.lazyObsScores.contexts()) obsCounts.put(tag, supervised.lazyObsScores.countRow(tag));
+        return obsCounts;
+    }
+
+    /**
+     * @return int the index of the largest count, the first one on ties
+     */
+    private static int argmax(double[] counts) {
+        int best = 0;
+        for (int i = 1; i < counts.length; i++) if (counts[i] > counts[best]) best = i;
+        return best;
+    }
+
+    /**
+     * lowercases a word one char at a time, the same folding the lookups apply to the text,
+     * so neither the default locale nor characters whose lowercase has another length can make them differ
+     */
+    private static String foldCase(String word) {
+        char[] chars = word.toCharArray();
+        for (int i = 0; i < chars.length; i++) chars[i] = Character.toLowerCase(chars[i]);
+        return new String(chars);
+    }
+
+    /**
+     * hashes the lowercased characters of a range like String.hashCode, then spreads the bits
+     */
+    private static int hash(CharSequence text, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) h = 31 * h + Character.toLowerCase(text.charAt(i));
+        return mix(h);
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * packs a suffix of at most maxSuffixLength lowercased characters and its length into a non-zero long
+     */
+    private static long suffixKey(CharSequence text, int from, int to) {
+        long key = to - from;
+        for (int i = from; i < to; i++) key = (key << 16) | Character.toLowerCase(text.charAt(i));
+        return key;
+    }
+
+    /**
+     * the most frequent tag of a word given as a range of characters
+     *
+     * @param text the text holding the word
+     * @param from the index of the first character of the word
+     * @param to   the index after the last character of the word
+     * @return int the tag id
+     */
+    public int tagId(CharSequence text, int from, int to) {
+
+        // looks the whole word up, comparing lowercased characters
+        int mask = wordSlots.length - 1;
+        int length = to - from;
+        for (int slot = hash(text, from, to) & mask; wordSlots[slot] != null; slot = (slot + 1) & mask) {
+            char[] word = wordSlots[slot];
+            if (word.length != length) continue;
+            int i = 0;
+            while (i < length && word[i] == Character.toLowerCase(text.charAt(from + i))) i++;
+            if (i == length) return wordTags[slot];
+        }
+
+        // falls back to the longest known suffix
+        mask = suffixSlots.length - 1;
+        for (int suffixLength = Math.min(maxSuffixLength, length); suffixLength > 0; suffixLength--) {
+            long key = suffixKey(text, to - suffixLength, to);
+            for (int slot = mix(Long.hashCode(key)) & mask; suffixSlots[slot] != 0; slot = (slot + 1) & mask) {
+                if (suffixSlots[slot] == key) return suffixTags[slot];
+            }
+        }
+        return defaultTag;
+    }
+
+    /**
+     * tags every space-separated word of a line, cutting it into words exactly like line.split(" ") in the other decoders:
+     * a double space makes an empty word, and the empty words at the end are dropped unless the line has no space
+     *
+     * @param line   the line to tag
+     * @param tagIds receives the tag id of each word, at least line.length() + 1 long
+     * @return int the number of words
+     */
+    public int tagLine(CharSequence line, int[] tagIds) {
+        int numWords = 0;
+        int kept = 0;       // the words up to the last non-empty one
+        int from = 0;
+        int length = line.length();
+        for (int i = 0; i <= length; i++) {
+            if (i == length || line.charAt(i) == ' ') {
+                tagIds[numWords++] = tagId(line, from, i);
+                if (i > from) kept = numWords;
+                from = i + 1;
+            }
+        }
+        return numWords == 1 ? 1 : kept;
+    }
+
+    /**
+     * @param tagId a tag id
+     * @return String the tag name
+     */
+    public String tagName(int tagId) {
+        return tagNames[tagId];
+    }
+
+    /**
+     * "decoding" by lookup, only the returned list is allocated
+     *
+     * @param line the string to be decoded to get the tags
+     * @return List<String> the list of tags
+     */
+    public List<String> viterbiDecoding(String line) {
+        int[] tagIds = new int[line.length() + 1];
+        int numWords = tagLine(line, tagIds);
+        List<String> tags = new ArrayList<>(numWords);
+        for (int i = 0; i < numWords; i++) tags.add(tagNames[tagIds[i]]);
+        return tags;
+    }
+
+    // compares the baseline with the HMM taggers on the Brown corpus
+    public static void main(String[] args) {
+
+        try {
+            System.out.println("Training with the Brown corpus");
+            MostFrequentTagger baseline = new MostFrequentTagger("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt");
+            baseline.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-MFT.txt");
+            baseline.calculateAccuracy("texts/brown-test-tags-result-MFT.txt", "texts/brown-test-tags.txt");
+
+            // throughput of the allocation-free path over the test sentences in memory
+            List<String> lines = new ArrayList<>();
+            BufferedReader testInput = new BufferedReader(new FileReader("texts/brown-test-sentences.txt"));
+            String currentLine;
+            int maxLength = 0;
+            while ((currentLine = testInput.readLine()) != null) {
+                lines.add(currentLine);
+                maxLength = Math.max(maxLength, currentLine.length());
+            }
+            testInput.close();
+            int[] tagIds = new int[maxLength + 1];
+            for (int round = 0; round < 5; round++) {
+                long tokens = 0;
+                long start = System.nanoTime();
+                for (String line : lines) tokens += baseline.tagLine(line, tagIds);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.println("round " + (round + 1) + ": " + String.format("%.0f", tokens / seconds) + " tokens/s");
+            }
+
+            // the HMM taggers for comparison
+            PosTagger bigram = new PosTagger("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt");
+            long start = System.nanoTime();
+            bigram.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-MFT.txt");
+            System.out.println("bigram tagger: " + String.format("%.2f", (System.nanoTime() - start) / 1e9) + " s");
+            bigram.calculateAccuracy("texts/brown-test-tags-result-MFT.txt", "texts/brown-test-tags.txt");
+        } catch (IOException e) {
+            System.err.println("Something went wrong while testing model");
+        }
+    }
+}
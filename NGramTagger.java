@@ -0,0 +1,391 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * hidden Markov model tagger of configurable order N (2 = bigram, 3 = trigram, 4 = 4-gram)
+ * each tag is conditioned on the previous N - 1 tags, interpolated down to the unigram with
+ * deleted interpolation weights (a leave-one-out vote like the one of ViterbiTaggerEC, over N orders)
+ *
+ * tags and words are ids, and a Viterbi state (the last N - 1 tags) is a single int:
+ * the tags are digits in base (numTags + 1), most recent tag last, with numTags standing for "start"
+ *
+ * PosTagger and ViterbiTaggerEC are not built on this engine, they keep their own training and decoding, and as they
+ * only follow the transitions seen in training, this engine does not reproduce their tags at N = 2 or N = 3
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class NGramTagger implements Tagger {
+
+    public static final int MAX_ORDER = 4;      // the state space grows as (numTags + 1) ^ (N - 1), a 5-gram model of the Brown tags has a million states
+    public final int order;                     // N
+    public final Vocabulary tags = new Vocabulary();
+    public final Vocabulary words = new Vocabulary();
+    public double unknownScoreLog = -100.0;     // the default score for a word not in the observation scores
+    public double beamWidth = 50.0;             // states further than this below the best state are dropped
+    public double[] weights;                    // interpolation weight of each order, weights[k - 1] for order k
+
+    private int numTags;
+    private int base;                           // numTags + 1, the number of symbols in a state digit
+    private int numStates;                      // base ^ (order - 1)
+    private int startState;                     // the state made only of "start"
+    private int[] contextSizes;                 // base ^ k, the number of contexts of the k most recent tags
+    private double[] transScores;               // log transition score of state s to tag t at s * numTags + t
+    private int[][] emissionTags;               // the tags each word was seen with
+    private double[][] emissionScores;          // the matching log observation scores
+
+    /**
+     * instantiate NGramTagger with files to train the model
+     *
+     * @param order                  the order N of the model, from 2 to MAX_ORDER
+     * @param trainSentencesFileName name of file with sentences for training
+     * @param trainTagsFileName      name of the file with corresponding tags
+     */
+    public NGramTagger(int order, String trainSentencesFileName, String trainTagsFileName) {
+        if (order < 2 || order > MAX_ORDER)
+            throw new IllegalArgumentException("The order of the model must be between 2 and " + MAX_ORDER + " but is " + order);
+        this.order = order;
+
+        try {
+            trainingModel(trainSentencesFileName, trainTagsFileName);
+        } catch (IOException e) {
+            System.err.println("Something went wrong while training model");
+        }
+    }
+
+    /**
+     * instantiate NGramTagger with a packed corpus to train the model
+     *
+     * @param order  the order N of the model, from 2 to MAX_ORDER
+     * @param corpus the packed training corpus written by CorpusPacker
+     */
+    public NGramTagger(int order, PackedCorpus corpus) {
+        if (order < 2 || order > MAX_ORDER)
+            throw new IllegalArgumentException("The order of the model must be between 2 and " + MAX_ORDER + " but is " + order);
+        this.order = order;
+
+        // copies the dictionaries so the ids line up with the corpus
+        for (String tag : corpus.tags.strings()) tags.add(tag);
+        for (String word : corpus.words.strings()) words.add(word);
+        int[] tagIds = new int[corpus.numTokens()];
+        int[] wordIds = new int[corpus.numTokens()];
+        int[] offsets = new int[corpus.numSentences() + 1];
+        for (int p = 0; p < tagIds.length; p++) {
+            tagIds[p] = corpus.tagId(p);
+            wordIds[p] = corpus.wordId(p);
+        }
+        for (int s = 0; s < corpus.numSentences(); s++) offsets[s + 1] = offsets[s] + corpus.sentenceLength(s);
+
+        buildModel(offsets, corpus.numSentences(), wordIds, tagIds);
+    }
+
+    /**
+     * trains the model with the training sentences and corresponding tags
+     *
+     * @param trainSentencesFileName the file name of the training sentences
+     * @param trainTagsFileName      the file name of the training tags
+     */
+    private void trainingModel(String trainSentencesFileName, String trainTagsFileName) throws IOException {
+
+        // read the files
+        BufferedReader sentencesInput = new BufferedReader(new FileReader(trainSentencesFileName));
+        BufferedReader tagsInput = new BufferedReader(new FileReader(trainTagsFileName));
+
+        // encodes every token as ids
+        int[] offsets = new int[1024];
+        int[] wordIds = new int[1 << 16];
+        int[] tagIds = new int[1 << 16];
+        int numSentences = 0;
+        int numTokens = 0;
+        String currentSentenceLine;
+        String currentTagLine;
+
+        while ((currentSentenceLine = sentencesInput.readLine()) != null) {
+            currentTagLine = tagsInput.readLine();
+            String[] lineWords = currentSentenceLine.split(" ");
+            String[] lineTags = currentTagLine.split(" ");
+
+            // grows the columns when they are full
+            if (numSentences + 2 > offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            if (numTokens + lineWords.length > wordIds.length) {
+                wordIds = Arrays.copyOf(wordIds, Math.max(wordIds.length * 2, numTokens + lineWords.length));
+                tagIds = Arrays.copyOf(tagIds, wordIds.length);
+            }
+
+            for (int i = 0; i < lineWords.length; i++) {
+                wordIds[numTokens] = words.add(lineWords[i]);
+                tagIds[numTokens] = tags.add(lineTags[i]);
+                numTokens++;
+            }
+            offsets[++numSentences] = numTokens;
+        }
+
+        // closes the files
+        sentencesInput.close();
+        tagsInput.close();
+
+        buildModel(offsets, numSentences, wordIds, tagIds);
+    }
+
+    /**
+     * counts n-grams of every order and emissions, then computes the interpolation weights,
+     * the interpolated transition scores and the observation scores
+     */
+    private void buildModel(int[] offsets, int numSentences, int[] wordIds, int[] tagIds) {
+
+        numTags = tags.size();
+        base = numTags + 1;
+        // the transition table has numStates * numTags entries, which must fit an array
+        if (Math.pow(base, order - 1) * numTags > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("An order " + order + " model of " + numTags + " tags has too many states");
+        numStates = pow(base, order - 1);
+        startState = numStates - 1;
+        contextSizes = new int[order];
+        for (int k = 0; k < order; k++) contextSizes[k] = pow(base, k);
+
+        // counts[k][context][tag] is the count of tag after the k most recent tags, rows are created on first use
+        double[][][] counts = new double[order][][];
+        for (int k = 0; k < order; k++) counts[k] = new double[contextSizes[k]][];
+
+        int[] emissionCounts = new int[words.size() * numTags];
+        int[] tagTotals = new int[numTags];
+
+        // updates the counts sentence by sentence
+        for (int s = 0; s < numSentences; s++) {
+            int state = startState;
+            for (int p = offsets[s]; p < offsets[s + 1]; p++) {
+                int tag = tagIds[p];
+                for (int k = 0; k < order; k++) {
+                    int context = state % contextSizes[k];
+                    if (counts[k][context] == null) counts[k][context] = new double[numTags];
+                    counts[k][context][tag] += 1.0;
+                }
+                emissionCounts[wordIds[p] * numTags + tag] += 1;
+                tagTotals[tag] += 1;
+                state = nextState(state, tag);
+            }
+        }
+
+        // totals of every context row
+        double[][] rowTotals = new double[order][];
+        for (int k = 0; k < order; k++) {
+            rowTotals[k] = new double[counts[k].length];
+            for (int context = 0; context < counts[k].length; context++) {
+                if (counts[k][context] == null) continue;
+                for (double count : counts[k][context]) rowTotals[k][context] += count;
+            }
+        }
+
+        calculateInterpolationWeights(counts, rowTotals);
+
+        // interpolates the transition probabilities of every state once so decoding is a table lookup
+        transScores = new double[numStates * numTags];
+        for (int state = 0; state < numStates; state++) {
+            for (int tag = 0; tag < numTags; tag++) {
+                double probability = 0.0;
+                for (int k = 0; k < order; k++) {
+                    int context = state % contextSizes[k];
+                    if (counts[k][context] == null) continue;
+                    probability += weights[k] * counts[k][context][tag] / rowTotals[k][context];
+                }
+                transScores[state * numTags + tag] = Math.log(probability);
+            }
+        }
+
+        // keeps the observation scores of each word as a short list of tags
+        emissionTags = new int[words.size()][];
+        emissionScores = new double[words.size()][];
+        for (int word = 0; word < words.size(); word++) {
+            int seen = 0;
+            for (int tag = 0; tag < numTags; tag++) if (emissionCounts[word * numTags + tag] != 0) seen++;
+            emissionTags[word] = new int[seen];
+            emissionScores[word] = new double[seen];
+            seen = 0;
+            for (int tag = 0; tag < numTags; tag++) {
+                int count = emissionCounts[word * numTags + tag];
+                if (count == 0) continue;
+                emissionTags[word][seen] = tag;
+                emissionScores[word][seen] = Math.log((double) count / tagTotals[tag]);
+                seen++;
+            }
+        }
+    }
+
+    /**
+     * calculates the weight of each order with leave-one-out deleted interpolation
+     * every n-gram votes with its count for the order whose estimate suffers least from removing it
+     */
+    private void calculateInterpolationWeights(double[][][] counts, double[][] rowTotals) {
+
+        weights = new double[order];
+        double[][] top = counts[order - 1];
+        for (int state = 0; state < top.length; state++) {
+            if (top[state] == null) continue;
+            for (int tag = 0; tag < numTags; tag++) {
+                double count = top[state][tag];
+                if (count == 0) continue;
+
+                // finds the order with the best leave-one-out estimate, preferring higher orders on ties
+                int bestOrder = 0;
+                double bestRatio = -1.0;
+                for (int k = 0; k < order; k++) {
+                    int context = state % contextSizes[k];
+                    double denominator = rowTotals[k][context] - 1;
+                    double ratio = denominator > 0 ? (counts[k][context][tag] - 1) / denominator : 0.0;
+                    if (ratio >= bestRatio) {
+                        bestRatio = ratio;
+                        bestOrder = k;
+                    }
+                }
+                weights[bestOrder] += count;
+            }
+        }
+
+        // normalize weights
+        double totalWeight = 0.0;
+        for (double weight : weights) totalWeight += weight;
+        for (int k = 0; k < order; k++) weights[k] /= totalWeight;
+    }
+
+    /**
+     * @param state the current state
+     * @param tag   the next tag
+     * @return int the state after appending tag and dropping the oldest tag
+     */
+    private int nextState(int state, int tag) {
+        return (state * base + tag) % numStates;
+    }
+
+    /**
+     * @param word a word of a sentence to decode
+     * @return int the number of tags the word was seen with, or the number of tags if it was never seen
+     */
+    public int candidateTagCount(String word) {
+        int id = words.id(word.toLowerCase());
+        return id >= 0 ? emissionTags[id].length : numTags;
+    }
+
+    /**
+     * @return int base raised to the power exponent
+     */
+    private static int pow(int base, int exponent) {
+        int result = 1;
+        for (int i = 0; i < exponent; i++) result *= base;
+        return result;
+    }
+
+    /**
+     * viterbi decoding over the live states only, with a beam of beamWidth below the best state
+     *
+     * @param line the string to be decoded to get the tags
+     * @return List<String> the list of decoded tags
+     */
+    public List<String> viterbiDecoding(String line) {
+
+        // lowercase all the lines and splits into words
+        String[] lineWords = line.toLowerCase().split(" ");
+        int length = lineWords.length;
+
+        // the live states of each position and the index of their best predecessor in the previous position
+        int[][] liveStates = new int[length + 1][];
+        int[][] backPointers = new int[length + 1][];
+        double[] liveScores = {0.0};
+        liveStates[0] = new int[]{startState};
+
+        // scratch space for the next position, indexed by state, -1 back pointers mark the states not reached yet
+        double[] nextScores = new double[numStates];
+        int[] nextBack = new int[numStates];
+        int[] touched = new int[numStates];
+        double[] emissions = new double[numTags];
+        Arrays.fill(nextBack, -1);
+
+        for (int i = 0; i < length; i++) {
+
+            // resolves the observation score of every tag for this word
+            Arrays.fill(emissions, unknownScoreLog);
+            int word = words.id(lineWords[i]);
+            if (word >= 0) {
+                for (int j = 0; j < emissionTags[word].length; j++) emissions[emissionTags[word][j]] = emissionScores[word][j];
+            }
+
+            // expands every live state with every tag
+            int numTouched = 0;
+            double best = Double.NEGATIVE_INFINITY;
+            int[] currStates = liveStates[i];
+            for (int a = 0; a < currStates.length; a++) {
+                int state = currStates[a];
+                int row = state * numTags;
+                int shifted = (state * base) % numStates;
+                for (int tag = 0; tag < numTags; tag++) {
+                    double nextScore = liveScores[a] + transScores[row + tag] + emissions[tag];
+                    int next = shifted + tag;
+                    if (nextBack[next] < 0) touched[numTouched++] = next;
+                    if (nextBack[next] < 0 || nextScore > nextScores[next]) {
+                        nextScores[next] = nextScore;
+                        nextBack[next] = a;
+                        if (nextScore > best) best = nextScore;
+                    }
+                }
+            }
+
+            // keeps the states within the beam and resets the scratch space
+            // the best state is always kept, and when no path has a finite score the beam keeps the whole column
+            int numLive = 0;
+            for (int j = 0; j < numTouched; j++) if (nextScores[touched[j]] >= best - beamWidth) numLive++;
+            int[] states = new int[numLive];
+            int[] back = new int[numLive];
+            double[] scores = new double[numLive];
+            numLive = 0;
+            for (int j = 0; j < numTouched; j++) {
+                int next = touched[j];
+                if (nextScores[next] >= best - beamWidth) {
+                    states[numLive] = next;
+                    back[numLive] = nextBack[next];
+                    scores[numLive] = nextScores[next];
+                    numLive++;
+                }
+                nextBack[next] = -1;
+            }
+            liveStates[i + 1] = states;
+            backPointers[i + 1] = back;
+            liveScores = scores;
+        }
+
+        // finds the best final state
+        int bestIndex = 0;
+        for (int a = 1; a < liveScores.length; a++) if (liveScores[a] > liveScores[bestIndex]) bestIndex = a;
+
+        // trace backward with the back pointers, the newest tag of each state is its last digit
+        String[] result = new String[length];
+        for (int i = length; i > 0; i--) {
+            result[i - 1] = tags.string(liveStates[i][bestIndex] % base);
+            bestIndex = backPointers[i][bestIndex];
+        }
+
+        // returns the decoded tags in a list
+        return new ArrayList<>(Arrays.asList(result));
+    }
+
+    // compares orders 2, 3 and 4 on the Brown corpus
+    public static void main(String[] args) {
+
+        for (int order = 2; order <= 4; order++) {
+            System.out.println("\nTraining order " + order + " model with the Brown corpus");
+            long start = System.nanoTime();
+            NGramTagger tagger = new NGramTagger(order, "texts/brown-train-sentences.txt", "texts/brown-train-tags.txt");
+            System.out.println("Trained in " + (System.nanoTime() - start) / 1000000 + " ms, weights " + Arrays.toString(tagger.weights));
+
+            try {
+                // warms up the decoder before timing it
+                tagger.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-" + order + "gram.txt");
+                start = System.nanoTime();
+                tagger.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-" + order + "gram.txt");
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.println("Tagged the Brown test sentences in " + String.format("%.2f", seconds) + " s");
+                tagger.calculateAccuracy("texts/brown-test-tags-result-" + order + "gram.txt", "texts/brown-test-tags.txt");
+            } catch (IOException e) {
+                System.err.println("Something went wrong while testing model");
+            }
+        }
+    }
+}
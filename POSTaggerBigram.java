@@ -8,11 +8,20 @@ import java.util.*;
  * February 27th, 2020
  */
 
-public class PosTagger {
+public class PosTagger implements Tagger {
 
     public HashMap<String, HashMap<String, Double>> transScores; // THe transition probability scores
     public HashMap<String, HashMap<String, Double>> obsScores;  // the observation probability scores
     public double unknownScoreLog = -100.0;                     // the default scorer for an word not in the observation scores
+    public LazyScoreTable lazyTransScores;                      // raw transition counts normalized on demand, replaces transScores in lazy mode
+    public LazyScoreTable lazyObsScores;                        // raw observation counts normalized on demand, replaces obsScores in lazy mode
+    public WordIdCache wordIdCache;                             // when set, decoding keeps the case of the input and looks words up through it
+    public String properNounTag = "NP";                         // the tag favored for capitalized unknown words
+    public double capitalizedUnknownBonusLog = 5.0;             // added to the proper noun score of a capitalized unknown word inside a sentence
+    public EmissionModel emissionModel;                         // when set, replaces the observation scores in decoding, e.g. a lexicon chained in front of them
+    private volatile Vocabulary emissionTags;                   // the tag ids of the emission arrays in decoding, read by concurrent decoders
+    public SmoothedTransitionTable smoothedTransitions;         // when set, decoding uses this dense table instead of the transition scores, see smoothTransitions
+    public int batchLanes = 32;                                 // the sentences decoded together by viterbiDecodingBatch over the smoothed table
 
     /**
      * instantiate ViterbiTagger without passing in file names (must manually set the transition and observation scores)
@@ -62,6 +71,18 @@ public class PosTagger {
      * @param trainTagsFileName      the file name of the training tags
      */
     public void trainingModel(String trainSentencesFileName, String trainTagsFileName) throws IOException {
+        trainingModel(trainSentencesFileName, trainTagsFileName, false);
+    }
+
+    /**
+     * trains the model with the training sentences and corresponding tags
+     * in lazy mode the counts are kept as they are and each row is normalized the first time decoding uses it
+     *
+     * @param trainSentencesFileName the file name of the training sentences
+     * @param trainTagsFileName      the file name of the training tags
+     * @param lazy                   whether to skip the normalization pass and normalize rows on demand
+     */
+    public void trainingModel(String trainSentencesFileName, String trainTagsFileName, boolean lazy) throws IOException {
 
         // read the files
         BufferedReader sentencesInput = new BufferedReader(new FileReader(trainSentencesFileName));
@@ -138,118 +159,307 @@ public class PosTagger {
         sentencesInput.close();
         tagsInput.close();
 
-        // normalizes the transition scores and observation scores
-        for (String tag : transScores.keySet()) {
-            // initializes the total count
-            int totalTagCount = 0;
+        if (lazy) {
+            // hands the counts over to the lazy tables
+            lazyTransScores = new LazyScoreTable(transScores);
+            lazyObsScores = new LazyScoreTable(obsScores);
+            transScores = null;
+            obsScores = null;
+        } else {
+            lazyTransScores = null;
+            lazyObsScores = null;
+            normalizeScores();
+        }
+    }
 
-            // adds the tag counts iteratively
-            for (String nextTag : transScores.get(tag).keySet()) {
-                totalTagCount += transScores.get(tag).get(nextTag);
-            }
+    /**
+     * adds one training sentence to a model trained in lazy mode
+     * only the rows touched by the sentence are renormalized, the next time decoding uses them
+     *
+     * @param sentenceLine the words of the sentence
+     * @param tagLine      the corresponding tags
+     */
+    public void addTrainingSentence(String sentenceLine, String tagLine) {
+        if (lazyTransScores == null)
+            throw new IllegalStateException("Incremental training needs a model trained in lazy mode");
+
+        String[] words = sentenceLine.split(" ");
+        String[] tags = tagLine.split(" ");
+
+        // updates the counts of the transitions, starting from "start", and of the observations
+        String prevTag = "start";
+        for (int i = 0; i < tags.length; i++) {
+            lazyTransScores.add(prevTag, tags[i], 1);
+            lazyObsScores.add(tags[i], words[i], 1);
+            prevTag = tags[i];
+        }
+    }
 
-            // divides each count by the corresponding total
-            for (String nextTag : transScores.get(tag).keySet()) {
-                transScores.get(tag).put(nextTag, Math.log(transScores.get(tag).get(nextTag) / totalTagCount));
-            }
+    /**
+     * turns a lazy model into the usual transition scores and observation scores maps
+     *
+     * @param parallel whether to normalize the rows in parallel
+     */
+    public void materializeScores(boolean parallel) {
+        if (lazyTransScores == null) return;
+        transScores = lazyTransScores.materialize(parallel);
+        obsScores = lazyObsScores.materialize(parallel);
+        lazyTransScores = null;
+        lazyObsScores = null;
+    }
+
+    /**
+     * @param tag the previous tag
+     * @return HashMap<String, Double> the transition scores from the tag, or null if it has none
+     */
+    private HashMap<String, Double> transRow(String tag) {
+        return lazyTransScores != null ? lazyTransScores.row(tag) : transScores.get(tag);
+    }
+
+    /**
+     * @param tag the tag
+     * @return HashMap<String, Double> the observation scores of the tag
+     */
+    private HashMap<String, Double> obsRow(String tag) {
+        return lazyObsScores != null ? lazyObsScores.row(tag) : obsScores.get(tag);
+    }
+
+    /**
+     * switches decoding to the case-preserving path, which resolves tokens through a shared WordIdCache
+     * and favors the proper noun tag for capitalized unknown words that do not start the sentence
+     * must be called again after the model changes
+     *
+     * @param capacity the most distinct tokens the cache keeps
+     */
+    public void useWordIdCache(int capacity) {
+        Set<String> tags = lazyObsScores != null ? lazyObsScores.contexts() : obsScores.keySet();
+        Set<String> modelWords = new HashSet<>();
+        for (String tag : tags) modelWords.addAll(obsRow(tag).keySet());
+        wordIdCache = new WordIdCache(modelWords, capacity);
+    }
+
+    /**
+     * @return EmissionModel the trained observation scores as an EmissionModel, e.g. as the fallback of a ChainedEmissionModel
+     */
+    public EmissionModel trainedEmissionModel() {
+        return new TrainedEmissionModel(lazyObsScores != null ? lazyObsScores.contexts() : obsScores.keySet(), this::obsRow);
+    }
+
+    /**
+     * @return Vocabulary the tag ids of the emission arrays, rebuilt when the tags change
+     * the tags are compared by name, since the scores may be replaced or retrained with other tags of the same count
+     */
+    private Vocabulary emissionTags() {
+        Set<String> tags = lazyObsScores != null ? lazyObsScores.contexts() : obsScores.keySet();
+        Vocabulary current = emissionTags;
+        if (current == null || !current.hasSameStrings(tags)) {
+            current = new Vocabulary();
+            for (String tag : tags) current.add(tag);
+            emissionTags = current;
         }
+        return current;
+    }
 
-        // normalizes the observation scores and observation scores
-        for (String tag : obsScores.keySet()) {
+    /**
+     * builds a SmoothedTransitionTable from the raw transition counts and switches decoding to it
+     * needs the counts, so the model must be trained in lazy mode
+     *
+     * @param unigramWeight the weight of the add-k unigram, the bigram estimate gets the rest
+     * @param addK          the count added to every tag in the unigram
+     */
+    public void smoothTransitions(double unigramWeight, double addK) {
+        if (lazyTransScores == null) throw new IllegalStateException("Smoothing needs the counts of a model trained in lazy mode");
+        List<String> sortedTags = new ArrayList<>(lazyObsScores.contexts());
+        Collections.sort(sortedTags);
+        Vocabulary tags = new Vocabulary();
+        for (String tag : sortedTags) tags.add(tag);
+        smoothedTransitions = SmoothedTransitionTable.bigram(tags,
+                context -> lazyTransScores.countRow(context == tags.size() ? "start" : tags.string(context)), unigramWeight, addK);
+    }
 
-            // initializes the total count
-            int totalWordCount = 0;
+    /**
+     * viterbi decoding over the dense smoothed table
+     *
+     * @param line        the string to be decoded to get the tags
+     * @param constraints the allowed tags of each word, null entries or a null list leave words free
+     * @return List<String> the list of decoded tags
+     */
+    private List<String> smoothedViterbiDecoding(String line, List<Set<String>> constraints) {
+        int[] tagIds = smoothedTransitions.decode(smoothedEmissions(line, constraints));
+        if (tagIds == null) throw new IllegalArgumentException("No tag sequence satisfies the constraints");
+        return smoothedTags(tagIds);
+    }
 
-            // adds the word counts iteratively
-            for (String word : obsScores.get(tag).keySet()) {
-                totalWordCount += obsScores.get(tag).get(word);
-            }
+    /**
+     * viterbi decoding of a batch of lines
+     * with a dense smoothed table, the lines are bucketed by length and decoded batchLanes at a time
+     * (see SmoothedTransitionTable.decodeBatch), otherwise each line is decoded on its own
+     *
+     * @param lines the strings to be decoded
+     * @return List<List<String>> the decoded tags of each line, in the same order
+     */
+    public List<List<String>> viterbiDecodingBatch(List<String> lines) {
+        if (smoothedTransitions == null) return Tagger.super.viterbiDecodingBatch(lines);
+        double[][][] emissions = new double[lines.size()][][];
+        for (int i = 0; i < emissions.length; i++) emissions[i] = smoothedEmissions(lines.get(i), null);
+        int[][] tagIds = smoothedTransitions.decodeBuckets(emissions, batchLanes);
+        List<List<String>> results = new ArrayList<>(lines.size());
+        for (int[] sentenceTagIds : tagIds) results.add(smoothedTags(sentenceTagIds));
+        return results;
+    }
 
-            // divides each count by the corresponding total
-            for (String word : obsScores.get(tag).keySet()) {
-                obsScores.get(tag).put(word, Math.log(obsScores.get(tag).get(word) / totalWordCount));
+    /**
+     * resolves the observation scores of every word of a line by the tag ids of the smoothed table,
+     * the same way as in the other decoders, with constraints ruling tags out with a score of negative infinity
+     *
+     * @param line        the string to be decoded
+     * @param constraints the allowed tags of each word, null entries or a null list leave words free
+     * @return double[][] the log observation score of each tag at each word
+     */
+    private double[][] smoothedEmissions(String line, List<Set<String>> constraints) {
+        SmoothedTransitionTable table = smoothedTransitions;
+
+        // splits into words, lowercased unless the case is kept
+        String[] wordsList = wordIdCache == null ? line.toLowerCase().split(" ") : line.split(" ");
+        boolean[] capitalizedUnknown = capitalizedUnknown(wordsList);
+        int properNoun = table.tags.id(properNounTag);
+        if (constraints != null && constraints.size() != wordsList.length)
+            throw new IllegalArgumentException("Expected " + wordsList.length + " constraints but got " + constraints.size());
+
+        // uses the unknown word score in place of missing scores
+        double[][] emissions = (emissionModel != null ? emissionModel : trainedEmissionModel()).scoreSentence(wordsList, table.tags);
+        for (int i = 0; i < wordsList.length; i++) {
+            Set<String> allowed = constraints == null ? null : constraints.get(i);
+            for (int tag = 0; tag < table.numTags; tag++) {
+                if (Double.isNaN(emissions[i][tag])) {
+                    emissions[i][tag] = unknownScoreLog;
+                    // capitalization inside a sentence marks a proper noun
+                    if (capitalizedUnknown != null && capitalizedUnknown[i] && tag == properNoun) emissions[i][tag] += capitalizedUnknownBonusLog;
+                }
+                if (allowed != null && !allowed.contains(table.tags.string(tag))) emissions[i][tag] = Double.NEGATIVE_INFINITY;
             }
         }
+        return emissions;
+    }
+
+    /**
+     * @param tagIds tag ids of the smoothed table
+     * @return List<String> the tag names
+     */
+    private List<String> smoothedTags(int[] tagIds) {
+        List<String> tags = new ArrayList<>(tagIds.length);
+        for (int tagId : tagIds) tags.add(smoothedTransitions.tags.string(tagId));
+        return tags;
     }
 
     /**
-     * tests the model with the test sentences and corresponding tags
-     * write a file for the tags
+     * on the case-preserving path, replaces each token by its lowercased dictionary word (null if unknown)
+     * and marks the unknown tokens that are capitalized inside the sentence
      *
-     * @param testSentencesFileName the file name of the testing sentences
-     * @param resultFileName        the file name of the testing tags
+     * @param tokens the tokens of a line, replaced in place
+     * @return boolean[] the capitalized unknown tokens, or null when decoding does not keep the case
      */
-    public void testingModel(String testSentencesFileName, String resultFileName) throws IOException {
-
-        // opens the file to read
-        BufferedReader testInput = new BufferedReader(new FileReader(testSentencesFileName));
-        // opens the file to write
-        BufferedWriter result = new BufferedWriter(new FileWriter(resultFileName));
-
-        // initializes the current line
-        String currentLine;
-
-        // reads each line and calls the Viterbi decoding method
-        while ((currentLine = testInput.readLine()) != null) {
-            List<String> currentTagList = viterbiDecoding(currentLine);
-            // writes in the result file the tags from decoding
-            String tagLine = "";
-            for (int i = 0; i < currentTagList.size(); i++) tagLine += currentTagList.get(i) + " ";
-            tagLine += "\n";
-            result.write(tagLine);
+    private boolean[] capitalizedUnknown(String[] tokens) {
+        if (wordIdCache == null) return null;
+        boolean[] capitalized = new boolean[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            String word = wordIdCache.word(tokens[i]);
+            capitalized[i] = word == null && WordIdCache.isCapitalized(tokens[i], i);
+            // an external emission model may know words the training did not
+            tokens[i] = word == null && emissionModel != null ? tokens[i].toLowerCase() : word;
         }
+        return capitalized;
+    }
 
-        // closes the files
-        testInput.close();
-        result.close();
+    /**
+     * @param word a word of a sentence to decode
+     * @return int the number of tags the word was seen with, or the number of tags if it was never seen
+     */
+    public int candidateTagCount(String word) {
+        Set<String> tags = lazyObsScores != null ? lazyObsScores.contexts() : obsScores.keySet();
+        String lowerWord = word.toLowerCase();
+        int count = 0;
+        for (String tag : tags) if (obsRow(tag).containsKey(lowerWord)) count++;
+        return count == 0 ? tags.size() : count;
     }
 
     /**
-     * tests the model with the test sentences and corresponding tags
-     * write a file for the tags
+     * trains the model from a packed corpus written by CorpusPacker
+     * counts are accumulated by id and only turned into the string-keyed maps once per distinct word and tag
      *
-     * @param resultFileName      the file name of the testing tags
-     * @param correctTagsFileName the file name of the correct tags
-     * @return Double the accuracy ratio
+     * @param corpus the packed training corpus
      */
-    public Double calculateAccuracy(String resultFileName, String correctTagsFileName) throws IOException {
+    public void trainingModel(PackedCorpus corpus) {
+
+        int numTags = corpus.tags.size();
+
+        // counts by id, the last row of the transition counts is "start"
+        double[][] transCounts = new double[numTags + 1][numTags];
+
+        // updates the counts sentence by sentence
+        for (int s = 0; s < corpus.numSentences(); s++) {
+            int start = corpus.sentenceStart(s);
+            int end = start + corpus.sentenceLength(s);
+            int prevTag = numTags;
+            for (int p = start; p < end; p++) {
+                int tag = corpus.tagId(p);
+                transCounts[prevTag][tag] += 1.0;
+                prevTag = tag;
+            }
+        }
+
+        // copies the non-zero counts into the transition scores, the observation counts are counted sparsely
+        transScores = new HashMap<>();
+        obsScores = corpus.obsCounts();
+        transScores.put("start", new HashMap<>());
+        for (int tag = 0; tag <= numTags; tag++) {
+            for (int nextTag = 0; nextTag < numTags; nextTag++) {
+                if (transCounts[tag][nextTag] == 0) continue;
+                String tagName = tag == numTags ? "start" : corpus.tags.string(tag);
+                transScores.computeIfAbsent(tagName, k -> new HashMap<>()).put(corpus.tags.string(nextTag), transCounts[tag][nextTag]);
+            }
+        }
 
-        // initializes the number of tags correct and the total tags in the result file
-        int numCorrect = 0;
-        int total = 0;
+        normalizeScores();
+    }
 
-        // opens the files
-        BufferedReader result = new BufferedReader(new FileReader(resultFileName));
-        BufferedReader correctTags = new BufferedReader(new FileReader(correctTagsFileName));
+    /**
+     * turns the transition counts and observation counts into log probabilities
+     */
+    private void normalizeScores() {
 
-        // initializes the lines from both files
-        String currentResultLine;
-        String currentTagLine;
+        // normalizes the transition scores and observation scores
+        for (String tag : transScores.keySet()) {
+            // initializes the total count
+            double totalTagCount = 0;
 
+            // adds the tag counts iteratively
+            for (String nextTag : transScores.get(tag).keySet()) {
+                totalTagCount += transScores.get(tag).get(nextTag);
+            }
 
-        // iteratively count the number of tags correct by comparing with the corresponding correct tags
-        while ((currentResultLine = result.readLine()) != null) {
-            currentTagLine = correctTags.readLine();
-            List<String> resultList = new ArrayList<>(Arrays.asList(currentResultLine.split(" ")));
-            List<String> tagList = new ArrayList<>(Arrays.asList((currentTagLine.split(" "))));
-            for (int i = 0; i < resultList.size(); i++) {
-                if (resultList.get(i).equals(tagList.get(i))) numCorrect += 1;
-                total += 1;
+            // divides each count by the corresponding total
+            for (String nextTag : transScores.get(tag).keySet()) {
+                transScores.get(tag).put(nextTag, Math.log(transScores.get(tag).get(nextTag) / totalTagCount));
             }
         }
 
-        // closes the files
-        result.close();
-        correctTags.close();
+        // normalizes the observation scores and observation scores
+        for (String tag : obsScores.keySet()) {
 
-        // outputs the results
-        System.out.println("The POS tagger identified " + numCorrect + " out of " + total + " tags correctly.");
-        double accuracyRatio = ((double) numCorrect) / ((double) total);
-        System.out.println("The accuracy is: " + (accuracyRatio) * 100 + "%");
+            // initializes the total count
+            double totalWordCount = 0;
 
-        // returns the accuracy ratio
-        return accuracyRatio;
+            // adds the word counts iteratively
+            for (String word : obsScores.get(tag).keySet()) {
+                totalWordCount += obsScores.get(tag).get(word);
+            }
 
+            // divides each count by the corresponding total
+            for (String word : obsScores.get(tag).keySet()) {
+                obsScores.get(tag).put(word, Math.log(obsScores.get(tag).get(word) / totalWordCount));
+            }
+        }
     }
 
     /**
@@ -259,16 +469,52 @@ public class PosTagger {
      * @return List<String> the list of decoded tags
      */
     public List<String> viterbiDecoding(String line) throws NullPointerException {
+        return viterbiDecoding(line, null);
+    }
+
+    /**
+     * viterbi decoding with some tags known in advance
+     * states outside the allowed tags of a position are never expanded, so constraints shrink the lattice
+     *
+     * @param line        the string to be decoded to get the tags
+     * @param constraints the allowed tags of each word (a single tag to fix it), null entries or a null list leave words free
+     * @return List<String> the list of decoded tags
+     */
+    public List<String> viterbiDecoding(String line, List<Set<String>> constraints) throws NullPointerException {
+
+        // uses the dense smoothed table when there is one
+        if (smoothedTransitions != null) return smoothedViterbiDecoding(line, constraints);
 
         // returns if we do not have the transition scores or observation scores
         // they can be manually created and updated with the corresponding setter functions
-        if (transScores == null || obsScores == null)
+        if ((transScores == null || obsScores == null) && lazyTransScores == null)
             throw new NullPointerException("Please provide the transition scores and/or observation scores");
-        // lowercase all the lines
-        line = line.toLowerCase();
-
         // initializes the word list by splitting with spaces
-        List<String> wordsList = new ArrayList<>(Arrays.asList(line.split(" ")));
+        List<String> wordsList;
+        boolean[] capitalizedUnknown = null;
+        if (wordIdCache == null) {
+            // lowercase all the lines
+            wordsList = new ArrayList<>(Arrays.asList(line.toLowerCase().split(" ")));
+        } else {
+            // keeps the case of the tokens, unknown words become null
+            String[] tokens = line.split(" ");
+            wordsList = new ArrayList<>(tokens.length);
+            capitalizedUnknown = new boolean[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                String word = wordIdCache.word(tokens[i]);
+                capitalizedUnknown[i] = word == null && WordIdCache.isCapitalized(tokens[i], i);
+                // an external emission model may know words the training did not
+                if (word == null && emissionModel != null) word = tokens[i].toLowerCase();
+                wordsList.add(word);
+            }
+        }
+
+        // resolves the observation scores of every word before the lattice pass
+        Vocabulary tagIds = emissionTags();
+        double[][] emissions = (emissionModel != null ? emissionModel : trainedEmissionModel())
+                .scoreSentence(wordsList.toArray(new String[0]), tagIds);
+        if (constraints != null && constraints.size() != wordsList.size())
+            throw new IllegalArgumentException("Expected " + wordsList.size() + " constraints but got " + constraints.size());
         // initializes the back trace map
         List<HashMap<String, String>> backTrace = new ArrayList<>();
 
@@ -287,19 +533,30 @@ public class PosTagger {
             // updates the next scores based on the transition and observation scores
             for (String currState : currStates) {
                 // if the current state is not in the transition scores, we skip it
-                if (!transScores.containsKey(currState)) continue;
+                HashMap<String, Double> transRow = transRow(currState);
+                if (transRow == null) continue;
+
+                // only walks the allowed tags when they are fewer than the transitions
+                Set<String> allowed = constraints == null ? null : constraints.get(i);
+                Set<String> candidates = allowed != null && allowed.size() < transRow.size() ? allowed : transRow.keySet();
 
                 // adds the next states to the next states set
-                for (String nextState : transScores.get(currState).keySet()) {
+                for (String nextState : candidates) {
+                    if (allowed != null && (!allowed.contains(nextState) || !transRow.containsKey(nextState))) continue;
                     nextStates.add(nextState);
                     Double nextScore;
+                    int tagId = tagIds.id(nextState);
+                    double obsScore = tagId < 0 ? Double.NaN : emissions[i][tagId];
 
                     // if the observation score contains the word, we update according to Viterbi forward propagation
-                    if (obsScores.get(nextState).containsKey(wordsList.get(i))) {
-                        nextScore = currScores.get(currState) + transScores.get(currState).get(nextState) + obsScores.get(nextState).get(wordsList.get(i));
+                    if (!Double.isNaN(obsScore)) {
+                        nextScore = currScores.get(currState) + transRow.get(nextState) + obsScore;
                         // if the word has not bee encountered in training, we default the observation score
                     } else {
-                        nextScore = currScores.get(currState) + transScores.get(currState).get(nextState) + unknownScoreLog;
+                        nextScore = currScores.get(currState) + transRow.get(nextState) + unknownScoreLog;
+                        // capitalization inside a sentence marks a proper noun
+                        if (capitalizedUnknown != null && capitalizedUnknown[i] && nextState.equals(properNounTag))
+                            nextScore += capitalizedUnknownBonusLog;
                     }
 
                     // if the next state has not been encountered yet in this line or we found a smaller next score, we update accordingly
@@ -316,6 +573,10 @@ public class PosTagger {
                     }
                 }
             }
+            // no state survives when the constraints rule out every path
+            if (nextStates.isEmpty() && constraints != null)
+                throw new IllegalArgumentException("No tag sequence satisfies the constraints at word " + (i + 1));
+
             // updates the current states for next iteration
             currStates = nextStates;
             currScores = nextScores;
@@ -323,8 +584,13 @@ public class PosTagger {
 
         // initializes the linked list of tags
         List<String> tags = new LinkedList();
-        // initializes the last tag as the one with the highest score
-        String bestState = Collections.max(currScores.entrySet(), Map.Entry.comparingByValue()).getKey();
+        // initializes the last tag as the one with the highest score, ties going to the alphabetically first tag
+        String bestState = null;
+        for (Map.Entry<String, Double> entry : currScores.entrySet()) {
+            double bestScore = bestState == null ? Double.NEGATIVE_INFINITY : currScores.get(bestState);
+            if (bestState == null || entry.getValue() > bestScore || (entry.getValue() == bestScore && entry.getKey().compareTo(bestState) < 0))
+                bestState = entry.getKey();
+        }
         tags.add(0, bestState);
 
         // trace backward in the line with the back pointers in the back trace map
@@ -337,31 +603,6 @@ public class PosTagger {
         return tags;
     }
 
-    /**
-     * console based tagging
-     */
-    public void consoleBasedTagger() {
-        Scanner in = new Scanner(System.in);
-
-        // takes inputs from user until the user quits
-        while (true) {
-            System.out.println("Please enter a sentence to get tags (enter \"q\" to quit game)");
-            System.out.print("> ");
-            String line = in.nextLine();
-            // if user inputs "q", the tagger ends
-            if (line.equals("q")) return;
-
-            // calls Viterbi decoding on the provided line
-            List<String> tagList = viterbiDecoding(line);
-
-            // outputs the decoded tags
-            String tagLine = "";
-            for (int i = 0; i < tagList.size(); i++) tagLine += tagList.get(i) + " ";
-            tagLine += "\n";
-            System.out.println(tagLine);
-        }
-    }
-
     // 3 tests for the Viterbi Tagger class
     public static void main(String[] args) {
 
@@ -553,6 +794,28 @@ public class PosTagger {
             System.err.println("Something went wrong while calculating accuracy");
         }
 
+        // compares the map decoder with the dense smoothed table, which needs the counts of lazy mode
+        System.out.println("\nBeginning test 3...");
+        System.out.println("Testing the dense smoothed transition table on Brown test sentences");
+        try {
+            PosTagger test3 = new PosTagger();
+            test3.trainingModel("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt", true);
+            test3.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-lazy.txt");
+            long start = System.nanoTime();
+            test3.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-lazy.txt");
+            System.out.println("transition maps: tagged in " + String.format("%.2f", (System.nanoTime() - start) / 1e9) + " s");
+            test3.calculateAccuracy("texts/brown-test-tags-result-lazy.txt", "texts/brown-test-tags.txt");
+
+            test3.smoothTransitions(0.01, 1.0);
+            test3.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-smoothed.txt");
+            start = System.nanoTime();
+            test3.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-smoothed.txt");
+            System.out.println("smoothed table: tagged in " + String.format("%.2f", (System.nanoTime() - start) / 1e9) + " s");
+            test3.calculateAccuracy("texts/brown-test-tags-result-smoothed.txt", "texts/brown-test-tags.txt");
+        } catch (IOException e) {
+            System.err.println("Something went wrong while testing model");
+        }
+
         // console based tagging that takes user input
         System.out.println("\nBeginning console-based tagging...");
         test2.consoleBasedTagger();
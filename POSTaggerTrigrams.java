@@ -1,6 +1,8 @@
 import java.io.*;
 import java.lang.reflect.Array;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * implemented trigram hidden Markov chain model with deleted interpolation using leave-one-out cross validation
@@ -11,7 +13,7 @@ import java.util.*;
  * February 27th, 2020
  */
 
-public class ViterbiTaggerEC {
+public class ViterbiTaggerEC implements Tagger {
 
     public HashMap<String, HashMap<String, Double>> bigramTransCounts;  // transition counts for bigrams
     public HashMap<ArrayList<String>, HashMap<String, Double>> trigramTransCounts;  // transition counts for trigrams
@@ -21,6 +23,31 @@ public class ViterbiTaggerEC {
     public double unknownScoreLog = -100.0;                     // the default scorer for an word not in the observation scores
     public double bigramWeight;                                 // interpolation weight for bigram
     public double trigramWeight;                                // interpolation weight for trigram
+    public Vocabulary tagVocabulary;                            // tag ids of the compact tables, in sorted order
+    public CompactTransitionTable compactBigramScores;          // compact bigramTransScores, context is the tag id or numTags for "start"
+    public CompactTransitionTable compactTrigramScores;         // compact trigramTransScores, context is first * (numTags + 1) + second
+    public CompactTransitionTable compactBigramCounts;          // compact bigramTransCounts
+    public CompactTransitionTable compactTrigramCounts;         // compact trigramTransCounts
+    public WordIdCache wordIdCache;                             // when set, decoding keeps the case of the input and looks words up through it
+    public String properNounTag = "NP";                         // the tag favored for capitalized unknown words
+    public double capitalizedUnknownBonusLog = 5.0;             // added to the proper noun score of a capitalized unknown word inside a sentence
+    public EmissionModel emissionModel;                         // when set, replaces the observation scores in decoding, e.g. a lexicon chained in front of them
+    private volatile Vocabulary emissionTags;                   // the tag ids of the emission arrays of the map decoder, read by concurrent decoders
+    public double coarseToFineThreshold = 0.0;                  // when positive, viterbiDecoding first prunes tags with a bigram pass, see coarseToFineDecoding
+    private volatile BigramMatrix bigramMatrix;                 // bigram log scores by emissionTags ids for coarse-to-fine decoding, see bigramMatrix
+    public int deadlineBeamWidth = 8;                           // the tag pairs kept per position in the BEAM tier of deadline-aware decoding
+    public final AtomicLongArray tierCounts = new AtomicLongArray(Tier.values().length); // deadline-aware decodings served by each tier
+    private volatile MostFrequentTags mostFrequentTags;         // the most frequent tag of each word for the last deadline tier, see mostFrequentTag
+    public SmoothedTransitionTable smoothedTransitions;         // when set, decoding uses this dense table instead of the transition scores, see smoothTransitions
+    public int batchLanes = 32;                                 // the sentences decoded together by viterbiDecodingBatch over the smoothed table
+    public DecoderSpecializer.Decoder specializedDecoder;       // when set, smoothed decoding of single sentences runs through this generated decoder, see specializeDecoder
+    public int parallelDecodeThreshold = 200;                   // sentences of at least this many words split each step of smoothed decoding across the common fork-join pool
+
+    /**
+     * instantiate ViterbiTagger without training (must train it with countsTrainingModel)
+     */
+    public ViterbiTaggerEC() {
+    }
 
     /**
      * instantiate ViterbiTagger with files to train the model
@@ -39,6 +66,17 @@ public class ViterbiTaggerEC {
         }
     }
 
+    /**
+     * instantiate ViterbiTagger with a packed corpus to train the model
+     *
+     * @param corpus the packed training corpus written by CorpusPacker
+     */
+    public ViterbiTaggerEC(PackedCorpus corpus) {
+        bigramTrainingModel(corpus);
+        trigramTrainingModel(corpus);
+        calculateInterpolationWeights();
+    }
+
     /**
      * trains with bigram model
      * we condition the probability of a tag only on the previous tags
@@ -123,6 +161,53 @@ public class ViterbiTaggerEC {
         sentencesInput.close();
         tagsInput.close();
 
+        normalizeBigramScores();
+    }
+
+    /**
+     * trains with bigram model from a packed corpus
+     * counts are accumulated by id and only turned into the string-keyed maps once per distinct word and tag
+     *
+     * @param corpus the packed training corpus
+     */
+    public void bigramTrainingModel(PackedCorpus corpus) {
+
+        int numTags = corpus.tags.size();
+
+        // counts by id, the last row of the transition counts is "start"
+        double[][] transCounts = new double[numTags + 1][numTags];
+        for (int s = 0; s < corpus.numSentences(); s++) {
+            int start = corpus.sentenceStart(s);
+            int end = start + corpus.sentenceLength(s);
+            int prevTag = numTags;
+            for (int p = start; p < end; p++) {
+                int tag = corpus.tagId(p);
+                transCounts[prevTag][tag] += 1.0;
+                prevTag = tag;
+            }
+        }
+
+        // copies the non-zero counts into the transition scores
+        bigramTransScores = new HashMap<>();
+        bigramTransScores.put("start", new HashMap<>());
+        for (int tag = 0; tag <= numTags; tag++) {
+            for (int nextTag = 0; nextTag < numTags; nextTag++) {
+                if (transCounts[tag][nextTag] == 0) continue;
+                String tagName = tag == numTags ? "start" : corpus.tags.string(tag);
+                bigramTransScores.computeIfAbsent(tagName, k -> new HashMap<>()).put(corpus.tags.string(nextTag), transCounts[tag][nextTag]);
+            }
+        }
+        obsScores = corpus.obsCounts();
+
+        normalizeBigramScores();
+    }
+
+    /**
+     * keeps a copy of the bigram counts for interpolation and turns the bigram transition counts
+     * and observation counts into log probabilities
+     */
+    private void normalizeBigramScores() {
+
         bigramTransCounts = new HashMap<>();
         for (String tag : bigramTransScores.keySet()) {
             bigramTransCounts.put(tag, new HashMap<>());
@@ -135,7 +220,7 @@ public class ViterbiTaggerEC {
         // normalizes the transition scores and observation scores
         for (String tag : bigramTransScores.keySet()) {
             // initializes the total count
-            int totalTagCount = 0;
+            double totalTagCount = 0;
 
             // adds the tag counts iteratively
             for (String nextTag : bigramTransScores.get(tag).keySet()) {
@@ -152,7 +237,7 @@ public class ViterbiTaggerEC {
         for (String tag : obsScores.keySet()) {
 
             // initializes the total count
-            int totalWordCount = 0;
+            double totalWordCount = 0;
 
             // adds the word counts iteratively
             for (String word : obsScores.get(tag).keySet()) {
@@ -266,6 +351,87 @@ public class ViterbiTaggerEC {
         sentencesInput.close();
         tagsInput.close();
 
+        normalizeTrigramScores();
+    }
+
+    /**
+     * trains with trigram model from a packed corpus
+     *
+     * @param corpus the packed training corpus
+     */
+    public void trigramTrainingModel(PackedCorpus corpus) {
+
+        int numTags = corpus.tags.size();
+        int start = numTags;
+
+        // counts by id, a tag pair (first, second) is row first * (numTags + 1) + second with "start" as numTags
+        double[][] transCounts = new double[(numTags + 1) * (numTags + 1)][numTags];
+        for (int s = 0; s < corpus.numSentences(); s++) {
+            int first = corpus.sentenceStart(s);
+            int end = first + corpus.sentenceLength(s);
+            int prevPrevTag = start;
+            int prevTag = start;
+            for (int p = first; p < end; p++) {
+                int tag = corpus.tagId(p);
+                transCounts[prevPrevTag * (numTags + 1) + prevTag][tag] += 1.0;
+                prevPrevTag = prevTag;
+                prevTag = tag;
+            }
+        }
+
+        // copies the non-zero counts into the transition scores
+        trigramTransScores = new HashMap<>();
+        ArrayList<String> initialList = new ArrayList<>();
+        initialList.add(0, "start");
+        initialList.add(1, "start");
+        trigramTransScores.put(initialList, new HashMap<>());
+        for (int pair = 0; pair < transCounts.length; pair++) {
+            for (int nextTag = 0; nextTag < numTags; nextTag++) {
+                if (transCounts[pair][nextTag] == 0) continue;
+                ArrayList<String> currentTags = new ArrayList<>();
+                currentTags.add(0, pair / (numTags + 1) == start ? "start" : corpus.tags.string(pair / (numTags + 1)));
+                currentTags.add(1, pair % (numTags + 1) == start ? "start" : corpus.tags.string(pair % (numTags + 1)));
+                trigramTransScores.computeIfAbsent(currentTags, k -> new HashMap<>()).put(corpus.tags.string(nextTag), transCounts[pair][nextTag]);
+            }
+        }
+        obsScores = corpus.obsCounts();
+
+        normalizeTrigramScores();
+    }
+
+    /**
+     * trains both models from counts gathered elsewhere, such as the merged shards of ShardedTrainer
+     * the count maps are copied, not changed
+     *
+     * @param bigramCounts  the count of each next tag after each tag, with "start" before the first tag
+     * @param trigramCounts the count of each next tag after each tag pair, with [start, start] before the first tag
+     * @param obsCounts     the count of each word for each tag
+     */
+    public void countsTrainingModel(Map<String, ? extends Map<String, Double>> bigramCounts,
+                                    Map<? extends List<String>, ? extends Map<String, Double>> trigramCounts,
+                                    Map<String, ? extends Map<String, Double>> obsCounts) {
+
+        bigramTransScores = new HashMap<>();
+        for (String tag : bigramCounts.keySet()) bigramTransScores.put(tag, new HashMap<>(bigramCounts.get(tag)));
+        obsScores = new HashMap<>();
+        for (String tag : obsCounts.keySet()) obsScores.put(tag, new HashMap<>(obsCounts.get(tag)));
+        normalizeBigramScores();
+
+        trigramTransScores = new HashMap<>();
+        for (List<String> tags : trigramCounts.keySet()) trigramTransScores.put(new ArrayList<>(tags), new HashMap<>(trigramCounts.get(tags)));
+        obsScores = new HashMap<>();
+        for (String tag : obsCounts.keySet()) obsScores.put(tag, new HashMap<>(obsCounts.get(tag)));
+        normalizeTrigramScores();
+
+        calculateInterpolationWeights();
+    }
+
+    /**
+     * keeps a copy of the trigram counts for interpolation and turns the trigram transition counts
+     * into probabilities and the observation counts into log probabilities
+     */
+    private void normalizeTrigramScores() {
+
         trigramTransCounts = new HashMap<>();
         for (ArrayList<String> tags : trigramTransScores.keySet()) {
             trigramTransCounts.put(tags, new HashMap<>());
@@ -278,7 +444,7 @@ public class ViterbiTaggerEC {
         // normalizes the transition scores and observation scores
         for (ArrayList tags : trigramTransScores.keySet()) {
             // initializes the total count
-            int totalTagCount = 0;
+            double totalTagCount = 0;
 
             // adds the tag counts iteratively
             for (String nextTag : trigramTransScores.get(tags).keySet()) {
@@ -297,7 +463,7 @@ public class ViterbiTaggerEC {
                 String tag : obsScores.keySet()) {
 
             // initializes the total count
-            int totalWordCount = 0;
+            double totalWordCount = 0;
 
             // adds the word counts iteratively
             for (String word : obsScores.get(tag).keySet()) {
@@ -312,103 +478,469 @@ public class ViterbiTaggerEC {
     }
 
     /**
-     * tests the model with the test sentences and corresponding tags
-     * write a file for the tags
+     * viterbi decoding
      *
-     * @param testSentencesFileName the file name of the testing sentences
-     * @param resultFileName        the file name of the testing tags
+     * @param line the string to be decoded to get the tags
+     * @return List<String> the list of decoded tags
      */
-    public void testingModel(String testSentencesFileName, String resultFileName) throws IOException {
+    public List<String> viterbiDecoding(String line) throws NullPointerException {
+        if (coarseToFineThreshold > 0) return coarseToFineDecoding(line, coarseToFineThreshold);
+        return viterbiDecoding(line, null);
+    }
 
-        // opens the file to read
-        BufferedReader testInput = new BufferedReader(new FileReader(testSentencesFileName));
-        // opens the file to write
-        BufferedWriter result = new BufferedWriter(new FileWriter(resultFileName));
+    /**
+     * coarse-to-fine decoding: a bigram pass computes the max-marginal score of every tag at every position
+     * (the score of the best path forced through that tag) and keeps the tags within threshold of the best path,
+     * then the interpolated trigram decoder runs over that reduced lattice
+     * decodes without pruning if the reduced lattice has no path
+     *
+     * @param line      the string to be decoded to get the tags
+     * @param threshold how far below the best path, in log score, a tag may be and still be kept
+     * @return List<String> the list of decoded tags
+     */
+    public List<String> coarseToFineDecoding(String line, double threshold) {
+
+        Vocabulary tagIds = emissionTags();
+        int numTags = tagIds.size();
+        int start = numTags;
+        double[] trans = bigramMatrix(tagIds);
+
+        // resolves the words the same way as the trigram decoder
+        String[] tokens = wordIdCache == null ? line.toLowerCase().split(" ") : line.split(" ");
+        boolean[] capitalizedUnknown = capitalizedUnknown(tokens);
+        int length = tokens.length;
+        double[][] emissions = emissions().scoreSentence(tokens, tagIds);
+        int properNoun = tagIds.id(properNounTag);
+        for (int i = 0; i < length; i++) {
+            for (int tag = 0; tag < numTags; tag++) {
+                if (!Double.isNaN(emissions[i][tag])) continue;
+                emissions[i][tag] = unknownScoreLog;
+                if (capitalizedUnknown != null && capitalizedUnknown[i] && tag == properNoun) emissions[i][tag] += capitalizedUnknownBonusLog;
+            }
+        }
 
-        // initializes the current line
-        String currentLine;
+        // the best score of a path from the start to each tag, and from each tag to the end
+        double[][] forward = new double[length][numTags];
+        double[][] backward = new double[length][numTags];
+        for (int tag = 0; tag < numTags; tag++) forward[0][tag] = trans[start * numTags + tag] + emissions[0][tag];
+        for (int i = 1; i < length; i++) {
+            for (int tag = 0; tag < numTags; tag++) {
+                double best = Double.NEGATIVE_INFINITY;
+                for (int prev = 0; prev < numTags; prev++) best = Math.max(best, forward[i - 1][prev] + trans[prev * numTags + tag]);
+                forward[i][tag] = best + emissions[i][tag];
+            }
+        }
+        for (int i = length - 2; i >= 0; i--) {
+            for (int tag = 0; tag < numTags; tag++) {
+                double best = Double.NEGATIVE_INFINITY;
+                for (int next = 0; next < numTags; next++) best = Math.max(best, trans[tag * numTags + next] + emissions[i + 1][next] + backward[i + 1][next]);
+                backward[i][tag] = best;
+            }
+        }
 
-        // reads each line and calls the Viterbi decoding method
-        while ((currentLine = testInput.readLine()) != null) {
+        // keeps the tags whose max-marginal is within the threshold of the best path
+        List<Set<String>> constraints = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            double best = Double.NEGATIVE_INFINITY;
+            for (int tag = 0; tag < numTags; tag++) best = Math.max(best, forward[i][tag] + backward[i][tag]);
+            Set<String> kept = new HashSet<>();
+            for (int tag = 0; tag < numTags; tag++) {
+                if (forward[i][tag] + backward[i][tag] >= best - threshold) kept.add(tagIds.string(tag));
+            }
+            constraints.add(kept);
+        }
 
+        try {
+            return viterbiDecoding(line, constraints);
+        } catch (IllegalArgumentException e) {
+            return viterbiDecoding(line, null);
+        }
+    }
 
-            List<String> currentTagList = viterbiDecoding(currentLine);
+    /**
+     * bigram log scores by emission tag id, previous * numTags + next with start as the last row,
+     * with the transition table and tag ids they were built from
+     */
+    private static class BigramMatrix {
+        final Object scores;        // bigramTransScores or compactBigramScores
+        final Vocabulary tagIds;
+        final double[] matrix;
+
+        BigramMatrix(Object scores, Vocabulary tagIds, double[] matrix) {
+            this.scores = scores;
+            this.tagIds = tagIds;
+            this.matrix = matrix;
+        }
+    }
 
-            // writes in the result file the tags from decoding
-            String tagLine = "";
-            for (int i = 0; i < currentTagList.size(); i++) tagLine += currentTagList.get(i) + " ";
-            tagLine += "\n";
-            result.write(tagLine);
+    /**
+     * @param tagIds the tag ids of the emission arrays
+     * @return double[] the bigram log scores as a matrix, negative infinity for transitions never seen
+     * the matrix is rebuilt whenever the bigram table or the tag ids are not the ones it was built from,
+     * training, countsTrainingModel and compactTables all replace the table
+     */
+    private double[] bigramMatrix(Vocabulary tagIds) {
+        Object scores = bigramTransScores != null ? bigramTransScores : compactBigramScores;
+        BigramMatrix current = bigramMatrix;
+        if (current != null && current.scores == scores && current.tagIds == tagIds) return current.matrix;
+
+        int numTags = tagIds.size();
+        double[] matrix = new double[(numTags + 1) * numTags];
+        Arrays.fill(matrix, Double.NEGATIVE_INFINITY);
+        for (int prev = 0; prev <= numTags; prev++) {
+            String prevTag = prev == numTags ? "start" : tagIds.string(prev);
+            for (int next = 0; next < numTags; next++) {
+                double score;
+                if (bigramTransScores != null) {
+                    HashMap<String, Double> row = bigramTransScores.get(prevTag);
+                    Double value = row == null ? null : row.get(tagIds.string(next));
+                    score = value == null ? Double.NaN : value;
+                } else {
+                    // the compact tables number the tags in sorted order
+                    int context = prev == numTags ? tagVocabulary.size() : tagVocabulary.id(prevTag);
+                    score = compactBigramScores.hasRow(context) ? compactBigramScores.score(context, tagVocabulary.id(tagIds.string(next))) : Double.NaN;
+                }
+                if (!Double.isNaN(score)) matrix[prev * numTags + next] = score;
+            }
         }
+        bigramMatrix = new BigramMatrix(scores, tagIds, matrix);
+        return matrix;
+    }
 
-        // closes the files
-        testInput.close();
-        result.close();
+    /**
+     * how a deadline-aware decoding was served, from best to cheapest
+     */
+    public enum Tier {
+        FULL,           // exact interpolated trigram decoding
+        BEAM,           // trigram decoding keeping only the best deadlineBeamWidth tag pairs per position
+        BIGRAM,         // bigram scores only, one state for each of the best deadlineBeamWidth tags
+        MOST_FREQUENT   // the best path so far, then the most frequent tag of each remaining word
     }
 
     /**
-     * tests the model with the test sentences and corresponding tags
-     * write a file for the tags
-     *
-     * @param resultFileName      the file name of the testing tags
-     * @param correctTagsFileName the file name of the correct tags
-     * @return Double the accuracy ratio
+     * the tags of a deadline-aware decoding and the cheapest tier it had to use
      */
-    public Double calculateAccuracy(String resultFileName, String correctTagsFileName) throws IOException {
+    public static class DeadlineResult {
+        public final List<String> tags;
+        public final Tier tier;
 
-        // initializes the number of tags correct and the total tags in the result file
-        int numCorrect = 0;
-        int total = 0;
+        DeadlineResult(List<String> tags, Tier tier) {
+            this.tags = tags;
+            this.tier = tier;
+        }
+    }
 
-        // opens the files
-        BufferedReader result = new BufferedReader(new FileReader(resultFileName));
-        BufferedReader correctTags = new BufferedReader(new FileReader(correctTagsFileName));
+    /**
+     * viterbi decoding with a time budget, using the compact tables
+     * before every position the time per expanded state so far is projected over the states left to expand;
+     * when the projection overruns the budget decoding drops one tier (a beam of tag pairs, then bigram scoring over
+     * the best tags), and when not even the next position fits, the remaining words get their most frequent tag
+     * the tier of every call is counted in tierCounts
+     *
+     * @param line         the string to be decoded to get the tags
+     * @param budgetNanos  the time budget of the sentence in nanoseconds
+     * @return DeadlineResult the decoded tags and the tier that served them
+     */
+    public DeadlineResult viterbiDecoding(String line, long budgetNanos) {
+
+        long startNanos = System.nanoTime();
+        if (compactTrigramScores == null)
+            throw new IllegalStateException("Deadline-aware decoding needs the compact tables, call compactTables first");
+
+        int numTags = tagVocabulary.size();
+        int width = numTags + 1;
+        int start = numTags;
+
+        // resolves the observation scores of every word before the lattice pass
+        String[] wordsList = wordIdCache == null ? line.toLowerCase().split(" ") : line.split(" ");
+        boolean[] capitalizedUnknown = capitalizedUnknown(wordsList);
+        int properNoun = tagVocabulary.id(properNounTag);
+        double[][] wordScores = emissions().scoreSentence(wordsList, tagVocabulary);
+        int length = wordsList.length;
+
+        int[][] liveStates = new int[length + 1][];
+        int[][] backPointers = new int[length + 1][];
+        double[] liveScores = {0.0};
+        liveStates[0] = new int[]{start * width + start};
+
+        double[] nextScores = new double[width * width];
+        int[] nextBack = new int[width * width];
+        int[] touched = new int[width * width];
+        double[] emissions = new double[numTags];
+        Arrays.fill(nextScores, Double.NEGATIVE_INFINITY);
+
+        Tier tier = Tier.FULL;
+        int decoded = length;
+        long loopStartNanos = System.nanoTime();
+        long statesExpanded = 0;
+
+        for (int i = 0; i < length; i++) {
+            int[] currStates = liveStates[i];
+
+            if (i > 0) {
+                // projects from the time spent per expanded state so far: stops when not even the next position fits,
+                // and drops one tier when the rest of the sentence at the current tier would overrun the budget
+                long now = System.nanoTime();
+                long elapsed = now - startNanos;
+                double nanosPerState = (double) (now - loopStartNanos) / Math.max(1, statesExpanded);
+                int statesNow = tier == Tier.FULL ? currStates.length : Math.min(currStates.length, deadlineBeamWidth);
+                if (elapsed + nanosPerState * statesNow > budgetNanos) {
+                    tier = Tier.MOST_FREQUENT;
+                    decoded = i;
+                    break;
+                }
+                int statesLater = tier == Tier.FULL ? Math.max(currStates.length, numTags) : deadlineBeamWidth;
+                if (tier != Tier.BIGRAM && elapsed + nanosPerState * ((double) statesNow + (double) statesLater * (length - i - 1)) > budgetNanos) {
+                    tier = tier == Tier.FULL ? Tier.BEAM : Tier.BIGRAM;
+                }
 
-        // initializes the lines from both files
-        String currentResultLine;
-        String currentTagLine;
+                // the beam tier keeps the best states, the bigram tier the best state of each of the best tags
+                int[] kept = null;
+                if (tier == Tier.BIGRAM) {
+                    int[] perTag = bestStatePerTag(currStates, liveScores, width);
+                    if (perTag != null) kept = perTag;
+                    else perTag = identity(currStates.length);
+                    double[] perTagScores = new double[perTag.length];
+                    for (int j = 0; j < perTag.length; j++) perTagScores[j] = liveScores[perTag[j]];
+                    int[] best = bestStates(perTagScores, deadlineBeamWidth);
+                    if (best != null) {
+                        kept = new int[best.length];
+                        for (int j = 0; j < best.length; j++) kept[j] = perTag[best[j]];
+                    }
+                } else if (tier == Tier.BEAM) {
+                    kept = bestStates(liveScores, deadlineBeamWidth);
+                }
+                if (kept != null) {
+                    int[] states = new int[kept.length];
+                    int[] back = new int[kept.length];
+                    double[] scores = new double[kept.length];
+                    for (int j = 0; j < kept.length; j++) {
+                        states[j] = currStates[kept[j]];
+                        back[j] = backPointers[i][kept[j]];
+                        scores[j] = liveScores[kept[j]];
+                    }
+                    liveStates[i] = currStates = states;
+                    backPointers[i] = back;
+                    liveScores = scores;
+                }
+            }
+            statesExpanded += currStates.length;
 
+            for (int tag = 0; tag < numTags; tag++) {
+                double obsScore = wordScores[i][tag];
+                emissions[tag] = !Double.isNaN(obsScore) ? obsScore : unknownScoreLog;
+                if (capitalizedUnknown != null && capitalizedUnknown[i] && tag == properNoun) emissions[tag] += capitalizedUnknownBonusLog;
+            }
 
-        // iteratively count the number of tags correct by comparing with the corresponding correct tags
-        while ((currentResultLine = result.readLine()) != null) {
-            currentTagLine = correctTags.readLine();
+            int numTouched = 0;
+            for (int a = 0; a < currStates.length; a++) {
+                int pair = currStates[a];
+                int prevTag = pair % width;
+
+                // the bigram tier ignores the trigram scores altogether
+                boolean trigramExists = tier != Tier.BIGRAM && compactTrigramScores.hasRow(pair);
+                CompactTransitionTable table = trigramExists ? compactTrigramScores : compactBigramScores;
+                int context = trigramExists ? pair : prevTag;
+                if (!table.hasRow(context)) continue;
+
+                for (int entry = table.rowStart(context); entry < table.rowEnd(context); entry++) {
+                    double transScore = table.entryScore(entry);
+                    if (Double.isNaN(transScore)) continue;
+                    int nextTag = table.entryTag(entry);
+
+                    double weightedTransScore = trigramExists
+                            ? (bigramWeight) * compactBigramScores.score(prevTag, nextTag) + (trigramWeight) * transScore
+                            : transScore;
+                    double nextScore = liveScores[a] + weightedTransScore + emissions[nextTag];
+
+                    // the bigram tier keeps one state per tag
+                    int next = tier == Tier.BIGRAM ? start * width + nextTag : prevTag * width + nextTag;
+                    if (nextScore > nextScores[next]) {
+                        if (nextScores[next] == Double.NEGATIVE_INFINITY) touched[numTouched++] = next;
+                        nextScores[next] = nextScore;
+                        nextBack[next] = a;
+                    }
+                }
+            }
 
-            List<String> resultList = new ArrayList<>(Arrays.asList(currentResultLine.split(" ")));
-            List<String> tagList = new ArrayList<>(Arrays.asList((currentTagLine.split(" "))));
-            for (int i = 0; i < resultList.size(); i++) {
-                if (resultList.get(i).equals(tagList.get(i))) numCorrect += 1;
-                total += 1;
+            int[] states = Arrays.copyOf(touched, numTouched);
+            int[] back = new int[numTouched];
+            double[] scores = new double[numTouched];
+            for (int j = 0; j < numTouched; j++) {
+                back[j] = nextBack[states[j]];
+                scores[j] = nextScores[states[j]];
+                nextScores[states[j]] = Double.NEGATIVE_INFINITY;
             }
+            liveStates[i + 1] = states;
+            backPointers[i + 1] = back;
+            liveScores = scores;
         }
 
-        // closes the files
-        result.close();
-        correctTags.close();
+        // traces back the best path over the decoded positions
+        String[] tags = new String[length];
+        int bestIndex = 0;
+        for (int a = 1; a < liveScores.length; a++) if (liveScores[a] > liveScores[bestIndex]) bestIndex = a;
+        for (int i = decoded; i > 0; i--) {
+            tags[i - 1] = tagVocabulary.string(liveStates[i][bestIndex] % width);
+            bestIndex = backPointers[i][bestIndex];
+        }
 
-        // outputs the results
-        System.out.println("The POS tagger identified " + numCorrect + " out of " + total + " tags correctly.");
-        double accuracyRatio = ((double) numCorrect) / ((double) total);
-        System.out.println("The accuracy is: " + (accuracyRatio) * 100 + "%");
+        // the remaining words get their most frequent tag
+        for (int i = decoded; i < length; i++) tags[i] = mostFrequentTag(wordsList[i]);
 
-        // returns the accuracy ratio
-        return accuracyRatio;
+        tierCounts.incrementAndGet(tier.ordinal());
+        return new DeadlineResult(new ArrayList<>(Arrays.asList(tags)), tier);
+    }
 
+    /**
+     * @param scores the scores of the live states
+     * @param beam   the number of states to keep
+     * @return int[] the indices of the best beam states, or null if there are no more than that
+     */
+    private static int[] bestStates(double[] scores, int beam) {
+        if (scores.length <= beam) return null;
+        double[] sorted = scores.clone();
+        Arrays.sort(sorted);
+        double cutoff = sorted[scores.length - beam];
+        int[] kept = new int[beam];
+        int numKept = 0;
+        for (int a = 0; a < scores.length && numKept < beam; a++) if (scores[a] >= cutoff) kept[numKept++] = a;
+        return kept;
     }
 
     /**
-     * viterbi decoding
-     *
-     * @param line the string to be decoded to get the tags
-     * @return List<String> the list of decoded tags
+     * @param n the number of indices
+     * @return int[] the indices from 0 to n - 1
      */
-    public List<String> viterbiDecoding(String line) throws NullPointerException {
+    private static int[] identity(int n) {
+        int[] indices = new int[n];
+        for (int j = 0; j < n; j++) indices[j] = j;
+        return indices;
+    }
+
+    /**
+     * @param states the live tag pairs
+     * @param scores the scores of the live states
+     * @param width  the number of tags plus one
+     * @return int[] the index of the best state ending in each tag, or null if every tag has only one state
+     */
+    private static int[] bestStatePerTag(int[] states, double[] scores, int width) {
+        int[] best = new int[width];
+        Arrays.fill(best, -1);
+        int numKept = 0;
+        for (int a = 0; a < states.length; a++) {
+            int tag = states[a] % width;
+            if (best[tag] < 0) numKept++;
+            if (best[tag] < 0 || scores[a] > scores[best[tag]]) best[tag] = a;
+        }
+        if (numKept == states.length) return null;
+        int[] kept = new int[numKept];
+        numKept = 0;
+        for (int tag = 0; tag < width; tag++) if (best[tag] >= 0) kept[numKept++] = best[tag];
+        return kept;
+    }
+
+    /**
+     * @param word the lowercased word, or null if unknown
+     * @return String the tag the word was seen with most often in training, or the most frequent tag for an unknown word
+     */
+    public String mostFrequentTag(String word) {
+        HashMap<String, String> tags = buildMostFrequentTags();
+        String tag = word == null ? null : tags.get(word);
+        return tag != null ? tag : tags.get(null);
+    }
+
+    /**
+     * the most frequent tag of each word, with the null key for unknown words,
+     * and the observation scores and bigram counts it was built from
+     */
+    private static class MostFrequentTags {
+        final Object obsScores;
+        final Object tagCounts;     // bigramTransCounts or compactBigramCounts
+        final HashMap<String, String> tags;
+
+        MostFrequentTags(Object obsScores, Object tagCounts, HashMap<String, String> tags) {
+            this.obsScores = obsScores;
+            this.tagCounts = tagCounts;
+            this.tags = tags;
+        }
+    }
 
-        // lowercase all the lines
-        line = line.toLowerCase();
-        // initializes the word list by splitting with spaces
+    /**
+     * finds the most frequent tag of every word: the tag maximizing log P(word | tag) + log count(tag),
+     * with the tag counts taken from the bigram counts
+     * the result is kept until the observation scores or the bigram counts are replaced, e.g. by retraining
+     */
+    private HashMap<String, String> buildMostFrequentTags() {
+        HashMap<String, HashMap<String, Double>> obsScores = this.obsScores;
+        Object countsSource = bigramTransCounts != null ? bigramTransCounts : compactBigramCounts;
+        MostFrequentTags current = mostFrequentTags;
+        if (current != null && current.obsScores == obsScores && current.tagCounts == countsSource) return current.tags;
+
+        // counts each tag as the second tag of the bigrams
+        HashMap<String, Double> tagCounts = new HashMap<>();
+        if (bigramTransCounts != null) {
+            for (HashMap<String, Double> row : bigramTransCounts.values()) {
+                for (String tag : row.keySet()) tagCounts.merge(tag, row.get(tag), Double::sum);
+            }
+        } else {
+            for (int context = 0; context < compactBigramCounts.numContexts; context++) {
+                if (!compactBigramCounts.hasRow(context)) continue;
+                for (int entry = compactBigramCounts.rowStart(context); entry < compactBigramCounts.rowEnd(context); entry++) {
+                    double count = compactBigramCounts.entryScore(entry);
+                    if (!Double.isNaN(count)) tagCounts.merge(tagVocabulary.string(compactBigramCounts.entryTag(entry)), count, Double::sum);
+                }
+            }
+        }
 
+        HashMap<String, String> tags = new HashMap<>();
+        HashMap<String, Double> bestScores = new HashMap<>();
+        String mostFrequent = null;
+        for (String tag : obsScores.keySet()) {
+            Double tagCount = tagCounts.get(tag);
+            if (tagCount == null) continue;
+            if (mostFrequent == null || tagCount > tagCounts.get(mostFrequent)) mostFrequent = tag;
+            double logCount = Math.log(tagCount);
+            for (Map.Entry<String, Double> entry : obsScores.get(tag).entrySet()) {
+                double score = entry.getValue() + logCount;
+                Double best = bestScores.get(entry.getKey());
+                if (best == null || score > best) {
+                    bestScores.put(entry.getKey(), score);
+                    tags.put(entry.getKey(), tag);
+                }
+            }
+        }
+        // the null key holds the tag of unknown words
+        tags.put(null, mostFrequent);
+        mostFrequentTags = new MostFrequentTags(obsScores, countsSource, tags);
+        return tags;
+    }
 
-        List<String> wordsList = new ArrayList<>(Arrays.asList(line.split(" ")));
+    /**
+     * viterbi decoding with some tags known in advance
+     * states outside the allowed tags of a position are never expanded, so constraints shrink the lattice
+     *
+     * @param line        the string to be decoded to get the tags
+     * @param constraints the allowed tags of each word (a single tag to fix it), null entries or a null list leave words free
+     * @return List<String> the list of decoded tags
+     */
+    public List<String> viterbiDecoding(String line, List<Set<String>> constraints) throws NullPointerException {
+
+        // uses the dense smoothed table when there is one
+        if (smoothedTransitions != null) return smoothedViterbiDecoding(line, constraints);
+        // uses the compact tables once the model has been compacted
+        if (compactTrigramScores != null) return compactViterbiDecoding(line, constraints);
+
+        // initializes the word list by splitting with spaces, lowercased unless the case is kept
+        String[] tokens = wordIdCache == null ? line.toLowerCase().split(" ") : line.split(" ");
+        boolean[] capitalizedUnknown = capitalizedUnknown(tokens);
+        List<String> wordsList = new ArrayList<>(Arrays.asList(tokens));
+
+        // resolves the observation scores of every word before the lattice pass
+        Vocabulary tagIds = emissionTags();
+        double[][] emissions = emissions().scoreSentence(tokens, tagIds);
+        if (constraints != null && constraints.size() != wordsList.size())
+            throw new IllegalArgumentException("Expected " + wordsList.size() + " constraints but got " + constraints.size());
         // initializes the back trace map
         List<HashMap<ArrayList<String>, ArrayList<String>>> backTrace = new ArrayList<>();
 
@@ -429,6 +961,9 @@ public class ViterbiTaggerEC {
             Set<ArrayList<String>> nextTrigramStates = new HashSet<>();
             Map<ArrayList<String>, Double> nextTrigramScores = new HashMap<>();
 
+            // the tags allowed at this word, null if any tag is
+            Set<String> allowed = constraints == null ? null : constraints.get(i);
+
             // updates the next scores based on the transition and observation scores
             for (ArrayList<String> currStatePair : currTrigramStates) {
 
@@ -438,11 +973,16 @@ public class ViterbiTaggerEC {
                 if (!trigramTransScores.containsKey(currStatePair)) {
                     trigramExists = false;
                 }
+                // falls back to the bigram scores when the constraints rule out every trigram continuation
+                if (trigramExists && allowed != null && Collections.disjoint(trigramTransScores.get(currStatePair).keySet(), allowed)) {
+                    trigramExists = false;
+                }
 
                 // consider trigram score when calculating the next score
                 if (trigramExists) {
                     // adds the next states to the next states set
                     for (String nextState : trigramTransScores.get(currStatePair).keySet()) {
+                        if (allowed != null && !allowed.contains(nextState)) continue;
                         ArrayList<String> nextStatePair = new ArrayList<>();
                         nextStatePair.add(0, currStatePair.get(1));
                         nextStatePair.add(1, nextState);
@@ -451,16 +991,20 @@ public class ViterbiTaggerEC {
                         Double nextScore;
 
                         // if the observation score contains the word, we update according to Viterbi forward propagation
-                        if (obsScores.get(nextState).containsKey(wordsList.get(i))) {
+                        double obsScore = emissions[i][tagIds.id(nextState)];
+                        if (!Double.isNaN(obsScore)) {
                             double weightedTransScore;
                             weightedTransScore = (bigramWeight) * bigramTransScores.get(currStatePair.get(1)).get(nextState) + (trigramWeight) * trigramTransScores.get(currStatePair).get(nextState);
-                            nextScore = currTrigramScores.get(currStatePair) + weightedTransScore + obsScores.get(nextState).get(wordsList.get(i));
+                            nextScore = currTrigramScores.get(currStatePair) + weightedTransScore + obsScore;
                             // if the word has not bee encountered in training, we default the observation score
                         } else {
                             // calculates weighted average of the bigram and trigram scores
                             double weightedTransScore;
                             weightedTransScore = (bigramWeight) * bigramTransScores.get(currStatePair.get(1)).get(nextState) + (trigramWeight) * trigramTransScores.get(currStatePair).get(nextState);
                             nextScore = currTrigramScores.get(currStatePair) + weightedTransScore + unknownScoreLog;
+                            // capitalization inside a sentence marks a proper noun
+                            if (capitalizedUnknown != null && capitalizedUnknown[i] && nextState.equals(properNounTag))
+                                nextScore += capitalizedUnknownBonusLog;
                         }
 
                         // if the next state has not been encountered yet in this line or we found a smaller next score, we update accordingly
@@ -479,6 +1023,7 @@ public class ViterbiTaggerEC {
                 } else {
                     if (!bigramTransScores.containsKey(currStatePair.get(1))) continue;
                     for (String nextState : bigramTransScores.get(currStatePair.get(1)).keySet()) {
+                        if (allowed != null && !allowed.contains(nextState)) continue;
                         ArrayList<String> nextStatePair = new ArrayList<>();
                         nextStatePair.add(0, currStatePair.get(1));
                         nextStatePair.add(1, nextState);
@@ -486,17 +1031,21 @@ public class ViterbiTaggerEC {
 
                         Double nextScore;
                         // if the observation score contains the word, we update according to Viterbi forward propagation
-                        if (obsScores.get(nextState).containsKey(wordsList.get(i))) {
+                        double obsScore = emissions[i][tagIds.id(nextState)];
+                        if (!Double.isNaN(obsScore)) {
                             double weightedTransScore;
                             // only considers the bigram score
                             weightedTransScore = bigramTransScores.get(currStatePair.get(1)).get(nextState);
-                            nextScore = currTrigramScores.get(currStatePair) + weightedTransScore + obsScores.get(nextState).get(wordsList.get(i));
+                            nextScore = currTrigramScores.get(currStatePair) + weightedTransScore + obsScore;
                             // if the word has not bee encountered in training, we default the observation score
                         } else {
                             double weightedTransScore;
                             weightedTransScore = bigramTransScores.get(currStatePair.get(1)).get(nextState);
 
                             nextScore = currTrigramScores.get(currStatePair) + weightedTransScore + unknownScoreLog;
+                            // capitalization inside a sentence marks a proper noun
+                            if (capitalizedUnknown != null && capitalizedUnknown[i] && nextState.equals(properNounTag))
+                                nextScore += capitalizedUnknownBonusLog;
                         }
 
                         // if the next state has not been encountered yet in this line or we found a smaller next score, we update accordingly
@@ -514,6 +1063,10 @@ public class ViterbiTaggerEC {
 
                 }
             }
+            // no state survives when the constraints rule out every path
+            if (nextTrigramStates.isEmpty() && constraints != null)
+                throw new IllegalArgumentException("No tag sequence satisfies the constraints at word " + (i + 1));
+
             // updates the current states for next iteration
             currTrigramStates = nextTrigramStates;
             currTrigramScores = nextTrigramScores;
@@ -521,14 +1074,15 @@ public class ViterbiTaggerEC {
 
         // initializes the linked list of tags
         List<String> tags = new LinkedList();
-        // initializes the last tag as the one with the highest score
+        // initializes the last tag as the one with the highest score, ties going to the alphabetically first tag pair
         ArrayList<String> bestStates = new ArrayList<>();
         double highestScore = (-1) * Double.MAX_VALUE;
 
         for (ArrayList<String> statePair : currTrigramScores.keySet()) {
-            if (currTrigramScores.get(statePair) > highestScore) {
+            double score = currTrigramScores.get(statePair);
+            if (score > highestScore || (score == highestScore && !bestStates.isEmpty() && comparePairs(statePair, bestStates) < 0)) {
                 bestStates = statePair;
-                highestScore = currTrigramScores.get(statePair);
+                highestScore = score;
             }
         }
 
@@ -544,12 +1098,417 @@ public class ViterbiTaggerEC {
         return tags;
     }
 
+    /**
+     * converts the transition scores and counts into CompactTransitionTables after training
+     * decoding and interpolation then use the compact tables
+     *
+     * @param dropMaps whether to release the HashMap transition tables afterwards
+     */
+    public void compactTables(boolean dropMaps) {
+        compactTables(dropMaps, CompactTransitionTable.Precision.DOUBLE);
+    }
+
+    /**
+     * converts the transition scores and counts into CompactTransitionTables after training,
+     * storing the transition scores at a reduced precision (the counts are always kept exact)
+     *
+     * @param dropMaps  whether to release the HashMap transition tables afterwards
+     * @param precision how the transition scores are stored
+     */
+    public void compactTables(boolean dropMaps, CompactTransitionTable.Precision precision) {
+
+        // assigns tag ids in sorted order so the compact tables do not depend on hash order
+        ArrayList<String> sortedTags = new ArrayList<>(obsScores.keySet());
+        Collections.sort(sortedTags);
+        tagVocabulary = new Vocabulary();
+        for (String tag : sortedTags) tagVocabulary.add(tag);
+
+        int numTags = tagVocabulary.size();
+        int width = numTags + 1;
+
+        // a bigram context is a tag id, with numTags for "start"
+        compactBigramScores = CompactTransitionTable.build(width, tagVocabulary,
+                context -> bigramTransScores.get(tagName(context)), 0.5, precision);
+        compactBigramCounts = CompactTransitionTable.build(width, tagVocabulary,
+                context -> bigramTransCounts.get(tagName(context)), 0.5);
+
+        // a trigram context is a pair of tag ids
+        compactTrigramScores = CompactTransitionTable.build(width * width, tagVocabulary,
+                context -> trigramTransScores.get(tagPair(context)), 0.5, precision);
+        compactTrigramCounts = CompactTransitionTable.build(width * width, tagVocabulary,
+                context -> trigramTransCounts.get(tagPair(context)), 0.5);
+
+        if (dropMaps) {
+            bigramTransScores = null;
+            bigramTransCounts = null;
+            trigramTransScores = null;
+            trigramTransCounts = null;
+        }
+    }
+
+    /**
+     * @param context a tag id of the compact tables, or numTags for "start"
+     * @return String the tag name
+     */
+    private String tagName(int context) {
+        return context == tagVocabulary.size() ? "start" : tagVocabulary.string(context);
+    }
+
+    /**
+     * @param context a tag pair id of the compact tables
+     * @return ArrayList<String> the tag pair as used by the trigram maps
+     */
+    private ArrayList<String> tagPair(int context) {
+        ArrayList<String> pair = new ArrayList<>();
+        pair.add(0, tagName(context / (tagVocabulary.size() + 1)));
+        pair.add(1, tagName(context % (tagVocabulary.size() + 1)));
+        return pair;
+    }
+
+    /**
+     * viterbi decoding with the compact tables
+     * scores are computed exactly as in viterbiDecoding, but states are tag pair ids and
+     * the live states of each position are kept in primitive arrays
+     *
+     * @param line        the string to be decoded to get the tags
+     * @param constraints the allowed tags of each word, null entries or a null list leave words free
+     * @return List<String> the list of decoded tags
+     */
+    private List<String> compactViterbiDecoding(String line, List<Set<String>> constraints) {
+
+        int numTags = tagVocabulary.size();
+        int width = numTags + 1;
+        int start = numTags;
+
+        // splits into words, lowercased unless the case is kept
+        String[] wordsList = wordIdCache == null ? line.toLowerCase().split(" ") : line.split(" ");
+        boolean[] capitalizedUnknown = capitalizedUnknown(wordsList);
+        int properNoun = tagVocabulary.id(properNounTag);
+
+        // resolves the observation scores of every word before the lattice pass
+        double[][] wordScores = emissions().scoreSentence(wordsList, tagVocabulary);
+        int length = wordsList.length;
+        if (constraints != null && constraints.size() != length)
+            throw new IllegalArgumentException("Expected " + length + " constraints but got " + constraints.size());
+
+        // turns the constraints into allowed tag ids
+        boolean[][] allowed = new boolean[length][];
+        for (int i = 0; constraints != null && i < length; i++) {
+            if (constraints.get(i) == null) continue;
+            allowed[i] = new boolean[numTags];
+            for (String tag : constraints.get(i)) {
+                int id = tagVocabulary.id(tag);
+                if (id >= 0) allowed[i][id] = true;
+            }
+        }
+
+        // the live tag pairs of each position and the index of their best predecessor in the previous position
+        int[][] liveStates = new int[length + 1][];
+        int[][] backPointers = new int[length + 1][];
+        double[] liveScores = {0.0};
+        liveStates[0] = new int[]{start * width + start};
+
+        // scratch space for the next position, indexed by tag pair
+        double[] nextScores = new double[width * width];
+        int[] nextBack = new int[width * width];
+        int[] touched = new int[width * width];
+        double[] emissions = new double[numTags];
+        Arrays.fill(nextScores, Double.NEGATIVE_INFINITY);
+
+        for (int i = 0; i < length; i++) {
+
+            // resolves the observation score of every tag for this word
+            for (int tag = 0; tag < numTags; tag++) {
+                if (allowed[i] != null && !allowed[i][tag]) continue;
+                double obsScore = wordScores[i][tag];
+                emissions[tag] = !Double.isNaN(obsScore) ? obsScore : unknownScoreLog;
+                // capitalization inside a sentence marks a proper noun
+                if (capitalizedUnknown != null && capitalizedUnknown[i] && tag == properNoun) emissions[tag] += capitalizedUnknownBonusLog;
+            }
+
+            int numTouched = 0;
+            int[] currStates = liveStates[i];
+            for (int a = 0; a < currStates.length; a++) {
+                int pair = currStates[a];
+                int prevTag = pair % width;
+
+                // interpolates with the trigram scores when the tag pair has them, otherwise uses only the bigram scores
+                boolean trigramExists = compactTrigramScores.hasRow(pair);
+                // falls back to the bigram scores when the constraints rule out every trigram continuation
+                if (trigramExists && allowed[i] != null) {
+                    trigramExists = false;
+                    for (int entry = compactTrigramScores.rowStart(pair); entry < compactTrigramScores.rowEnd(pair) && !trigramExists; entry++) {
+                        trigramExists = !Double.isNaN(compactTrigramScores.entryScore(entry)) && allowed[i][compactTrigramScores.entryTag(entry)];
+                    }
+                }
+                CompactTransitionTable table = trigramExists ? compactTrigramScores : compactBigramScores;
+                int context = trigramExists ? pair : prevTag;
+                if (!table.hasRow(context)) continue;
+
+                for (int entry = table.rowStart(context); entry < table.rowEnd(context); entry++) {
+                    double transScore = table.entryScore(entry);
+                    if (Double.isNaN(transScore)) continue;
+                    int nextTag = table.entryTag(entry);
+                    if (allowed[i] != null && !allowed[i][nextTag]) continue;
+
+                    double weightedTransScore;
+                    if (trigramExists) {
+                        weightedTransScore = (bigramWeight) * compactBigramScores.score(prevTag, nextTag) + (trigramWeight) * transScore;
+                    } else {
+                        weightedTransScore = transScore;
+                    }
+                    double nextScore = liveScores[a] + weightedTransScore + emissions[nextTag];
+
+                    // keeps the best predecessor of each next tag pair
+                    int next = prevTag * width + nextTag;
+                    if (nextScore > nextScores[next]) {
+                        if (nextScores[next] == Double.NEGATIVE_INFINITY) touched[numTouched++] = next;
+                        nextScores[next] = nextScore;
+                        nextBack[next] = a;
+                    }
+                }
+            }
+
+            // no state survives when the constraints rule out every path
+            if (numTouched == 0 && constraints != null)
+                throw new IllegalArgumentException("No tag sequence satisfies the constraints at word " + (i + 1));
+
+            // moves the touched pairs into the live arrays and resets the scratch space
+            int[] states = Arrays.copyOf(touched, numTouched);
+            int[] back = new int[numTouched];
+            double[] scores = new double[numTouched];
+            for (int j = 0; j < numTouched; j++) {
+                back[j] = nextBack[states[j]];
+                scores[j] = nextScores[states[j]];
+                nextScores[states[j]] = Double.NEGATIVE_INFINITY;
+            }
+            liveStates[i + 1] = states;
+            backPointers[i + 1] = back;
+            liveScores = scores;
+        }
+
+        // initializes the last tag pair as the one with the highest score, ties going to the alphabetically first tag pair as in the map decoder
+        int bestIndex = 0;
+        double highestScore = (-1) * Double.MAX_VALUE;
+        for (int a = 0; a < liveScores.length; a++) {
+            if (liveScores[a] > highestScore || (liveScores[a] == highestScore
+                    && comparePairs(tagPair(liveStates[length][a]), tagPair(liveStates[length][bestIndex])) < 0)) {
+                bestIndex = a;
+                highestScore = liveScores[a];
+            }
+        }
+
+        // trace backward in the line with the back pointers, the tag of a position is the second tag of its pair
+        String[] tags = new String[length];
+        for (int i = length; i > 0; i--) {
+            tags[i - 1] = tagVocabulary.string(liveStates[i][bestIndex] % width);
+            bestIndex = backPointers[i][bestIndex];
+        }
+
+        // returns the decoded tags in a list
+        return new ArrayList<>(Arrays.asList(tags));
+    }
+
+    /**
+     * orders tag pairs alphabetically, first by their first tag, which makes the choice between equally scored final pairs deterministic
+     *
+     * @return int negative, zero or positive as the first pair comes before, with or after the second
+     */
+    private static int comparePairs(List<String> pair, List<String> otherPair) {
+        int first = pair.get(0).compareTo(otherPair.get(0));
+        return first != 0 ? first : pair.get(1).compareTo(otherPair.get(1));
+    }
+
+    /**
+     * builds a SmoothedTransitionTable from the transition counts and switches decoding to it
+     * the deleted interpolation weights are kept for the trigram and bigram estimates and scaled to leave unigramWeight to the add-k unigram
+     * must be called after compactTables, whose tag ids the table shares
+     *
+     * @param unigramWeight the weight of the add-k unigram
+     * @param addK          the count added to every tag in the unigram
+     */
+    public void smoothTransitions(double unigramWeight, double addK) {
+        if (tagVocabulary == null) throw new IllegalStateException("Smoothing needs the tag ids of compactTables");
+        specializedDecoder = null;
+        smoothedTransitions = SmoothedTransitionTable.trigram(tagVocabulary,
+                bigramTransCounts != null ? context -> bigramTransCounts.get(tagName(context)) : SmoothedTransitionTable.rows(compactBigramCounts, tagVocabulary),
+                trigramTransCounts != null ? context -> trigramTransCounts.get(tagPair(context)) : SmoothedTransitionTable.rows(compactTrigramCounts, tagVocabulary),
+                bigramWeight, trigramWeight, unigramWeight, addK);
+    }
+
+    /**
+     * generates a decoder specialized to the smoothed table (see DecoderSpecializer) and decodes single sentences with it
+     * must be called again after smoothTransitions
+     */
+    public void specializeDecoder() {
+        if (smoothedTransitions == null) throw new IllegalStateException("Specializing needs the table of smoothTransitions");
+        specializedDecoder = DecoderSpecializer.specialize(smoothedTransitions);
+    }
+
+    /**
+     * viterbi decoding over the dense smoothed table
+     *
+     * @param line        the string to be decoded to get the tags
+     * @param constraints the allowed tags of each word, null entries or a null list leave words free
+     * @return List<String> the list of decoded tags
+     */
+    private List<String> smoothedViterbiDecoding(String line, List<Set<String>> constraints) {
+        double[][] emissions = smoothedEmissions(line, constraints);
+        // a single long sentence is decoded on all cores, when there is more than one
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        int[] tagIds = emissions.length >= parallelDecodeThreshold && parallelism > 1
+                ? smoothedTransitions.decodeParallel(emissions, parallelism)
+                : specializedDecoder != null ? specializedDecoder.decode(emissions) : smoothedTransitions.decode(emissions);
+        if (tagIds == null) throw new IllegalArgumentException("No tag sequence satisfies the constraints");
+        return smoothedTags(tagIds);
+    }
+
+    /**
+     * viterbi decoding of a batch of lines
+     * with a dense smoothed table, the lines are bucketed by length and decoded batchLanes at a time
+     * (see SmoothedTransitionTable.decodeBatch), otherwise each line is decoded on its own
+     *
+     * @param lines the strings to be decoded
+     * @return List<List<String>> the decoded tags of each line, in the same order
+     */
+    public List<List<String>> viterbiDecodingBatch(List<String> lines) {
+        if (smoothedTransitions == null) return Tagger.super.viterbiDecodingBatch(lines);
+        double[][][] emissions = new double[lines.size()][][];
+        for (int i = 0; i < emissions.length; i++) emissions[i] = smoothedEmissions(lines.get(i), null);
+        int[][] tagIds = smoothedTransitions.decodeBuckets(emissions, batchLanes);
+        List<List<String>> results = new ArrayList<>(lines.size());
+        for (int[] sentenceTagIds : tagIds) results.add(smoothedTags(sentenceTagIds));
+        return results;
+    }
+
+    /**
+     * resolves the observation scores of every word of a line by the tag ids of the smoothed table,
+     * the same way as in the other decoders, with constraints ruling tags out with a score of negative infinity
+     *
+     * @param line        the string to be decoded
+     * @param constraints the allowed tags of each word, null entries or a null list leave words free
+     * @return double[][] the log observation score of each tag at each word
+     */
+    private double[][] smoothedEmissions(String line, List<Set<String>> constraints) {
+        SmoothedTransitionTable table = smoothedTransitions;
+
+        // splits into words, lowercased unless the case is kept
+        String[] wordsList = wordIdCache == null ? line.toLowerCase().split(" ") : line.split(" ");
+        boolean[] capitalizedUnknown = capitalizedUnknown(wordsList);
+        int properNoun = table.tags.id(properNounTag);
+        if (constraints != null && constraints.size() != wordsList.length)
+            throw new IllegalArgumentException("Expected " + wordsList.length + " constraints but got " + constraints.size());
+
+        // uses the unknown word score in place of missing scores
+        double[][] emissions = emissions().scoreSentence(wordsList, table.tags);
+        for (int i = 0; i < wordsList.length; i++) {
+            Set<String> allowed = constraints == null ? null : constraints.get(i);
+            for (int tag = 0; tag < table.numTags; tag++) {
+                if (Double.isNaN(emissions[i][tag])) {
+                    emissions[i][tag] = unknownScoreLog;
+                    // capitalization inside a sentence marks a proper noun
+                    if (capitalizedUnknown != null && capitalizedUnknown[i] && tag == properNoun) emissions[i][tag] += capitalizedUnknownBonusLog;
+                }
+                if (allowed != null && !allowed.contains(table.tags.string(tag))) emissions[i][tag] = Double.NEGATIVE_INFINITY;
+            }
+        }
+        return emissions;
+    }
+
+    /**
+     * @param tagIds tag ids of the smoothed table
+     * @return List<String> the tag names
+     */
+    private List<String> smoothedTags(int[] tagIds) {
+        List<String> tags = new ArrayList<>(tagIds.length);
+        for (int tagId : tagIds) tags.add(smoothedTransitions.tags.string(tagId));
+        return tags;
+    }
+
+    /**
+     * on the case-preserving path, replaces each token by its lowercased dictionary word (null if unknown)
+     * and marks the unknown tokens that are capitalized inside the sentence
+     *
+     * @param tokens the tokens of a line, replaced in place
+     * @return boolean[] the capitalized unknown tokens, or null when decoding does not keep the case
+     */
+    private boolean[] capitalizedUnknown(String[] tokens) {
+        if (wordIdCache == null) return null;
+        boolean[] capitalized = new boolean[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            String word = wordIdCache.word(tokens[i]);
+            capitalized[i] = word == null && WordIdCache.isCapitalized(tokens[i], i);
+            // an external emission model may know words the training did not
+            tokens[i] = word == null && emissionModel != null ? tokens[i].toLowerCase() : word;
+        }
+        return capitalized;
+    }
+
+    /**
+     * @return EmissionModel the trained observation scores as an EmissionModel, e.g. as the fallback of a ChainedEmissionModel
+     */
+    public EmissionModel trainedEmissionModel() {
+        return new TrainedEmissionModel(obsScores);
+    }
+
+    /**
+     * @return EmissionModel the model decoding reads observation scores from
+     */
+    private EmissionModel emissions() {
+        return emissionModel != null ? emissionModel : trainedEmissionModel();
+    }
+
+    /**
+     * @return Vocabulary the tag ids of the emission arrays of the map decoder, rebuilt when the tags change
+     * the tags are compared by name, since the scores may be replaced or retrained with other tags of the same count
+     */
+    private Vocabulary emissionTags() {
+        Vocabulary current = emissionTags;
+        if (current == null || !current.hasSameStrings(obsScores.keySet())) {
+            current = new Vocabulary();
+            for (String tag : obsScores.keySet()) current.add(tag);
+            emissionTags = current;
+        }
+        return current;
+    }
+
+    /**
+     * switches decoding to the case-preserving path, which resolves tokens through a shared WordIdCache
+     * and favors the proper noun tag for capitalized unknown words that do not start the sentence
+     * must be called again after the model changes
+     *
+     * @param capacity the most distinct tokens the cache keeps
+     */
+    public void useWordIdCache(int capacity) {
+        Set<String> modelWords = new HashSet<>();
+        for (HashMap<String, Double> obsRow : obsScores.values()) modelWords.addAll(obsRow.keySet());
+        wordIdCache = new WordIdCache(modelWords, capacity);
+    }
+
+    /**
+     * @param word a word of a sentence to decode
+     * @return int the number of tags the word was seen with, or the number of tags if it was never seen
+     */
+    public int candidateTagCount(String word) {
+        String lowerWord = word.toLowerCase();
+        int count = 0;
+        for (HashMap<String, Double> obsRow : obsScores.values()) if (obsRow.containsKey(lowerWord)) count++;
+        return count == 0 ? obsScores.size() : count;
+    }
+
     /**
      * calculates weights for trigram and bigram scores based on maximum likelihood
      * see extra credit write-up for explanation
      *
      */
     public void calculateInterpolationWeights() {
+
+        // uses the compact counts once the count maps have been dropped
+        if (trigramTransCounts == null && compactTrigramCounts != null) {
+            compactInterpolationWeights();
+            return;
+        }
+
         // initialize weights
         double bigramW = 0.0;
         double trigramW = 0.0;
@@ -609,28 +1568,54 @@ public class ViterbiTaggerEC {
     }
 
     /**
-     * console based tagging
+     * calculateInterpolationWeights over the compact count tables
+     * a missing count counts as a failed lookup, exactly like the NullPointerException cases of the map version
      */
-    public void consoleBasedTagger() {
-        Scanner in = new Scanner(System.in);
+    private void compactInterpolationWeights() {
+        // initialize weights
+        double bigramW = 0.0;
+        double trigramW = 0.0;
+
+        int width = tagVocabulary.size() + 1;
+        int start = tagVocabulary.size();
+
+        // leave-one-out cross validation
+        for (int pair = 0; pair < compactTrigramCounts.numContexts; pair++) {
+            if (!compactTrigramCounts.hasRow(pair)) continue;
+            int first = pair / width;
+            int second = pair % width;
+
+            // the bigram count of the pair and the total count of its first tag
+            double pairCount = Double.NaN;
+            double currSumBigram = 0;
+            if (compactBigramCounts.hasRow(first)) {
+                if (second != start) pairCount = compactBigramCounts.score(first, second);
+                for (int entry = compactBigramCounts.rowStart(first); entry < compactBigramCounts.rowEnd(first); entry++) {
+                    double count = compactBigramCounts.entryScore(entry);
+                    if (!Double.isNaN(count)) currSumBigram += count;
+                }
+            }
 
-        // takes inputs from user until the user quits
-        while (true) {
-            System.out.println("Please enter a sentence to get tags (enter \"q\" to quit game)");
-            System.out.print("> ");
-            String line = in.nextLine();
-            // if user inputs "q", the tagger ends
-            if (line.equals("q")) return;
+            for (int entry = compactTrigramCounts.rowStart(pair); entry < compactTrigramCounts.rowEnd(pair); entry++) {
+                double deletedCountTrigram = compactTrigramCounts.entryScore(entry);
+                if (Double.isNaN(deletedCountTrigram)) continue;
 
-            // calls Viterbi decoding on the provided line
-            List<String> tagList = viterbiDecoding(line);
+                double c1 = Double.isNaN(pairCount) ? 0 : (deletedCountTrigram - 1) / (pairCount - 1);
+                double c2 = Double.isNaN(pairCount) ? 0 : (pairCount - 1) / (currSumBigram - 1);
 
-            // outputs the decoded tags
-            String tagLine = "";
-            for (int i = 0; i < tagList.size(); i++) tagLine += tagList.get(i) + " ";
-            tagLine += "\n";
-            System.out.println(tagLine);
+                // update weights based on maximum likelihood
+                if (c1 >= c2) trigramW += deletedCountTrigram;
+                else bigramW += deletedCountTrigram;
+            }
         }
+
+        // normalize weights
+        double totalWeight = trigramW + bigramW;
+        this.bigramWeight = bigramW / totalWeight;
+        this.trigramWeight = trigramW / totalWeight;
+
+        System.out.println("bigram weight: " + bigramWeight);
+        System.out.println("trigram weight: " + trigramWeight);
     }
 
     // 3 tests for the Viterbi Tagger class
@@ -810,6 +1795,8 @@ public class ViterbiTaggerEC {
         System.out.println("\nBeginning test 2...");
         System.out.println("Training with the Brown corpus");
         ViterbiTaggerEC test2 = new ViterbiTaggerEC("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt");
+        // decodes with the compact tables, which tag exactly like the maps
+        test2.compactTables(true);
 
         System.out.println("Testing on Brown test sentences");
         try {
@@ -825,6 +1812,123 @@ public class ViterbiTaggerEC {
         } catch (IOException e) {
             System.err.println("Something went wrong while calculating accuracy");
         }
+
+
+        System.out.println("\nBeginning test 3...");
+        System.out.println("Testing coarse-to-fine decoding on Brown test sentences");
+        for (double threshold : new double[]{1.0, 3.0, 6.0, 10.0}) {
+            test2.coarseToFineThreshold = threshold;
+            try {
+                long start = System.nanoTime();
+                test2.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-EC-coarse-to-fine.txt");
+                System.out.println("threshold " + threshold + ": tagged in " + String.format("%.2f", (System.nanoTime() - start) / 1e9) + " s");
+                test2.calculateAccuracy("texts/brown-test-tags-result-EC-coarse-to-fine.txt", "texts/brown-test-tags.txt");
+            } catch (IOException e) {
+                System.err.println("Something went wrong while testing model");
+            }
+        }
+        test2.coarseToFineThreshold = 0.0;
+
+
+        System.out.println("\nBeginning test 4...");
+        System.out.println("Testing deadline-aware decoding on Brown test sentences");
+        try {
+            // warms up the decoder so the budgets are not spent on compilation
+            BufferedReader warmUpInput = new BufferedReader(new FileReader("texts/brown-test-sentences.txt"));
+            String warmUpLine;
+            while ((warmUpLine = warmUpInput.readLine()) != null) test2.viterbiDecoding(warmUpLine, 1000000);
+            warmUpInput.close();
+        } catch (IOException e) {
+            System.err.println("Something went wrong while testing model");
+        }
+        for (long budgetMicros : new long[]{1000, 100, 20, 5}) {
+            for (int i = 0; i < test2.tierCounts.length(); i++) test2.tierCounts.set(i, 0);
+            LatencyStats stats = new LatencyStats(1 << 12);
+            try {
+                BufferedReader testInput = new BufferedReader(new FileReader("texts/brown-test-sentences.txt"));
+                BufferedWriter result = new BufferedWriter(new FileWriter("texts/brown-test-tags-result-EC-deadline.txt"));
+                String currentLine;
+                while ((currentLine = testInput.readLine()) != null) {
+                    long start = System.nanoTime();
+                    List<String> tags = test2.viterbiDecoding(currentLine, budgetMicros * 1000).tags;
+                    stats.record(System.nanoTime() - start, 1);
+                    result.write(String.join(" ", tags) + " \n");
+                }
+                testInput.close();
+                result.close();
+                System.out.println("budget " + budgetMicros + " us: " + stats.summary() + ", tiers " + test2.tierCounts);
+                test2.calculateAccuracy("texts/brown-test-tags-result-EC-deadline.txt", "texts/brown-test-tags.txt");
+            } catch (IOException e) {
+                System.err.println("Something went wrong while testing model");
+            }
+        }
+
+
+        System.out.println("\nBeginning test 5...");
+        System.out.println("Testing the dense smoothed transition table on Brown test sentences");
+        try {
+            // the compact decoder, timed after test 2 warmed it up
+            long start = System.nanoTime();
+            test2.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-EC-compact.txt");
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println("compact tables: tagged in " + String.format("%.2f", seconds) + " s");
+            test2.calculateAccuracy("texts/brown-test-tags-result-EC-compact.txt", "texts/brown-test-tags.txt");
+
+            for (double unigramWeight : new double[]{0.001, 0.01, 0.1}) {
+                test2.smoothTransitions(unigramWeight, 1.0);
+                test2.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-EC-smoothed.txt");
+                start = System.nanoTime();
+                test2.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-EC-smoothed.txt");
+                seconds = (System.nanoTime() - start) / 1e9;
+                System.out.println("smoothed, unigram weight " + unigramWeight + ": tagged in " + String.format("%.2f", seconds) + " s");
+                test2.calculateAccuracy("texts/brown-test-tags-result-EC-smoothed.txt", "texts/brown-test-tags.txt");
+            }
+
+            // testingModel decodes through viterbiDecodingBatch, so the lanes set how many sentences share each lattice step
+            test2.smoothTransitions(0.001, 1.0);
+            for (int lanes : new int[]{1, 8, 32}) {
+                test2.batchLanes = lanes;
+                start = System.nanoTime();
+                test2.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-EC-smoothed.txt");
+                System.out.println("smoothed, " + lanes + " lanes: tagged in " + String.format("%.2f", (System.nanoTime() - start) / 1e9) + " s");
+            }
+            test2.calculateAccuracy("texts/brown-test-tags-result-EC-smoothed.txt", "texts/brown-test-tags.txt");
+            test2.batchLanes = 32;
+            test2.smoothedTransitions = null;
+        } catch (IOException e) {
+            System.err.println("Something went wrong while testing model");
+        }
+
+        System.out.println("\nBeginning test 6...");
+        System.out.println("Testing intra-sentence parallel decoding on one long input");
+        try {
+            // joins the first test sentences into one line of a few thousand words
+            StringBuilder longLine = new StringBuilder();
+            BufferedReader testInput = new BufferedReader(new FileReader("texts/brown-test-sentences.txt"));
+            String currentLine;
+            for (int i = 0; i < 200 && (currentLine = testInput.readLine()) != null; i++) longLine.append(currentLine).append(' ');
+            testInput.close();
+            test2.smoothTransitions(0.001, 1.0);
+            double[][] emissions = test2.smoothedEmissions(longLine.toString().trim(), null);
+            System.out.println(emissions.length + " words, common pool parallelism " + ForkJoinPool.getCommonPoolParallelism());
+
+            int[] sequential = null;
+            int[] parallel = null;
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                sequential = test2.smoothedTransitions.decode(emissions);
+                double sequentialMillis = (System.nanoTime() - start) / 1e6;
+                start = System.nanoTime();
+                parallel = test2.smoothedTransitions.decodeParallel(emissions, Math.max(2, ForkJoinPool.getCommonPoolParallelism()));
+                double parallelMillis = (System.nanoTime() - start) / 1e6;
+                System.out.println("round " + (round + 1) + ": sequential " + String.format("%.1f", sequentialMillis) + " ms, parallel "
+                        + String.format("%.1f", parallelMillis) + " ms");
+            }
+            System.out.println("same tags: " + Arrays.equals(sequential, parallel));
+            test2.smoothedTransitions = null;
+        } catch (IOException e) {
+            System.err.println("Something went wrong while testing model");
+        }
 //
 //        // console based tagging that takes user input
 //        System.out.println("\nBeginning console-based tagging...");
@@ -0,0 +1,306 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * reader for the binary corpus files written by CorpusPacker
+ * the id columns are memory-mapped in windows (or inflated once into direct buffers for deflated files)
+ * and read as ints, so iterating over the corpus creates no strings
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class PackedCorpus {
+
+    public final Vocabulary tags;           // the tag dictionary from the header
+    public final Vocabulary words;          // the word dictionary from the header
+    private final int numSentences;
+    private final int numTokens;
+    private final ByteBuffer[] body;        // the body in windows of WINDOW_BYTES: sentence offsets, word ids, tag ids
+    private final long wordIdsStart;        // the byte offset of the word ids in the body
+    private final long tagIdsStart;         // the byte offset of the tag ids in the body
+
+    static final int WINDOW_SHIFT = 30;                 // the body is mapped in windows of 1 GB, so it may exceed 2 GB
+    static final long WINDOW_BYTES = 1L << WINDOW_SHIFT;
+
+    /**
+     * opens a packed corpus file
+     *
+     * @param packedFileName name of the file written by CorpusPacker
+     */
+    public PackedCorpus(String packedFileName) throws IOException {
+
+        FileChannel channel = FileChannel.open(Paths.get(packedFileName), StandardOpenOption.READ);
+
+        // reads the fixed part of the header
+        ByteBuffer prefix = ByteBuffer.allocate(16);
+        while (prefix.hasRemaining() && channel.read(prefix) >= 0) ;
+        prefix.flip();
+        if (prefix.remaining() < 16 || prefix.getInt() != CorpusPacker.MAGIC)
+            throw new IOException(packedFileName + " is not a packed corpus");
+        int version = prefix.getInt();
+        if (version != CorpusPacker.VERSION)
+            throw new IOException("Unsupported packed corpus version " + version);
+        int flags = prefix.getInt();
+        int headerLength = prefix.getInt();
+
+        // reads the dictionaries and counts
+        ByteBuffer headerBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 16, headerLength);
+        DataInputStream header = new DataInputStream(new ByteBufferInputStream(headerBuffer));
+        tags = new Vocabulary();
+        int numTags = header.readInt();
+        for (int i = 0; i < numTags; i++) tags.add(header.readUTF());
+        words = new Vocabulary();
+        int numWords = header.readInt();
+        for (int i = 0; i < numWords; i++) words.add(header.readUTF());
+        numSentences = header.readInt();
+        numTokens = header.readInt();
+
+        // maps the body window by window, or inflates it if it was compressed
+        long bodyPosition = 16L + headerLength;
+        long bodyLength = 4L * (numSentences + 1) + 8L * numTokens;
+        body = new ByteBuffer[(int) ((bodyLength + WINDOW_BYTES - 1) >>> WINDOW_SHIFT)];
+        if ((flags & CorpusPacker.FLAG_DEFLATE) != 0) {
+            channel.position(bodyPosition);
+            inflate(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16)), body, bodyLength);
+        } else {
+            for (int w = 0; w < body.length; w++) {
+                long windowStart = (long) w << WINDOW_SHIFT;
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, bodyPosition + windowStart, Math.min(WINDOW_BYTES, bodyLength - windowStart));
+                mapped.load();
+                body[w] = mapped;
+            }
+        }
+        channel.close();
+
+        // the three columns follow each other in the body
+        wordIdsStart = 4L * (numSentences + 1);
+        tagIdsStart = wordIdsStart + 4L * numTokens;
+    }
+
+    /**
+     * inflates the deflated frames of the body into direct buffers of WINDOW_BYTES
+     * frames are at most FRAME_SIZE and windows are a multiple of it, so no frame spans two windows
+     */
+    private static void inflate(DataInputStream frames, ByteBuffer[] body, long length) throws IOException {
+
+        Inflater inflater = new Inflater();
+        byte[] compressed = new byte[CorpusPacker.FRAME_SIZE];
+        byte[] frame = new byte[CorpusPacker.FRAME_SIZE];
+
+        // inflates each [uncompressed length, compressed length, bytes] frame in turn
+        try {
+            long remaining = length;
+            for (int w = 0; w < body.length; w++) {
+                ByteBuffer window = ByteBuffer.allocateDirect((int) Math.min(WINDOW_BYTES, remaining));
+                while (window.hasRemaining()) {
+                    int frameLength = frames.readInt();
+                    int compressedLength = frames.readInt();
+                    if (frameLength > window.remaining()) throw new IOException("Corrupt frame in packed corpus");
+                    if (compressed.length < compressedLength) compressed = new byte[compressedLength];
+                    frames.readFully(compressed, 0, compressedLength);
+                    inflater.reset();
+                    inflater.setInput(compressed, 0, compressedLength);
+                    int inflated = 0;
+                    while (inflated < frameLength) {
+                        int n = inflater.inflate(frame, inflated, frameLength - inflated);
+                        if (n == 0 && (inflater.finished() || inflater.needsInput())) break;
+                        inflated += n;
+                    }
+                    if (inflated != frameLength) throw new IOException("Corrupt frame in packed corpus");
+                    window.put(frame, 0, frameLength);
+                }
+                window.flip();
+                body[w] = window;
+                remaining -= window.limit();
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt frame in packed corpus", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return int the int at a byte offset of the body, which is a multiple of 4 so it never spans two windows
+     */
+    private int bodyInt(long offset) {
+        return body[(int) (offset >>> WINDOW_SHIFT)].getInt((int) (offset & (WINDOW_BYTES - 1)));
+    }
+
+    /**
+     * @return int the number of sentences in the corpus
+     */
+    public int numSentences() {
+        return numSentences;
+    }
+
+    /**
+     * @return int the number of tokens in the corpus
+     */
+    public int numTokens() {
+        return numTokens;
+    }
+
+    /**
+     * @param sentence the index of the sentence
+     * @return int the position of the first token of the sentence
+     */
+    public int sentenceStart(int sentence) {
+        return bodyInt(4L * sentence);
+    }
+
+    /**
+     * @param sentence the index of the sentence
+     * @return int the number of tokens in the sentence
+     */
+    public int sentenceLength(int sentence) {
+        return bodyInt(4L * (sentence + 1)) - bodyInt(4L * sentence);
+    }
+
+    /**
+     * @param position the position of the token in the corpus
+     * @return int the word id of the token
+     */
+    public int wordId(int position) {
+        return bodyInt(wordIdsStart + 4L * position);
+    }
+
+    /**
+     * @param position the position of the token in the corpus
+     * @return int the tag id of the token
+     */
+    public int tagId(int position) {
+        return bodyInt(tagIdsStart + 4L * position);
+    }
+
+    /**
+     * counts the words of each tag
+     * the distinct (tag, word) pairs are counted in an open-addressing table of packed longs,
+     * so memory grows with the pairs that occur and not with the number of tags times the vocabulary
+     *
+     * @return HashMap<String, HashMap<String, Double>> the observation counts of each tag
+     */
+    public HashMap<String, HashMap<String, Double>> obsCounts() {
+
+        // keys are tag << 32 | word, with -1 for an empty slot; the table stays at most half full
+        long[] keys = new long[1 << 16];
+        int[] counts = new int[keys.length];
+        Arrays.fill(keys, -1L);
+        int numPairs = 0;
+        for (int p = 0; p < numTokens; p++) {
+            long key = (long) tagId(p) << 32 | wordId(p);
+            int mask = keys.length - 1;
+            int slot = (int) mix(key) & mask;
+            while (keys[slot] != -1L && keys[slot] != key) slot = (slot + 1) & mask;
+            if (keys[slot] == -1L) {
+                keys[slot] = key;
+                if (++numPairs * 2 > keys.length) {
+                    counts[slot] = 1;
+                    long[] oldKeys = keys;
+                    int[] oldCounts = counts;
+                    keys = new long[oldKeys.length * 2];
+                    counts = new int[keys.length];
+                    Arrays.fill(keys, -1L);
+                    mask = keys.length - 1;
+                    for (int i = 0; i < oldKeys.length; i++) {
+                        if (oldKeys[i] == -1L) continue;
+                        int newSlot = (int) mix(oldKeys[i]) & mask;
+                        while (keys[newSlot] != -1L) newSlot = (newSlot + 1) & mask;
+                        keys[newSlot] = oldKeys[i];
+                        counts[newSlot] = oldCounts[i];
+                    }
+                    continue;
+                }
+            }
+            counts[slot]++;
+        }
+
+        // copies the counts into the string-keyed maps
+        HashMap<String, HashMap<String, Double>> obsCounts = new HashMap<>();
+        for (int tag = 0; tag < tags.size(); tag++) obsCounts.put(tags.string(tag), new HashMap<>());
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == -1L) continue;
+            obsCounts.get(tags.string((int) (keys[i] >>> 32))).put(words.string((int) keys[i]), (double) counts[i]);
+        }
+        return obsCounts;
+    }
+
+    /**
+     * spreads the bits of a packed (tag, word) key over the low bits used as the slot
+     */
+    private static long mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return key ^ (key >>> 32);
+    }
+
+    /**
+     * input stream over the remaining bytes of a buffer
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) return -1;
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+    }
+
+    /**
+     * compares training from the text files with training from the packed corpus, raw and deflated
+     */
+    public static void main(String[] args) {
+
+        try {
+            System.out.println("Packing the Brown training corpus...");
+            CorpusPacker.pack("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt", "texts/brown-train.posc", false);
+            CorpusPacker.pack("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt", "texts/brown-train-deflated.posc", true);
+
+            long start = System.nanoTime();
+            PosTagger textTagger = new PosTagger("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt");
+            System.out.println("Trained from text in " + (System.nanoTime() - start) / 1000000 + " ms");
+            ViterbiTaggerEC textTrigramTagger = new ViterbiTaggerEC("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt");
+
+            for (String packedFileName : new String[]{"texts/brown-train.posc", "texts/brown-train-deflated.posc"}) {
+                start = System.nanoTime();
+                PackedCorpus corpus = new PackedCorpus(packedFileName);
+                PosTagger packedTagger = new PosTagger();
+                packedTagger.trainingModel(corpus);
+                System.out.println("Trained from " + packedFileName + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+                ViterbiTaggerEC packedTrigramTagger = new ViterbiTaggerEC(corpus);
+
+                // both trainings must give the same score tables
+                System.out.println("Bigram score tables identical: " + (textTagger.transScores.equals(packedTagger.transScores)
+                        && textTagger.obsScores.equals(packedTagger.obsScores)));
+                System.out.println("Trigram score tables identical: " + (textTrigramTagger.bigramTransScores.equals(packedTrigramTagger.bigramTransScores)
+                        && textTrigramTagger.trigramTransScores.equals(packedTrigramTagger.trigramTransScores)
+                        && textTrigramTagger.obsScores.equals(packedTrigramTagger.obsScores)
+                        && textTrigramTagger.bigramWeight == packedTrigramTagger.bigramWeight
+                        && textTrigramTagger.trigramWeight == packedTrigramTagger.trigramWeight));
+            }
+        } catch (IOException e) {
+            System.err.println("Something went wrong while comparing packed training: " + e.getMessage());
+        }
+    }
+}
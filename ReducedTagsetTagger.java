@@ -0,0 +1,102 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * tags over a coarse tagset
+ * the trigram tagger is trained on the coarse classes of a TagMapping, so its state space is the square of the
+ * coarse tags instead of the fine ones, and it returns the coarse classes
+ * there is no refinement back to the fine tags: the coarse model is less accurate on the classes than the fine models,
+ * so a fine tagger constrained to its classes does worse than the fine tagger alone
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class ReducedTagsetTagger implements Tagger {
+
+    public final TagMapping mapping;
+    public final ViterbiTaggerEC coarseTagger;  // trigram tagger over the coarse classes
+
+    /**
+     * instantiate the tagger with files to train the model
+     *
+     * @param trainSentencesFileName name of file with sentences for training
+     * @param trainTagsFileName      name of the file with corresponding fine tags
+     * @param mapping                the mapping of the fine tags onto the coarse classes
+     */
+    public ReducedTagsetTagger(String trainSentencesFileName, String trainTagsFileName, TagMapping mapping) throws IOException {
+        this.mapping = mapping;
+        // the coarse training tags only exist while the coarse tagger reads them
+        File coarseTags = File.createTempFile("coarse-train-tags", ".txt");
+        try {
+            mapping.mapTagFile(trainTagsFileName, coarseTags.getPath());
+            coarseTagger = new ViterbiTaggerEC(trainSentencesFileName, coarseTags.getPath());
+        } finally {
+            coarseTags.delete();
+        }
+    }
+
+    /**
+     * viterbi decoding over the coarse tags
+     *
+     * @param line the string to be decoded to get the tags
+     * @return List<String> the list of decoded coarse tags
+     */
+    public List<String> viterbiDecoding(String line) {
+        return coarseTagger.viterbiDecoding(line);
+    }
+
+    /**
+     * viterbi decoding of a batch of lines, decoding them together
+     *
+     * @param lines the strings to be decoded
+     * @return List<List<String>> the decoded coarse tags of each line, in the same order
+     */
+    public List<List<String>> viterbiDecodingBatch(List<String> lines) {
+        return coarseTagger.viterbiDecodingBatch(lines);
+    }
+
+    public int candidateTagCount(String word) {
+        return coarseTagger.candidateTagCount(word);
+    }
+
+    // compares decoding over the Brown tags with decoding over the universal tags, both scored on the universal tags
+    public static void main(String[] args) {
+
+        try {
+            TagMapping mapping = TagMapping.brownToUniversal();
+            mapping.mapTagFile("texts/brown-test-tags.txt", "texts/brown-test-tags-universal.txt");
+
+            System.out.println("Training with the Brown corpus over the Brown tags");
+            ViterbiTaggerEC fine = new ViterbiTaggerEC("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt");
+            fine.compactTables(true);
+            fine.smoothTransitions(0.001, 1.0);
+
+            System.out.println("Training with the Brown corpus over the universal tags");
+            ReducedTagsetTagger reduced = new ReducedTagsetTagger("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt", mapping);
+            reduced.coarseTagger.compactTables(true);
+            reduced.coarseTagger.smoothTransitions(0.001, 1.0);
+            System.out.println(mapping.coarseTagSet().size() + " coarse tags for " + fine.smoothedTransitions.numTags + " fine tags");
+
+            // warms the decoders up before timing them
+            fine.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-fine.txt");
+            reduced.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-universal.txt");
+
+            long start = System.nanoTime();
+            fine.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-fine.txt");
+            double fineSeconds = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            reduced.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-universal.txt");
+            double coarseSeconds = (System.nanoTime() - start) / 1e9;
+
+            // the fine decoder scored on the fine tags and on their classes, for a fair comparison with the coarse decoder
+            System.out.println("Brown tags, " + String.format("%.2f", fineSeconds) + " s:");
+            fine.calculateAccuracy("texts/brown-test-tags-result-fine.txt", "texts/brown-test-tags.txt");
+            mapping.mapTagFile("texts/brown-test-tags-result-fine.txt", "texts/brown-test-tags-result-fine-universal.txt");
+            fine.calculateAccuracy("texts/brown-test-tags-result-fine-universal.txt", "texts/brown-test-tags-universal.txt");
+            System.out.println("Universal tags, " + String.format("%.2f", coarseSeconds) + " s:");
+            reduced.calculateAccuracy("texts/brown-test-tags-result-universal.txt", "texts/brown-test-tags-universal.txt");
+        } catch (IOException e) {
+            System.err.println("Something went wrong while testing model: " + e.getMessage());
+        }
+    }
+}
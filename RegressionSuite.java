@@ -0,0 +1,504 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * checks that every decoding engine still writes its golden tags, and still runs as fast as it did
+ * each engine is trained on a data set, tags its test sentences with testingModel, and its result is compared line by
+ * line with the golden file of its family: the exact re-implementations of the reference decoders
+ * (PosTagger.viterbiDecoding, ViterbiTaggerEC.viterbiDecoding) with texts/<set>-test-tags-golden-bigram.txt and
+ * texts/<set>-test-tags-golden-trigram.txt, the engines over the smoothed tables with the goldens of the single-sentence
+ * smoothed decoders, and every other engine with a golden of its own
+ * the goldens are only written by --update, never by the demos, which write the -result files
+ *
+ * throughput is the best tokens per second of a few timed rounds after a warm-up, and each round of an engine is
+ * interleaved with a round of the reference engine; the engine's relative throughput, its best tokens per second over the
+ * reference's best, cancels most of the machine's speed and load, so it is what the baseline report holds and what is gated
+ * both go to a tab-separated report; the ratios of a run to the baseline still share the luck of the reference engine's
+ * compilation, so they are divided by their median, the drift of the run, and an engine whose relative throughput fell
+ * below its baseline times the drift by more than maxSlowdown on a test set of at least minGatedTokens tokens fails the
+ * run like a changed output does
+ *
+ * ties between equally scored paths go to the first tag (pair) in alphabetical order at the end of the sentence,
+ * and to the first predecessor in the decoder's state order inside the lattice (the lowest tag id for the dense decoders),
+ * so a run is reproducible and the engines of a family agree
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class RegressionSuite {
+
+    public static final String[] REPORT_COLUMNS = {"engine", "set", "sentences", "tokens", "mismatches", "seconds", "tokensPerSecond", "relativeThroughput", "status"};
+
+    public double maxSlowdown = 0.25;           // the share of its baseline relative throughput an engine may lose, beyond the drift of the run
+    public String referenceEngine = "bigram-maps";  // the engine timed next to every other one, whose throughput the others are divided by
+    public int rounds = 5;                      // timed rounds per engine, the best one counts
+    public long warmupNanos = 2_000_000_000L;   // untimed passes run until the engine has tagged the test set this long
+    public int minGatedTokens = 10_000;         // smaller test sets are timed but never fail on throughput, a pass over them mostly measures file I/O
+    public long minRoundNanos = 200_000_000L;   // a round repeats the test set until it has run this long
+    public long maxTimingNanos = 20_000_000_000L;   // no more rounds start once an engine has been timed this long
+    public final List<Engine> engines = new ArrayList<>();
+
+    private static final long GENEROUS_BUDGET_NANOS = 10_000_000_000L;    // a deadline no sentence comes near, so decoding stays exact
+
+    /**
+     * trains a tagger on a data set
+     */
+    public interface Builder {
+        /**
+         * @param set the data set, e.g. "brown" for texts/brown-train-sentences.txt
+         * @return Tagger the trained tagger
+         */
+        Tagger build(String set) throws IOException;
+    }
+
+    /**
+     * a decoding engine and the golden file it must reproduce
+     */
+    public static class Engine {
+        public final String name;
+        public final String golden;     // the golden file is texts/<set>-test-tags-<golden>.txt
+        public final Builder builder;
+
+        public Engine(String name, String golden, Builder builder) {
+            this.name = name;
+            this.golden = golden;
+            this.builder = builder;
+        }
+    }
+
+    /**
+     * adds an engine, the first engine of a golden is the one that writes it in update mode
+     *
+     * @param name    the name of the engine in the report
+     * @param golden  the golden file of its family, see Engine.golden
+     * @param builder trains it on a data set
+     */
+    public void addEngine(String name, String golden, Builder builder) {
+        engines.add(new Engine(name, golden, builder));
+    }
+
+    /**
+     * @return RegressionSuite the suite over all engines of the project
+     */
+    public static RegressionSuite allEngines() {
+        RegressionSuite suite = new RegressionSuite();
+
+        // the reference bigram decoder and its re-implementations
+        suite.addEngine("bigram-maps", "golden-bigram", set -> new PosTagger(trainSentences(set), trainTags(set)));
+        suite.addEngine("bigram-lazy", "golden-bigram", set -> {
+            PosTagger tagger = new PosTagger();
+            tagger.trainingModel(trainSentences(set), trainTags(set), true);
+            return tagger;
+        });
+        suite.addEngine("bigram-packed", "golden-bigram", set -> {
+            PosTagger tagger = new PosTagger();
+            tagger.trainingModel(packedCorpus(set));
+            return tagger;
+        });
+        suite.addEngine("bigram-sharded", "golden-bigram", set -> ShardedTrainer.bigramTagger(shardedCounts(set)));
+        suite.addEngine("bigram-cased", "golden-bigram", set -> {
+            PosTagger tagger = new PosTagger(trainSentences(set), trainTags(set));
+            tagger.useWordIdCache(1 << 16);
+            return tagger;
+        });
+        suite.addEngine("bigram-constrained", "golden-bigram", set -> {
+            PosTagger tagger = new PosTagger(trainSentences(set), trainTags(set));
+            return line -> tagger.viterbiDecoding(line, periodConstraints(line));
+        });
+
+        // the reference trigram decoder and its re-implementations
+        suite.addEngine("trigram-maps", "golden-trigram", set -> new ViterbiTaggerEC(trainSentences(set), trainTags(set)));
+        suite.addEngine("trigram-compact", "golden-trigram", set -> {
+            ViterbiTaggerEC tagger = new ViterbiTaggerEC(trainSentences(set), trainTags(set));
+            tagger.compactTables(true);
+            return tagger;
+        });
+        suite.addEngine("trigram-packed", "golden-trigram", set -> {
+            ViterbiTaggerEC tagger = new ViterbiTaggerEC(packedCorpus(set));
+            tagger.compactTables(true);
+            return tagger;
+        });
+        suite.addEngine("trigram-scheduler", "golden-trigram", set -> {
+            ViterbiTaggerEC tagger = new ViterbiTaggerEC(trainSentences(set), trainTags(set));
+            tagger.compactTables(true);
+            DecodeScheduler scheduler = new DecodeScheduler(tagger, 2);
+            return new Tagger() {
+                public List<String> viterbiDecoding(String line) {
+                    return tagger.viterbiDecoding(line);
+                }
+
+                public List<List<String>> viterbiDecodingBatch(List<String> lines) {
+                    return scheduler.viterbiDecodingBatch(lines);
+                }
+            };
+        });
+        suite.addEngine("trigram-sharded", "golden-trigram", set -> {
+            ViterbiTaggerEC tagger = ShardedTrainer.trigramTagger(shardedCounts(set));
+            tagger.compactTables(true);
+            return tagger;
+        });
+        suite.addEngine("trigram-cased", "golden-trigram", set -> {
+            ViterbiTaggerEC tagger = new ViterbiTaggerEC(trainSentences(set), trainTags(set));
+            tagger.compactTables(true);
+            tagger.useWordIdCache(1 << 16);
+            return tagger;
+        });
+        suite.addEngine("trigram-deadline", "golden-trigram", set -> {
+            ViterbiTaggerEC tagger = new ViterbiTaggerEC(trainSentences(set), trainTags(set));
+            tagger.compactTables(true);
+            return line -> tagger.viterbiDecoding(line, GENEROUS_BUDGET_NANOS).tags;
+        });
+        suite.addEngine("trigram-lexicon", "golden-trigram", set -> {
+            ViterbiTaggerEC tagger = new ViterbiTaggerEC(trainSentences(set), trainTags(set));
+            tagger.compactTables(true);
+            MappedLexiconEmissionModel.write(tagger.obsScores, "texts/" + set + "-train.lexicon");
+            tagger.emissionModel = new MappedLexiconEmissionModel("texts/" + set + "-train.lexicon");
+            return tagger;
+        });
+
+        // the trigram decoder with constraints, which falls back to the bigram scores where they rule out every trigram
+        suite.addEngine("trigram-constrained", "golden-trigram-constrained", set -> {
+            ViterbiTaggerEC tagger = new ViterbiTaggerEC(trainSentences(set), trainTags(set));
+            tagger.compactTables(true);
+            return line -> tagger.viterbiDecoding(line, periodConstraints(line));
+        });
+
+        // the trigram decoder pruned by a bigram pass first
+        suite.addEngine("trigram-coarse-to-fine", "golden-trigram-coarse-to-fine", set -> {
+            ViterbiTaggerEC tagger = new ViterbiTaggerEC(trainSentences(set), trainTags(set));
+            tagger.compactTables(true);
+            tagger.coarseToFineThreshold = 10.0;
+            return tagger;
+        });
+
+        // the models trained in one pass under a memory budget
+        suite.addEngine("bigram-streaming", "golden-bigram-streaming", set -> streamingTrainer(set).bigramTagger());
+        suite.addEngine("trigram-streaming", "golden-trigram-streaming", set -> {
+            ViterbiTaggerEC tagger = streamingTrainer(set).trigramTagger();
+            tagger.compactTables(true);
+            return tagger;
+        });
+
+        // the dense n-gram engine of any order, from the files and from the packed corpus
+        for (int order = 2; order <= 3; order++) {
+            final int n = order;
+            suite.addEngine("ngram-" + n, "golden-ngram-" + n, set -> new NGramTagger(n, trainSentences(set), trainTags(set)));
+            suite.addEngine("ngram-" + n + "-packed", "golden-ngram-" + n, set -> new NGramTagger(n, packedCorpus(set)));
+        }
+
+        // the most frequent tag of each word
+        suite.addEngine("most-frequent", "golden-most-frequent", set -> new MostFrequentTagger(trainSentences(set), trainTags(set)));
+
+        // the trigram decoder over the universal classes
+        suite.addEngine("reduced-coarse", "golden-reduced-coarse",
+                set -> new ReducedTagsetTagger(trainSentences(set), trainTags(set), TagMapping.brownToUniversal()));
+
+        // the smoothed bigram table, one sentence at a time and in batches
+        suite.addEngine("bigram-smoothed", "golden-bigram-smoothed", set -> oneAtATime(smoothedBigram(set)));
+        suite.addEngine("bigram-smoothed-batch", "golden-bigram-smoothed", RegressionSuite::smoothedBigram);
+
+        // the smoothed trigram table, one sentence at a time and with each of its faster decoders
+        suite.addEngine("trigram-smoothed", "golden-trigram-smoothed", set -> oneAtATime(smoothedTrigram(set)));
+        suite.addEngine("trigram-smoothed-batch", "golden-trigram-smoothed", RegressionSuite::smoothedTrigram);
+        suite.addEngine("trigram-smoothed-parallel", "golden-trigram-smoothed", set -> {
+            ViterbiTaggerEC tagger = smoothedTrigram(set);
+            tagger.parallelDecodeThreshold = 1;
+            return oneAtATime(tagger);
+        });
+        suite.addEngine("trigram-specialized", "golden-trigram-smoothed", set -> {
+            ViterbiTaggerEC tagger = smoothedTrigram(set);
+            tagger.specializeDecoder();
+            return oneAtATime(tagger);
+        });
+        suite.addEngine("trigram-pipeline", "golden-trigram-smoothed", set -> {
+            ViterbiTaggerEC tagger = smoothedTrigram(set);
+            return new Tagger() {
+                public List<String> viterbiDecoding(String line) {
+                    return tagger.viterbiDecoding(line);
+                }
+
+                public void testingModel(String testSentencesFileName, String resultFileName) throws IOException {
+                    new TaggingPipeline(tagger, 2).run(testSentencesFileName, resultFileName);
+                }
+            };
+        });
+        return suite;
+    }
+
+    private static String trainSentences(String set) {
+        return "texts/" + set + "-train-sentences.txt";
+    }
+
+    private static String trainTags(String set) {
+        return "texts/" + set + "-train-tags.txt";
+    }
+
+    private static PackedCorpus packedCorpus(String set) throws IOException {
+        CorpusPacker.pack(trainSentences(set), trainTags(set), "texts/" + set + "-train.posc", false);
+        return new PackedCorpus("texts/" + set + "-train.posc");
+    }
+
+    private static String shardedCounts(String set) throws IOException {
+        try {
+            new ShardedTrainer().train(trainSentences(set), trainTags(set), "texts/" + set + "-shards", "texts/" + set + "-train");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while counting the shards of " + set, e);
+        }
+        return "texts/" + set + "-train";
+    }
+
+    private static StreamingTrainer streamingTrainer(String set) throws IOException {
+        StreamingTrainer trainer = new StreamingTrainer();
+        trainer.train(trainSentences(set), trainTags(set));
+        return trainer;
+    }
+
+    /**
+     * @return List<Set<String>> the constraints that fix every "." token to the "." tag and leave the other words free
+     */
+    private static List<Set<String>> periodConstraints(String line) {
+        List<Set<String>> constraints = new ArrayList<>();
+        for (String token : line.split(" ")) constraints.add(token.equals(".") ? Collections.singleton(".") : null);
+        return constraints;
+    }
+
+    private static PosTagger smoothedBigram(String set) throws IOException {
+        PosTagger tagger = new PosTagger();
+        tagger.trainingModel(trainSentences(set), trainTags(set), true);
+        tagger.smoothTransitions(0.01, 1.0);
+        return tagger;
+    }
+
+    private static ViterbiTaggerEC smoothedTrigram(String set) {
+        ViterbiTaggerEC tagger = new ViterbiTaggerEC(trainSentences(set), trainTags(set));
+        tagger.compactTables(true);
+        tagger.smoothTransitions(0.001, 1.0);
+        return tagger;
+    }
+
+    /**
+     * @return Tagger the tagger with its batch decoding replaced by decoding each line on its own
+     */
+    private static Tagger oneAtATime(Tagger tagger) {
+        return tagger::viterbiDecoding;
+    }
+
+    /**
+     * runs every engine on every data set
+     *
+     * @param sets               the data sets, e.g. "simple" and "brown"
+     * @param reportFileName     the report to write
+     * @param baselineFileName   an earlier report to compare throughput with, which must exist, or null to skip the check
+     * @param updateGoldens      whether the first engine of each golden rewrites it before the comparison
+     * @return boolean whether every engine matched its golden and kept its throughput
+     */
+    public boolean run(List<String> sets, String reportFileName, String baselineFileName, boolean updateGoldens) throws IOException {
+
+        Engine reference = null;
+        for (Engine engine : engines) if (engine.name.equals(referenceEngine)) reference = engine;
+        if (reference == null) throw new IllegalStateException("The reference engine " + referenceEngine + " is not in the suite");
+
+        Map<String, Double> baseline = new HashMap<>();
+        if (baselineFileName != null) {
+            if (!new File(baselineFileName).exists())
+                throw new IOException("Missing baseline " + baselineFileName + ", pass --no-baseline to run without the throughput check");
+            baseline = readThroughput(baselineFileName);
+        }
+
+        List<String[]> rows = new ArrayList<>();
+        boolean passed = true;
+        for (String set : sets) {
+            String testSentences = "texts/" + set + "-test-sentences.txt";
+            String resultFileName = "texts/" + set + "-test-tags-result-regression.txt";
+            int[] size = countTokens(testSentences);
+            Set<String> written = new HashSet<>();
+            Tagger referenceTagger = reference.builder.build(set);
+            warmUp(referenceTagger, testSentences, resultFileName, System.nanoTime());
+            List<String[]> setRows = new ArrayList<>();
+            List<Double> setRelativeThroughputs = new ArrayList<>();
+
+            for (Engine engine : engines) {
+                Tagger tagger = engine.builder.build(set);
+                String goldenFileName = "texts/" + set + "-test-tags-" + engine.golden + ".txt";
+
+                // tags once and compares with the golden
+                long warmupStart = System.nanoTime();
+                tagger.testingModel(testSentences, resultFileName);
+                if (updateGoldens && written.add(engine.golden))
+                    Files.copy(Paths.get(resultFileName), Paths.get(goldenFileName), StandardCopyOption.REPLACE_EXISTING);
+                int mismatches = countMismatches(resultFileName, goldenFileName);
+
+                // warms the engine up so the timed rounds measure compiled code, then times whole passes over the test set,
+                // each round right after a round of the reference engine so both see the same load
+                warmUp(tagger, testSentences, resultFileName, warmupStart);
+                double bestSeconds = Double.MAX_VALUE;
+                double bestReferenceSeconds = Double.MAX_VALUE;
+                long timingStart = System.nanoTime();
+                for (int round = 0; round < rounds && (round == 0 || System.nanoTime() - timingStart < maxTimingNanos); round++) {
+                    bestReferenceSeconds = Math.min(bestReferenceSeconds, timeRound(referenceTagger, testSentences, resultFileName));
+                    bestSeconds = Math.min(bestSeconds, timeRound(tagger, testSentences, resultFileName));
+                }
+                double bestTokensPerSecond = size[1] / bestSeconds;
+                double relativeThroughput = bestReferenceSeconds / bestSeconds;
+
+                // the throughput is only gated once the whole set has run, see below
+                String status = "ok";
+                Double baselineRelativeThroughput = baseline.get(engine.name + "\t" + set);
+                if (mismatches > 0) status = "mismatch";
+                else if (baselineRelativeThroughput == null && !baseline.isEmpty()) status = "new";
+
+                String[] row = {engine.name, set, Integer.toString(size[0]), Integer.toString(size[1]), Integer.toString(mismatches),
+                        String.format(Locale.ROOT, "%.4f", bestSeconds), String.format(Locale.ROOT, "%.0f", bestTokensPerSecond),
+                        String.format(Locale.ROOT, "%.4f", relativeThroughput), status};
+                setRows.add(row);
+                setRelativeThroughputs.add(relativeThroughput);
+                System.out.println(String.join("\t", row) + (baselineRelativeThroughput == null ? ""
+                        : "\t(baseline " + String.format(Locale.ROOT, "%.4f", baselineRelativeThroughput) + ")"));
+            }
+
+            // the drift of the run is the median ratio of the engines' relative throughput to their baseline, it takes out
+            // how much better or worse the reference engine happened to be compiled in this JVM, which moves every ratio
+            List<Double> ratios = new ArrayList<>();
+            for (int r = 0; r < setRows.size(); r++) {
+                Double baselineRelativeThroughput = baseline.get(setRows.get(r)[0] + "\t" + set);
+                if (baselineRelativeThroughput != null) ratios.add(setRelativeThroughputs.get(r) / baselineRelativeThroughput);
+            }
+            if (size[1] >= minGatedTokens && !ratios.isEmpty()) {
+                Collections.sort(ratios);
+                double drift = ratios.get(ratios.size() / 2);
+                System.out.println("Drift of the " + set + " throughputs against the baseline: " + String.format(Locale.ROOT, "%.4f", drift));
+                for (int r = 0; r < setRows.size(); r++) {
+                    String[] row = setRows.get(r);
+                    Double baselineRelativeThroughput = baseline.get(row[0] + "\t" + set);
+                    if (baselineRelativeThroughput == null || !row[row.length - 1].equals("ok")
+                            || setRelativeThroughputs.get(r) >= baselineRelativeThroughput * drift * (1 - maxSlowdown)) continue;
+                    row[row.length - 1] = "slower";
+                    System.out.println(String.join("\t", row) + "\t(baseline " + String.format(Locale.ROOT, "%.4f", baselineRelativeThroughput)
+                            + " at drift " + String.format(Locale.ROOT, "%.4f", drift) + ")");
+                }
+            }
+
+            for (String[] row : setRows) passed &= row[row.length - 1].equals("ok") || row[row.length - 1].equals("new");
+            rows.addAll(setRows);
+        }
+
+        // writes the report
+        BufferedWriter report = new BufferedWriter(new FileWriter(reportFileName));
+        report.write(String.join("\t", REPORT_COLUMNS) + "\n");
+        for (String[] row : rows) report.write(String.join("\t", row) + "\n");
+        report.close();
+        return passed;
+    }
+
+    /**
+     * tags the test set until the engine has been tagging for warmupNanos since warmupStart
+     */
+    private void warmUp(Tagger tagger, String testSentences, String resultFileName, long warmupStart) throws IOException {
+        while (System.nanoTime() - warmupStart < warmupNanos) tagger.testingModel(testSentences, resultFileName);
+    }
+
+    /**
+     * @return double the seconds per pass of a round, which repeats the test set until it has run minRoundNanos
+     */
+    private double timeRound(Tagger tagger, String testSentences, String resultFileName) throws IOException {
+        long start = System.nanoTime();
+        long passes = 0;
+        do {
+            tagger.testingModel(testSentences, resultFileName);
+            passes++;
+        } while (System.nanoTime() - start < minRoundNanos);
+        return (System.nanoTime() - start) / 1e9 / passes;
+    }
+
+    /**
+     * @return int[] the number of sentences and of tokens of a sentences file
+     */
+    private static int[] countTokens(String sentencesFileName) throws IOException {
+        BufferedReader input = new BufferedReader(new FileReader(sentencesFileName));
+        int[] size = new int[2];
+        String currentLine;
+        while ((currentLine = input.readLine()) != null) {
+            size[0]++;
+            size[1] += currentLine.split(" ").length;
+        }
+        input.close();
+        return size;
+    }
+
+    /**
+     * @return int the lines of the result that differ from the golden, a missing or extra line counting as one
+     */
+    private static int countMismatches(String resultFileName, String goldenFileName) throws IOException {
+        if (!new File(goldenFileName).exists()) throw new IOException("Missing golden " + goldenFileName + ", run with --update to write it");
+        BufferedReader result = new BufferedReader(new FileReader(resultFileName));
+        BufferedReader golden = new BufferedReader(new FileReader(goldenFileName));
+        int mismatches = 0;
+        String resultLine;
+        String goldenLine;
+        while (true) {
+            resultLine = result.readLine();
+            goldenLine = golden.readLine();
+            if (resultLine == null && goldenLine == null) break;
+            if (resultLine == null || !resultLine.equals(goldenLine)) mismatches++;
+        }
+        result.close();
+        golden.close();
+        return mismatches;
+    }
+
+    /**
+     * @return Map<String, Double> the relative throughput of each engine and set (joined by a tab) in a report
+     */
+    private static Map<String, Double> readThroughput(String reportFileName) throws IOException {
+        Map<String, Double> throughput = new HashMap<>();
+        BufferedReader input = new BufferedReader(new FileReader(reportFileName));
+        List<String> columns = Arrays.asList(input.readLine().split("\t"));
+        int engine = columns.indexOf("engine");
+        int set = columns.indexOf("set");
+        int relativeThroughput = columns.indexOf("relativeThroughput");
+        if (engine < 0 || set < 0 || relativeThroughput < 0) {
+            input.close();
+            throw new IOException(reportFileName + " is not a regression report");
+        }
+        String currentLine;
+        while ((currentLine = input.readLine()) != null) {
+            String[] fields = currentLine.split("\t");
+            throughput.put(fields[engine] + "\t" + fields[set], Double.parseDouble(fields[relativeThroughput]));
+        }
+        input.close();
+        return throughput;
+    }
+
+    // runs all engines on the simple and Brown test sets, exits with status 1 if any output changed or any engine got slower
+    // usage: java RegressionSuite [--update] [--baseline report.tsv | --no-baseline] [--report report.tsv]
+    // the baseline holds throughputs relative to the reference engine, which carry over between machines far better than
+    // tokens per second; after a change that makes an engine faster or slower on purpose, write a report over
+    // texts/regression-baseline.tsv, preferably with each engine's median relativeThroughput of a few runs, as one run
+    // can compile an engine luckily
+    public static void main(String[] args) {
+
+        boolean update = false;
+        String baseline = "texts/regression-baseline.tsv";
+        String report = "texts/regression-report.tsv";
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--update")) update = true;
+            else if (args[i].equals("--baseline")) baseline = args[++i];
+            else if (args[i].equals("--no-baseline")) baseline = null;
+            else if (args[i].equals("--report")) report = args[++i];
+        }
+
+        boolean passed;
+        try {
+            passed = allEngines().run(Arrays.asList("simple", "brown"), report, baseline, update);
+        } catch (IOException e) {
+            System.err.println("Something went wrong while running the regression suite: " + e.getMessage());
+            passed = false;
+        }
+        System.out.println(passed ? "All engines match their goldens" : "Regression suite failed, see " + report);
+        if (!passed) System.exit(1);
+    }
+}
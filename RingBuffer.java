@@ -0,0 +1,94 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * bounded lock-free queue for any number of producers and consumers
+ * every slot carries a sequence number telling whether it is free for the producer of a position or
+ * filled for its consumer, so producers and consumers only contend on claiming a position (one compare-and-set)
+ * offer and poll never block, they fail when the buffer is full or empty and callers decide how to wait
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class RingBuffer<T> {
+
+    private final AtomicReferenceArray<T> items;
+    private final AtomicLongArray sequences;    // position for a free slot, position + 1 once filled
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();   // the next position to poll
+    private final AtomicLong tail = new AtomicLong();   // the next position to offer
+
+    /**
+     * @param minCapacity the least number of items the buffer holds, rounded up to a power of two
+     */
+    public RingBuffer(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, minCapacity) * 2 - 1);
+        items = new AtomicReferenceArray<>(capacity);
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) sequences.set(i, i);
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return int the number of items the buffer holds
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * adds an item
+     *
+     * @param item the item, not null
+     * @return boolean false if the buffer was full
+     */
+    public boolean offer(T item) {
+        long position = tail.get();
+        while (true) {
+            int slot = (int) position & mask;
+            long difference = sequences.get(slot) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    items.set(slot, item);
+                    sequences.set(slot, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // the slot still holds the item of the previous lap
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * removes the oldest item
+     *
+     * @return T the item, or null if the buffer was empty
+     */
+    public T poll() {
+        long position = head.get();
+        while (true) {
+            int slot = (int) position & mask;
+            long difference = sequences.get(slot) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    T item = items.get(slot);
+                    items.set(slot, null);
+                    // frees the slot for the producer of the next lap
+                    sequences.set(slot, position + mask + 1);
+                    return item;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                // the slot has not been filled yet
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+}
@@ -0,0 +1,336 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * map-reduce training for corpora too large to count in one heap
+ * the corpus is cut into line ranges, and each range is counted by a worker process that keeps at most
+ * maxEntries counts in memory, spilling them as sorted binary count shards whenever it fills up
+ * a merge step then k-way merges the shards of each kind (emissions, bigrams, trigrams) into one sorted count file,
+ * holding only one record per shard in memory, and the taggers are built from the merged counts
+ *
+ * shard and count files (big-endian): magic, version, number of records, then records of
+ * key (UTF, the fields separated by newlines, which no token contains: tag and word, prev and next, or prevPrev, prev and next)
+ * and count (long), sorted by key
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class ShardedTrainer {
+
+    public static final int MAGIC = 0x504F534B;     // "POSK"
+    public static final int VERSION = 2;
+    public static final String SEPARATOR = "\n";     // joins the fields of a key, tokens are split from lines so they never contain it
+    public static final String[] KINDS = {"emissions", "bigrams", "trigrams"};
+
+    public int numWorkers = 4;                      // the worker processes, each counting one range of lines
+    public int maxEntries = 1 << 20;                // the most counts a worker keeps in memory before it spills a shard
+    public String javaCommand = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+    /**
+     * counts a corpus with worker processes and merges their shards
+     *
+     * @param trainSentencesFileName name of file with sentences for training
+     * @param trainTagsFileName      name of the file with corresponding tags
+     * @param workDirectory          directory for the shards, created if missing
+     * @param countsPrefix           prefix of the merged count files, one per kind
+     */
+    public void train(String trainSentencesFileName, String trainTagsFileName, String workDirectory, String countsPrefix)
+            throws IOException, InterruptedException {
+
+        // cuts the corpus into line ranges and finds where each range starts in both files
+        long numLines = 0;
+        BufferedReader counter = new BufferedReader(new FileReader(trainSentencesFileName));
+        while (counter.readLine() != null) numLines++;
+        counter.close();
+        long[] boundaries = new long[numWorkers + 1];
+        for (int w = 0; w <= numWorkers; w++) boundaries[w] = numLines * w / numWorkers;
+        long[] sentenceOffsets = lineOffsets(trainSentencesFileName, boundaries);
+        long[] tagOffsets = lineOffsets(trainTagsFileName, boundaries);
+
+        // runs one worker process per range, after removing the shards of an earlier run
+        new File(workDirectory).mkdirs();
+        File[] oldShards = new File(workDirectory).listFiles((directory, name) -> name.endsWith(".shard"));
+        if (oldShards != null) for (File shard : oldShards) shard.delete();
+        List<Process> workers = new ArrayList<>();
+        try {
+            for (int w = 0; w < numWorkers; w++) {
+                ProcessBuilder builder = new ProcessBuilder(javaCommand, "-cp", System.getProperty("java.class.path"), "ShardedTrainer", "worker",
+                        trainSentencesFileName, trainTagsFileName, Long.toString(sentenceOffsets[w]), Long.toString(tagOffsets[w]),
+                        Long.toString(boundaries[w + 1] - boundaries[w]), Paths.get(workDirectory, "worker" + w).toString(), Integer.toString(maxEntries));
+                builder.inheritIO();
+                workers.add(builder.start());
+            }
+            for (int w = 0; w < numWorkers; w++) {
+                int exitCode = workers.get(w).waitFor();
+                if (exitCode != 0) throw new IOException("Worker " + w + " failed with exit code " + exitCode);
+            }
+        } finally {
+            // stops the workers still running when one failed, could not start or the wait was interrupted
+            for (Process worker : workers) if (worker.isAlive()) worker.destroy();
+        }
+
+        // merges the shards of each kind
+        for (String kind : KINDS) {
+            List<String> shards = new ArrayList<>();
+            File[] files = new File(workDirectory).listFiles((directory, name) -> name.endsWith("-" + kind + ".shard"));
+            if (files != null) for (File file : files) shards.add(file.getPath());
+            Collections.sort(shards);
+            merge(shards, countsPrefix + "-" + kind + ".counts");
+        }
+    }
+
+    /**
+     * finds the byte offset of some lines of a file
+     *
+     * @param fileName   the file
+     * @param lineNumbers the line numbers, in increasing order, at most the number of lines
+     * @return long[] the byte offset where each line starts, the end of the file for the line after the last
+     */
+    private static long[] lineOffsets(String fileName, long[] lineNumbers) throws IOException {
+        long[] offsets = new long[lineNumbers.length];
+        InputStream input = new BufferedInputStream(new FileInputStream(fileName), 1 << 16);
+        long line = 0;
+        long position = 0;
+        int next = 0;
+        int b;
+        while (next < lineNumbers.length && lineNumbers[next] == 0) offsets[next++] = 0;
+        while (next < lineNumbers.length && (b = input.read()) >= 0) {
+            position++;
+            if (b != '\n') continue;
+            line++;
+            while (next < lineNumbers.length && lineNumbers[next] == line) offsets[next++] = position;
+        }
+        // a last line without a newline ends at the end of the file
+        while (next < lineNumbers.length) offsets[next++] = position;
+        input.close();
+        return offsets;
+    }
+
+    /**
+     * worker: counts a range of lines and spills the counts as sorted shards
+     *
+     * @param trainSentencesFileName name of file with sentences for training
+     * @param trainTagsFileName      name of the file with corresponding tags
+     * @param sentenceOffset         the byte offset of the first line in the sentences file
+     * @param tagOffset              the byte offset of the first line in the tags file
+     * @param numLines               the number of lines to count
+     * @param shardPrefix            prefix of the shard files of this worker
+     * @param maxEntries             the most counts kept in memory before spilling
+     */
+    public static void countRange(String trainSentencesFileName, String trainTagsFileName, long sentenceOffset, long tagOffset,
+                                  long numLines, String shardPrefix, int maxEntries) throws IOException {
+
+        BufferedReader sentencesInput = reader(trainSentencesFileName, sentenceOffset);
+        BufferedReader tagsInput = reader(trainTagsFileName, tagOffset);
+        List<HashMap<String, Long>> counts = new ArrayList<>();
+        for (int k = 0; k < KINDS.length; k++) counts.add(new HashMap<>());
+        int entries = 0;
+        int run = 0;
+
+        for (long l = 0; l < numLines; l++) {
+            String[] words = sentencesInput.readLine().split(" ");
+            String[] tags = tagsInput.readLine().split(" ");
+            String prevPrev = "start";
+            String prev = "start";
+            for (int i = 0; i < words.length; i++) {
+                entries += add(counts.get(0), tags[i] + SEPARATOR + words[i]);
+                entries += add(counts.get(1), prev + SEPARATOR + tags[i]);
+                entries += add(counts.get(2), prevPrev + SEPARATOR + prev + SEPARATOR + tags[i]);
+                prevPrev = prev;
+                prev = tags[i];
+            }
+            if (entries >= maxEntries) {
+                spill(counts, shardPrefix + "-run" + run++);
+                entries = 0;
+            }
+        }
+        spill(counts, shardPrefix + "-run" + run);
+        sentencesInput.close();
+        tagsInput.close();
+    }
+
+    private static BufferedReader reader(String fileName, long offset) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        channel.position(offset);
+        return new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), "UTF-8"), 1 << 16);
+    }
+
+    /**
+     * @return int 1 if the key is new
+     */
+    private static int add(HashMap<String, Long> counts, String key) {
+        return counts.merge(key, 1L, Long::sum) == 1L ? 1 : 0;
+    }
+
+    /**
+     * writes the counts of each kind as a sorted shard and empties them
+     */
+    private static void spill(List<HashMap<String, Long>> counts, String shardPrefix) throws IOException {
+        for (int k = 0; k < KINDS.length; k++) {
+            List<String> keys = new ArrayList<>(counts.get(k).keySet());
+            Collections.sort(keys);
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(shardPrefix + "-" + KINDS[k] + ".shard"), 1 << 16));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(keys.size());
+            for (String key : keys) {
+                output.writeUTF(key);
+                output.writeLong(counts.get(k).get(key));
+            }
+            output.close();
+            counts.get(k).clear();
+        }
+    }
+
+    /**
+     * an open shard and its current record
+     */
+    private static class ShardReader {
+        final DataInputStream input;
+        long remaining;
+        String key;
+        long count;
+
+        ShardReader(String fileName) throws IOException {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), 1 << 16));
+            if (input.readInt() != MAGIC) throw new IOException(fileName + " is not a count shard");
+            int version = input.readInt();
+            if (version != VERSION) throw new IOException("Unsupported count shard version " + version);
+            remaining = input.readLong();
+        }
+
+        /**
+         * @return boolean whether there was another record
+         */
+        boolean advance() throws IOException {
+            if (remaining-- == 0) {
+                input.close();
+                return false;
+            }
+            key = input.readUTF();
+            count = input.readLong();
+            return true;
+        }
+    }
+
+    /**
+     * k-way merges sorted shards into one sorted count file, adding the counts of equal keys
+     * only the current record of each shard is in memory
+     *
+     * @param shardFileNames the shards
+     * @param countsFileName the merged file to write
+     */
+    public static void merge(List<String> shardFileNames, String countsFileName) throws IOException {
+        PriorityQueue<ShardReader> heads = new PriorityQueue<>(Math.max(1, shardFileNames.size()), Comparator.comparing((ShardReader shard) -> shard.key));
+        for (String fileName : shardFileNames) {
+            ShardReader shard = new ShardReader(fileName);
+            if (shard.advance()) heads.add(shard);
+        }
+
+        // the number of records is only known at the end, so the header is written again then
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(countsFileName), 1 << 16));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeLong(0);
+        long numRecords = 0;
+        while (!heads.isEmpty()) {
+            String key = heads.peek().key;
+            long count = 0;
+            while (!heads.isEmpty() && heads.peek().key.equals(key)) {
+                ShardReader shard = heads.poll();
+                count += shard.count;
+                if (shard.advance()) heads.add(shard);
+            }
+            output.writeUTF(key);
+            output.writeLong(count);
+            numRecords++;
+        }
+        output.close();
+        try (RandomAccessFile header = new RandomAccessFile(countsFileName, "rw")) {
+            header.seek(8);
+            header.writeLong(numRecords);
+        }
+    }
+
+    /**
+     * reads a merged count file into rows: all fields of the key but the last are the context, the last is the next word or tag
+     *
+     * @param countsFileName the count file
+     * @param contextOf      turns the context fields into the row key
+     * @return HashMap the count rows
+     */
+    private static <K> HashMap<K, HashMap<String, Double>> readRows(String countsFileName, java.util.function.Function<String[], K> contextOf) throws IOException {
+        HashMap<K, HashMap<String, Double>> rows = new HashMap<>();
+        ShardReader counts = new ShardReader(countsFileName);
+        while (counts.advance()) {
+            // keeps empty fields, e.g. the empty word of a double space
+            String[] fields = counts.key.split(SEPARATOR, -1);
+            rows.computeIfAbsent(contextOf.apply(fields), k -> new HashMap<>()).put(fields[fields.length - 1], (double) counts.count);
+        }
+        return rows;
+    }
+
+    /**
+     * @param countsPrefix prefix of the merged count files
+     * @return PosTagger a bigram tagger in lazy mode over the merged counts
+     */
+    public static PosTagger bigramTagger(String countsPrefix) throws IOException {
+        PosTagger tagger = new PosTagger();
+        tagger.lazyTransScores = new LazyScoreTable(readRows(countsPrefix + "-bigrams.counts", fields -> fields[0]));
+        tagger.lazyObsScores = new LazyScoreTable(readRows(countsPrefix + "-emissions.counts", fields -> fields[0]));
+        return tagger;
+    }
+
+    /**
+     * @param countsPrefix prefix of the merged count files
+     * @return ViterbiTaggerEC a trigram tagger over the merged counts
+     */
+    public static ViterbiTaggerEC trigramTagger(String countsPrefix) throws IOException {
+        ViterbiTaggerEC tagger = new ViterbiTaggerEC();
+        tagger.countsTrainingModel(readRows(countsPrefix + "-bigrams.counts", fields -> fields[0]),
+                readRows(countsPrefix + "-trigrams.counts", fields -> new ArrayList<>(Arrays.asList(fields[0], fields[1]))),
+                readRows(countsPrefix + "-emissions.counts", fields -> fields[0]));
+        return tagger;
+    }
+
+    // runs a worker, or with no arguments trains on the Brown corpus with worker processes and compares with in-memory training
+    // usage: java ShardedTrainer worker sentences tags sentenceOffset tagOffset numLines shardPrefix maxEntries
+    public static void main(String[] args) {
+
+        try {
+            if (args.length > 0 && args[0].equals("worker")) {
+                countRange(args[1], args[2], Long.parseLong(args[3]), Long.parseLong(args[4]), Long.parseLong(args[5]), args[6], Integer.parseInt(args[7]));
+                return;
+            }
+
+            ShardedTrainer trainer = new ShardedTrainer();
+            // a small in-memory limit so every worker spills several shards
+            trainer.maxEntries = 20000;
+            long start = System.nanoTime();
+            trainer.train("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt", "texts/brown-shards", "texts/brown-train");
+            System.out.println("Counted with " + trainer.numWorkers + " workers and merged in " + String.format("%.2f", (System.nanoTime() - start) / 1e9) + " s");
+
+            PosTagger bigram = bigramTagger("texts/brown-train");
+            bigram.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-sharded.txt");
+            bigram.calculateAccuracy("texts/brown-test-tags-result-sharded.txt", "texts/brown-test-tags.txt");
+
+            ViterbiTaggerEC trigram = trigramTagger("texts/brown-train");
+            trigram.compactTables(true);
+            trigram.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-sharded.txt");
+            trigram.calculateAccuracy("texts/brown-test-tags-result-sharded.txt", "texts/brown-test-tags.txt");
+
+            // the same models trained in memory, for comparison
+            ViterbiTaggerEC inMemory = new ViterbiTaggerEC("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt");
+            inMemory.compactTables(true);
+            inMemory.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-sharded.txt");
+            inMemory.calculateAccuracy("texts/brown-test-tags-result-sharded.txt", "texts/brown-test-tags.txt");
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Something went wrong while training model: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,502 @@
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * fully populated transition table built from transition counts at training time
+ * every (context, next tag) entry gets a score, so decoding never looks for a missing entry
+ * and never switches between trigram and bigram expansions
+ *
+ * probabilities are linear interpolations of the maximum likelihood estimates with an add-k unigram:
+ * P(c | a, b) = trigramWeight * C(a, b, c) / C(a, b) + bigramWeight * C(b, c) / C(b) + unigramWeight * (C(c) + k) / (N + k * numTags)
+ * the weight of a context never seen in training backs off to the next lower order, so every row sums to 1
+ *
+ * scores are laid out so the innermost decoding loop runs over the previous tag with unit stride:
+ * bigram scores at next * width + prev, trigram scores at (prev * numTags + next) * width + prevPrev,
+ * where tag ids are those of the vocabulary and numTags (the last id of width) stands for "start"
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class SmoothedTransitionTable {
+
+    public final Vocabulary tags;       // the tag ids of the table, emissions passed to decode use them too
+    public final int numTags;
+    public final int width;             // numTags + 1, the id numTags is "start"
+    public final double unigramWeight;
+    public final double addK;
+    private final double[] bigramScores;    // log P(next | prev)
+    private final double[] trigramScores;   // log P(next | prevPrev, prev), null for bigram tables
+
+    private SmoothedTransitionTable(Vocabulary tags, double unigramWeight, double addK, double[] bigramScores, double[] trigramScores) {
+        this.tags = tags;
+        this.numTags = tags.size();
+        this.width = numTags + 1;
+        this.unigramWeight = unigramWeight;
+        this.addK = addK;
+        this.bigramScores = bigramScores;
+        this.trigramScores = trigramScores;
+    }
+
+    /**
+     * builds a bigram table
+     *
+     * @param tags          the tags, without "start"
+     * @param bigramCounts  the transition counts of each context: a tag id, or numTags for "start" (null or missing rows are unseen)
+     * @param unigramWeight the weight of the add-k unigram, the bigram estimate gets the rest
+     * @param addK          the count added to every tag in the unigram
+     * @return SmoothedTransitionTable the dense table
+     */
+    public static SmoothedTransitionTable bigram(Vocabulary tags, IntFunction<? extends Map<String, Double>> bigramCounts,
+                                                 double unigramWeight, double addK) {
+        int numTags = tags.size();
+        int width = numTags + 1;
+        double[][] bigramRows = probabilityRows(tags, width, bigramCounts);
+        double[] unigram = unigram(tags, width, bigramCounts, addK);
+
+        double[] bigramScores = new double[numTags * width];
+        for (int prev = 0; prev < width; prev++) {
+            for (int next = 0; next < numTags; next++) {
+                double p = bigramRows[prev] == null ? unigram[next] : (1 - unigramWeight) * bigramRows[prev][next] + unigramWeight * unigram[next];
+                bigramScores[next * width + prev] = Math.log(p);
+            }
+        }
+        return new SmoothedTransitionTable(tags, unigramWeight, addK, bigramScores, null);
+    }
+
+    /**
+     * builds a trigram table, with its bigram table for the first word
+     *
+     * @param tags          the tags, without "start"
+     * @param bigramCounts  the bigram transition counts of each context: a tag id, or numTags for "start"
+     * @param trigramCounts the trigram transition counts of each context: first * (numTags + 1) + second
+     * @param bigramWeight  the weight of the bigram estimate, e.g. from deleted interpolation
+     * @param trigramWeight the weight of the trigram estimate
+     * @param unigramWeight the weight of the add-k unigram, the other two weights are scaled to leave room for it
+     * @param addK          the count added to every tag in the unigram
+     * @return SmoothedTransitionTable the dense table
+     */
+    public static SmoothedTransitionTable trigram(Vocabulary tags, IntFunction<? extends Map<String, Double>> bigramCounts,
+                                                  IntFunction<? extends Map<String, Double>> trigramCounts,
+                                                  double bigramWeight, double trigramWeight, double unigramWeight, double addK) {
+        SmoothedTransitionTable bigramTable = bigram(tags, bigramCounts, unigramWeight, addK);
+        int numTags = tags.size();
+        int width = numTags + 1;
+        double[][] bigramRows = probabilityRows(tags, width, bigramCounts);
+        double[][] trigramRows = probabilityRows(tags, width * width, trigramCounts);
+        double[] unigram = unigram(tags, width, bigramCounts, addK);
+
+        double scale = (1 - unigramWeight) / (bigramWeight + trigramWeight);
+        double[] trigramScores = new double[width * numTags * width];
+        for (int prevPrev = 0; prevPrev < width; prevPrev++) {
+            for (int prev = 0; prev < width; prev++) {
+                double[] trigramRow = trigramRows[prevPrev * width + prev];
+                double[] bigramRow = bigramRows[prev];
+                // unseen contexts hand their weight down to the next lower order
+                double w3 = trigramRow == null ? 0 : trigramWeight * scale;
+                double w2 = bigramRow == null ? 0 : bigramWeight * scale + (trigramRow == null ? trigramWeight * scale : 0);
+                double w1 = 1 - w2 - w3;
+                for (int next = 0; next < numTags; next++) {
+                    double p = w1 * unigram[next];
+                    if (bigramRow != null) p += w2 * bigramRow[next];
+                    if (trigramRow != null) p += w3 * trigramRow[next];
+                    trigramScores[(prev * numTags + next) * width + prevPrev] = Math.log(p);
+                }
+            }
+        }
+        return new SmoothedTransitionTable(tags, unigramWeight, addK, bigramTable.bigramScores, trigramScores);
+    }
+
+    /**
+     * turns count rows into maximum likelihood probability rows by tag id, null for contexts without counts
+     */
+    private static double[][] probabilityRows(Vocabulary tags, int numContexts, IntFunction<? extends Map<String, Double>> counts) {
+        double[][] rows = new double[numContexts][];
+        for (int context = 0; context < numContexts; context++) {
+            Map<String, Double> row = counts.apply(context);
+            if (row == null) continue;
+            double[] probabilities = new double[tags.size()];
+            double total = 0;
+            for (Map.Entry<String, Double> entry : row.entrySet()) {
+                int tag = tags.id(entry.getKey());
+                if (tag < 0 || entry.getValue() <= 0) continue;
+                probabilities[tag] += entry.getValue();
+                total += entry.getValue();
+            }
+            if (total == 0) continue;
+            for (int tag = 0; tag < probabilities.length; tag++) probabilities[tag] /= total;
+            rows[context] = probabilities;
+        }
+        return rows;
+    }
+
+    /**
+     * the add-k unigram, counting each tag by how often it follows any context in the bigram counts
+     */
+    private static double[] unigram(Vocabulary tags, int width, IntFunction<? extends Map<String, Double>> bigramCounts, double addK) {
+        int numTags = tags.size();
+        double[] counts = new double[numTags];
+        double total = 0;
+        for (int context = 0; context < width; context++) {
+            Map<String, Double> row = bigramCounts.apply(context);
+            if (row == null) continue;
+            for (Map.Entry<String, Double> entry : row.entrySet()) {
+                int tag = tags.id(entry.getKey());
+                if (tag < 0 || entry.getValue() <= 0) continue;
+                counts[tag] += entry.getValue();
+                total += entry.getValue();
+            }
+        }
+        double[] unigram = new double[numTags];
+        for (int tag = 0; tag < numTags; tag++) unigram[tag] = (counts[tag] + addK) / (total + addK * numTags);
+        return unigram;
+    }
+
+    /**
+     * the count rows of a CompactTransitionTable of counts, for building from compacted models
+     *
+     * @param counts a compact table of counts
+     * @param tags   the tag ids of the compact table
+     * @return IntFunction the row of each context as a map, null for contexts without a row
+     */
+    public static IntFunction<HashMap<String, Double>> rows(CompactTransitionTable counts, Vocabulary tags) {
+        return context -> {
+            if (context >= counts.numContexts || !counts.hasRow(context)) return null;
+            HashMap<String, Double> row = new HashMap<>();
+            for (int entry = counts.rowStart(context); entry < counts.rowEnd(context); entry++) {
+                double count = counts.entryScore(entry);
+                if (!Double.isNaN(count)) row.put(tags.string(counts.entryTag(entry)), count);
+            }
+            return row;
+        };
+    }
+
+    /**
+     * @return boolean whether the table has trigram scores
+     */
+    public boolean isTrigram() {
+        return trigramScores != null;
+    }
+
+    /**
+     * @return double[] the trigram scores in their decoding layout, shared with the decoders DecoderSpecializer generates
+     */
+    double[] trigramScores() {
+        return trigramScores;
+    }
+
+    /**
+     * @param prev the previous tag id, numTags for "start"
+     * @param next the next tag id
+     * @return double the log transition score
+     */
+    public double score(int prev, int next) {
+        return bigramScores[next * width + prev];
+    }
+
+    /**
+     * @param prevPrev the tag id two back, numTags for "start"
+     * @param prev     the previous tag id, numTags for "start"
+     * @param next     the next tag id
+     * @return double the log transition score
+     */
+    public double score(int prevPrev, int prev, int next) {
+        return trigramScores[(prev * numTags + next) * width + prevPrev];
+    }
+
+    /**
+     * viterbi decoding over the dense table
+     * every state is expanded to every tag, so the loops have fixed bounds and no lookups;
+     * dead states just carry negative infinity
+     *
+     * @param emissions the log observation score of each tag id at each position, negative infinity to rule a tag out
+     * @return int[] the decoded tag ids, or null if every path was ruled out
+     */
+    public int[] decode(double[][] emissions) {
+        return trigramScores != null ? decodeTrigram(emissions, 1) : decodeBigram(emissions);
+    }
+
+    /**
+     * decode for long sentences on many cores: each step of a trigram decode is split by previous tag
+     * into partitions that run on the common fork-join pool, all writing into the same column and back pointer arrays
+     * (a partition owns the states of its previous tags, so no two write the same entry)
+     * tags exactly like decode; bigram tables decode sequentially
+     *
+     * @param emissions  the log observation score of each tag id at each position, negative infinity to rule a tag out
+     * @param partitions the number of tag partitions of each step
+     * @return int[] the decoded tag ids, or null if every path was ruled out
+     */
+    public int[] decodeParallel(double[][] emissions, int partitions) {
+        return trigramScores != null ? decodeTrigram(emissions, partitions) : decodeBigram(emissions);
+    }
+
+    private int[] decodeBigram(double[][] emissions) {
+        int length = emissions.length;
+        int start = numTags;
+
+        // the score of each previous tag, "start" before the first word
+        double[] column = new double[width];
+        Arrays.fill(column, Double.NEGATIVE_INFINITY);
+        column[start] = 0.0;
+        double[] nextColumn = new double[width];
+        Arrays.fill(nextColumn, Double.NEGATIVE_INFINITY);
+        int[][] backPointers = new int[length][numTags];
+
+        for (int i = 0; i < length; i++) {
+            // only "start" is live before the first word, only real tags after it
+            int from = i == 0 ? start : 0;
+            int to = i == 0 ? width : numTags;
+            double[] emission = emissions[i];
+            int[] back = backPointers[i];
+            for (int next = 0; next < numTags; next++) {
+                int row = next * width;
+                double best = Double.NEGATIVE_INFINITY;
+                int bestPrev = from;
+                for (int prev = from; prev < to; prev++) {
+                    double score = column[prev] + bigramScores[row + prev];
+                    if (score > best) {
+                        best = score;
+                        bestPrev = prev;
+                    }
+                }
+                nextColumn[next] = best + emission[next];
+                back[next] = bestPrev;
+            }
+            double[] swap = column;
+            column = nextColumn;
+            nextColumn = swap;
+        }
+
+        // the best last tag, then the back pointers
+        int best = 0;
+        for (int tag = 1; tag < numTags; tag++) if (column[tag] > column[best]) best = tag;
+        if (column[best] == Double.NEGATIVE_INFINITY) return null;
+        int[] tagIds = new int[length];
+        for (int i = length - 1; i >= 0; i--) {
+            tagIds[i] = best;
+            best = backPointers[i][best];
+        }
+        return tagIds;
+    }
+
+    private int[] decodeTrigram(double[][] emissions, int partitions) {
+        int length = emissions.length;
+        int start = numTags;
+
+        // the score of each state (prev, prevPrev) at prev * width + prevPrev, [start, start] before the first word
+        double[] column = new double[width * width];
+        Arrays.fill(column, Double.NEGATIVE_INFINITY);
+        column[start * width + start] = 0.0;
+        double[] nextColumn = new double[width * width];
+        Arrays.fill(nextColumn, Double.NEGATIVE_INFINITY);
+        // the best tag two back of each state (next, prev) of each position
+        int[][] backPointers = new int[length][width * width];
+
+        for (int i = 0; i < length; i++) {
+            // "start" is the previous tag only before the first word, and the tag two back only before the first two
+            int prevFrom = i == 0 ? start : 0;
+            int prevTo = i == 0 ? width : numTags;
+            int prevPrevFrom = i <= 1 ? start : 0;
+            int prevPrevTo = i <= 1 ? width : numTags;
+            if (partitions <= 1 || prevTo - prevFrom < partitions) {
+                trigramStep(column, nextColumn, backPointers[i], emissions[i], prevFrom, prevTo, prevPrevFrom, prevPrevTo);
+            } else {
+                double[] current = column;
+                double[] next = nextColumn;
+                int[] back = backPointers[i];
+                double[] emission = emissions[i];
+                int numPrev = prevTo - prevFrom;
+                IntStream.range(0, partitions).parallel().forEach(part -> trigramStep(current, next, back, emission,
+                        prevFrom + numPrev * part / partitions, prevFrom + numPrev * (part + 1) / partitions, prevPrevFrom, prevPrevTo));
+            }
+            // clears the states with "start" that the positions after this one do not overwrite
+            if (i == 0) column[start * width + start] = Double.NEGATIVE_INFINITY;
+            if (i == 1) for (int tag = 0; tag < numTags; tag++) column[tag * width + start] = Double.NEGATIVE_INFINITY;
+            double[] swap = column;
+            column = nextColumn;
+            nextColumn = swap;
+        }
+
+        // the best last state, then the back pointers
+        int best = -1;
+        for (int state = 0; state < column.length; state++) if (best < 0 || column[state] > column[best]) best = state;
+        if (column[best] == Double.NEGATIVE_INFINITY) return null;
+        int[] tagIds = new int[length];
+        for (int i = length - 1; i >= 0; i--) {
+            int next = best / width;
+            int prev = best % width;
+            tagIds[i] = next;
+            best = prev * width + backPointers[i][best];
+        }
+        return tagIds;
+    }
+
+    /**
+     * one step of the trigram decode for the states whose previous tag is in [prevFrom, prevTo)
+     */
+    private void trigramStep(double[] column, double[] nextColumn, int[] back, double[] emission,
+                             int prevFrom, int prevTo, int prevPrevFrom, int prevPrevTo) {
+        for (int prev = prevFrom; prev < prevTo; prev++) {
+            int stateRow = prev * width;
+            for (int next = 0; next < numTags; next++) {
+                int scoreRow = (prev * numTags + next) * width;
+                double best = Double.NEGATIVE_INFINITY;
+                int bestPrevPrev = prevPrevFrom;
+                for (int prevPrev = prevPrevFrom; prevPrev < prevPrevTo; prevPrev++) {
+                    double score = column[stateRow + prevPrev] + trigramScores[scoreRow + prevPrev];
+                    if (score > best) {
+                        best = score;
+                        bestPrevPrev = prevPrev;
+                    }
+                }
+                nextColumn[next * width + prev] = best + emission[next];
+                back[next * width + prev] = bestPrevPrev;
+            }
+        }
+    }
+
+    /**
+     * viterbi decoding of several sentences at once, one lane per sentence
+     * the lattice is kept in structure-of-arrays layout (all lanes of a state next to each other),
+     * so every transition score is loaded once per step and applied to all lanes in a unit-stride loop;
+     * that loop only takes maxima, so the JIT can vectorize it, and back pointers are recovered at the end
+     * from the kept columns, comparing scores exactly as decode does
+     * shorter sentences are padded to the longest one and masked: a lane stops at the end of its sentence,
+     * its last column is read at that point, and the padded steps after it are ignored
+     * sentences of similar lengths should be batched together to keep the padding small
+     *
+     * @param emissions the emissions of each sentence, as for decode
+     * @return int[][] the decoded tag ids of each sentence, null entries where every path was ruled out
+     */
+    public int[][] decodeBatch(double[][][] emissions) {
+        int lanes = emissions.length;
+        int maxLength = 0;
+        for (double[][] sentence : emissions) maxLength = Math.max(maxLength, sentence.length);
+        boolean trigram = trigramScores != null;
+        double[] scores = trigram ? trigramScores : bigramScores;
+        int start = numTags;
+        int numStates = trigram ? width * width : width;
+
+        // the score of each state of each lane after each step, at state * lanes + lane
+        double[][] columns = new double[maxLength + 1][];
+        columns[0] = new double[numStates * lanes];
+        Arrays.fill(columns[0], Double.NEGATIVE_INFINITY);
+        int initial = trigram ? start * width + start : start;
+        Arrays.fill(columns[0], initial * lanes, (initial + 1) * lanes, 0.0);
+
+        // the observation scores of one step, padded steps score 0
+        double[] emission = new double[numTags * lanes];
+        double[] best = new double[lanes];
+        int[] lastStates = new int[lanes];
+
+        for (int i = 0; i < maxLength; i++) {
+            for (int lane = 0; lane < lanes; lane++) {
+                boolean padded = i >= emissions[lane].length;
+                for (int tag = 0; tag < numTags; tag++) emission[tag * lanes + lane] = padded ? 0.0 : emissions[lane][i][tag];
+            }
+            double[] column = columns[i];
+            double[] nextColumn = new double[numStates * lanes];
+            Arrays.fill(nextColumn, Double.NEGATIVE_INFINITY);
+
+            // "start" is the previous tag only before the first word, and the tag two back only before the first two
+            int prevFrom = i == 0 ? start : 0;
+            int prevTo = i == 0 ? width : numTags;
+            int prevPrevFrom = i <= 1 ? start : 0;
+            int prevPrevTo = i <= 1 ? width : numTags;
+
+            // a trigram state (next, prev) takes the best over the tag two back, a bigram state next over the previous tag
+            int outerFrom = trigram ? prevFrom : 0;
+            int outerTo = trigram ? prevTo : 1;
+            int reduceFrom = trigram ? prevPrevFrom : prevFrom;
+            int reduceTo = trigram ? prevPrevTo : prevTo;
+            for (int prev = outerFrom; prev < outerTo; prev++) {
+                for (int next = 0; next < numTags; next++) {
+                    int scoreRow = trigram ? (prev * numTags + next) * width : next * width;
+                    int columnRow = trigram ? prev * width * lanes : 0;
+                    Arrays.fill(best, Double.NEGATIVE_INFINITY);
+                    for (int from = reduceFrom; from < reduceTo; from++) {
+                        double transScore = scores[scoreRow + from];
+                        int state = columnRow + from * lanes;
+                        for (int lane = 0; lane < lanes; lane++) {
+                            double score = column[state + lane] + transScore;
+                            if (score > best[lane]) best[lane] = score;
+                        }
+                    }
+                    int nextState = (trigram ? next * width + prev : next) * lanes;
+                    for (int lane = 0; lane < lanes; lane++) nextColumn[nextState + lane] = best[lane] + emission[next * lanes + lane];
+                }
+            }
+            columns[i + 1] = nextColumn;
+
+            // lanes whose sentence ends here keep their best last state
+            for (int lane = 0; lane < lanes; lane++) {
+                if (emissions[lane].length != i + 1) continue;
+                int bestState = 0;
+                for (int state = 1; state < numStates; state++) {
+                    if (nextColumn[state * lanes + lane] > nextColumn[bestState * lanes + lane]) bestState = state;
+                }
+                lastStates[lane] = nextColumn[bestState * lanes + lane] == Double.NEGATIVE_INFINITY ? -1 : bestState;
+            }
+        }
+
+        // follows the best predecessors of each lane back from the end of its own sentence
+        int[][] tagIds = new int[lanes][];
+        for (int lane = 0; lane < lanes; lane++) {
+            int length = emissions[lane].length;
+            int state = lastStates[lane];
+            if (length > 0 && state < 0) continue;
+            tagIds[lane] = new int[length];
+            for (int i = length - 1; i >= 0; i--) {
+                int next = trigram ? state / width : state;
+                int prev = trigram ? state % width : 0;
+                int scoreRow = trigram ? (prev * numTags + next) * width : next * width;
+                int columnRow = trigram ? prev * width * lanes : 0;
+
+                // the first predecessor with the highest score, as the forward pass compared them
+                int bestFrom = 0;
+                double bestScore = Double.NEGATIVE_INFINITY;
+                for (int from = 0; from < width; from++) {
+                    double score = columns[i][columnRow + from * lanes + lane] + scores[scoreRow + from];
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestFrom = from;
+                    }
+                }
+                tagIds[lane][i] = next;
+                state = trigram ? prev * width + bestFrom : bestFrom;
+            }
+        }
+        return tagIds;
+    }
+
+    /**
+     * decodes many sentences with decodeBatch, bucketed by length:
+     * the sentences are sorted by length and cut into batches of the given number of lanes
+     *
+     * @param emissions the emissions of each sentence, as for decode
+     * @param lanes     the most sentences decoded together
+     * @return int[][] the decoded tag ids of each sentence in the original order, null entries where every path was ruled out
+     */
+    public int[][] decodeBuckets(double[][][] emissions, int lanes) {
+        Integer[] order = new Integer[emissions.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingInt(i -> emissions[i].length));
+
+        int[][] tagIds = new int[emissions.length][];
+        for (int from = 0; from < order.length; from += lanes) {
+            int to = Math.min(order.length, from + lanes);
+            double[][][] batch = new double[to - from][][];
+            for (int j = from; j < to; j++) batch[j - from] = emissions[order[j]];
+            int[][] batchTagIds = decodeBatch(batch);
+            for (int j = from; j < to; j++) tagIds[order[j]] = batchTagIds[j - from];
+        }
+        return tagIds;
+    }
+
+    /**
+     * @return long the bytes of the score arrays
+     */
+    public long estimatedBytes() {
+        return 8L * bigramScores.length + (trigramScores == null ? 0 : 8L * trigramScores.length);
+    }
+}
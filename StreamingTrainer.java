@@ -0,0 +1,209 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * training in one pass over a corpus of any size with the observation counts held to a memory budget
+ * word frequencies are tracked by a CountMinSketch; a word gets exact observation counts once its estimated
+ * frequency reaches the threshold, and until then its occurrences are counted for its tag under UNKNOWN_WORD,
+ * which becomes the observation score of unknown words in decoding
+ * when the exact counts outgrow their share of the budget, the threshold doubles and the words now below it
+ * are folded into UNKNOWN_WORD, so the counts never take more than the budget however large the corpus
+ *
+ * the transition counts stay exact, they are bounded by the tagset and not by the corpus
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class StreamingTrainer {
+
+    public static final String UNKNOWN_WORD = "<unk word>"; // the observation row entry of the words without exact counts, no token can equal it since tokens are split at spaces
+    public static final int ENTRY_BYTES = 112;              // estimated heap of one exact count: map node, word and boxed count
+
+    public long memoryBudgetBytes = 8 << 20;    // the bytes the sketch and the exact observation counts may take
+    public double sketchShare = 0.25;           // the share of the budget given to the sketch
+    public int sketchDepth = 4;                 // the rows of the sketch
+    public int minCount = 2;                    // the first threshold, words seen fewer times are unknown words
+
+    // results of the last training pass
+    public HashMap<String, HashMap<String, Double>> bigramCounts;                 // next tag counts after each tag, with "start"
+    public HashMap<ArrayList<String>, HashMap<String, Double>> trigramCounts;     // next tag counts after each tag pair, with [start, start]
+    public HashMap<String, HashMap<String, Double>> obsCounts;                    // word counts of each tag, with UNKNOWN_WORD
+    public CountMinSketch sketch;
+    public int threshold;                       // the estimated frequency a word needed for exact counts at the end
+    public long exactEntries;                   // the exact (tag, word) counts kept
+    public long maxEntries;                     // the most exact counts the budget allows
+    public long unknownTokens;                  // the tokens counted under UNKNOWN_WORD
+
+    /**
+     * counts the corpus in one pass
+     *
+     * @param trainSentencesFileName name of file with sentences for training
+     * @param trainTagsFileName      name of the file with corresponding tags
+     */
+    public void train(String trainSentencesFileName, String trainTagsFileName) throws IOException {
+
+        sketch = CountMinSketch.ofBytes(sketchDepth, (long) (memoryBudgetBytes * sketchShare));
+        maxEntries = Math.max(1, (memoryBudgetBytes - sketch.estimatedBytes()) / ENTRY_BYTES);
+        threshold = Math.max(1, minCount);
+        bigramCounts = new HashMap<>();
+        trigramCounts = new HashMap<>();
+        obsCounts = new HashMap<>();
+        exactEntries = 0;
+        unknownTokens = 0;
+
+        // the row of each tag pair, reached without building a list key per token
+        HashMap<String, HashMap<String, HashMap<String, Double>>> trigramRows = new HashMap<>();
+
+        BufferedReader sentencesInput = new BufferedReader(new FileReader(trainSentencesFileName));
+        BufferedReader tagsInput = new BufferedReader(new FileReader(trainTagsFileName));
+        String currentSentenceLine;
+        while ((currentSentenceLine = sentencesInput.readLine()) != null) {
+            String[] words = currentSentenceLine.split(" ");
+            String[] tags = tagsInput.readLine().split(" ");
+
+            String prevPrev = "start";
+            String prev = "start";
+            for (int i = 0; i < words.length; i++) {
+                bigramCounts.computeIfAbsent(prev, k -> new HashMap<>()).merge(tags[i], 1.0, Double::sum);
+                HashMap<String, HashMap<String, Double>> secondRows = trigramRows.computeIfAbsent(prevPrev, k -> new HashMap<>());
+                HashMap<String, Double> trigramRow = secondRows.get(prev);
+                if (trigramRow == null) {
+                    trigramRow = new HashMap<>();
+                    secondRows.put(prev, trigramRow);
+                    trigramCounts.put(new ArrayList<>(Arrays.asList(prevPrev, prev)), trigramRow);
+                }
+                trigramRow.merge(tags[i], 1.0, Double::sum);
+                prevPrev = prev;
+                prev = tags[i];
+
+                // counts the word exactly once it is frequent enough, as an unknown word otherwise
+                HashMap<String, Double> row = obsCounts.computeIfAbsent(tags[i], k -> new HashMap<>());
+                boolean exact = sketch.add(words[i]) >= threshold;
+                if (!exact) unknownTokens++;
+                if (row.merge(exact ? words[i] : UNKNOWN_WORD, 1.0, Double::sum) == 1.0) exactEntries++;
+            }
+            if (exactEntries > maxEntries) prune();
+        }
+        sentencesInput.close();
+        tagsInput.close();
+    }
+
+    /**
+     * raises the threshold until the exact counts are back to three quarters of the budget,
+     * folding the counts of the words below it into UNKNOWN_WORD
+     */
+    private void prune() {
+        while (exactEntries > maxEntries * 3 / 4) {
+            threshold = threshold > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : threshold * 2;
+            for (HashMap<String, Double> row : obsCounts.values()) {
+                double folded = 0;
+                Iterator<Map.Entry<String, Double>> entries = row.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry<String, Double> entry = entries.next();
+                    if (entry.getKey().equals(UNKNOWN_WORD) || sketch.estimate(entry.getKey()) >= threshold) continue;
+                    folded += entry.getValue();
+                    unknownTokens += entry.getValue().longValue();
+                    entries.remove();
+                    exactEntries--;
+                }
+                if (folded > 0 && row.merge(UNKNOWN_WORD, folded, Double::sum) == folded) exactEntries++;
+            }
+            if (threshold == Integer.MAX_VALUE) return;
+        }
+    }
+
+    /**
+     * @return PosTagger a bigram tagger in lazy mode over the counts, scoring unknown words with UNKNOWN_WORD
+     */
+    public PosTagger bigramTagger() {
+        PosTagger tagger = new PosTagger();
+        tagger.lazyTransScores = new LazyScoreTable(copy(bigramCounts));
+        tagger.lazyObsScores = new LazyScoreTable(copy(obsCounts));
+        tagger.emissionModel = new ChainedEmissionModel(tagger.trainedEmissionModel(), new UnknownWordModel(tagger.trainedEmissionModel()));
+        return tagger;
+    }
+
+    /**
+     * @return ViterbiTaggerEC a trigram tagger over the counts, scoring unknown words with UNKNOWN_WORD
+     */
+    public ViterbiTaggerEC trigramTagger() {
+        ViterbiTaggerEC tagger = new ViterbiTaggerEC();
+        tagger.countsTrainingModel(bigramCounts, trigramCounts, obsCounts);
+        tagger.emissionModel = new ChainedEmissionModel(tagger.trainedEmissionModel(), new UnknownWordModel(tagger.trainedEmissionModel()));
+        return tagger;
+    }
+
+    private static HashMap<String, HashMap<String, Double>> copy(HashMap<String, HashMap<String, Double>> counts) {
+        HashMap<String, HashMap<String, Double>> copy = new HashMap<>();
+        for (String context : counts.keySet()) copy.put(context, new HashMap<>(counts.get(context)));
+        return copy;
+    }
+
+    /**
+     * EmissionModel that scores every word as UNKNOWN_WORD in the trained observation scores,
+     * chained behind them so only words without exact counts reach it
+     */
+    private static class UnknownWordModel implements EmissionModel {
+        private final EmissionModel trained;
+
+        UnknownWordModel(EmissionModel trained) {
+            this.trained = trained;
+        }
+
+        public double score(String tag, String word) {
+            return trained.score(tag, UNKNOWN_WORD);
+        }
+
+        public boolean contains(String word) {
+            return true;
+        }
+
+        public double[][] scoreSentence(String[] words, Vocabulary tags) {
+            double[] unknown = trained.scoreSentence(new String[]{UNKNOWN_WORD}, tags)[0];
+            double[][] scores = new double[words.length][];
+            for (int i = 0; i < words.length; i++) {
+                scores[i] = unknown.clone();
+                if (words[i] == null) Arrays.fill(scores[i], Double.NaN);
+            }
+            return scores;
+        }
+    }
+
+    // trains on the Brown corpus under shrinking budgets and compares with the unbounded in-memory taggers
+    public static void main(String[] args) {
+
+        try {
+            System.out.println("Training with the Brown corpus in memory");
+            PosTagger bigram = new PosTagger();
+            bigram.trainingModel("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt", true);
+            bigram.smoothTransitions(0.01, 1.0);
+            bigram.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-streaming.txt");
+            bigram.calculateAccuracy("texts/brown-test-tags-result-streaming.txt", "texts/brown-test-tags.txt");
+            ViterbiTaggerEC trigram = new ViterbiTaggerEC("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt");
+            trigram.compactTables(true);
+            trigram.smoothTransitions(0.001, 1.0);
+            trigram.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-streaming.txt");
+            trigram.calculateAccuracy("texts/brown-test-tags-result-streaming.txt", "texts/brown-test-tags.txt");
+
+            StreamingTrainer trainer = new StreamingTrainer();
+            for (long budget : new long[]{16 << 20, 4 << 20, 1 << 20, 256 << 10}) {
+                trainer.memoryBudgetBytes = budget;
+                trainer.train("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt");
+                System.out.println("Budget " + (budget >> 10) + " KB: threshold " + trainer.threshold + ", " + trainer.exactEntries
+                        + " exact counts of at most " + trainer.maxEntries + ", " + trainer.unknownTokens + " tokens counted as unknown words");
+
+                bigram = trainer.bigramTagger();
+                bigram.smoothTransitions(0.01, 1.0);
+                bigram.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-streaming.txt");
+                bigram.calculateAccuracy("texts/brown-test-tags-result-streaming.txt", "texts/brown-test-tags.txt");
+                trigram = trainer.trigramTagger();
+                trigram.compactTables(true);
+                trigram.smoothTransitions(0.001, 1.0);
+                trigram.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-streaming.txt");
+                trigram.calculateAccuracy("texts/brown-test-tags-result-streaming.txt", "texts/brown-test-tags.txt");
+            }
+        } catch (IOException e) {
+            System.err.println("Something went wrong while training model: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * mapping from a fine tagset onto a coarse one, such as the Brown tags onto the universal tags
+ * every fine tag belongs to one coarse class; tags the mapping does not list are their own class
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class TagMapping {
+
+    private final HashMap<String, String> coarseTags;          // the coarse class of each fine tag
+    private final HashMap<String, Set<String>> fineTags;       // the fine tags of each coarse class
+
+    /**
+     * instantiate an empty mapping, to be filled with put
+     */
+    public TagMapping() {
+        coarseTags = new HashMap<>();
+        fineTags = new HashMap<>();
+    }
+
+    /**
+     * puts a fine tag in a coarse class
+     *
+     * @param fineTag   the fine tag
+     * @param coarseTag its coarse class
+     */
+    public void put(String fineTag, String coarseTag) {
+        String previous = coarseTags.put(fineTag, coarseTag);
+        if (previous != null) fineTags.get(previous).remove(fineTag);
+        fineTags.computeIfAbsent(coarseTag, k -> new TreeSet<>()).add(fineTag);
+    }
+
+    /**
+     * @param fineTag a fine tag
+     * @return String its coarse class, the tag itself if it is not mapped
+     */
+    public String coarse(String fineTag) {
+        String coarseTag = coarseTags.get(fineTag);
+        return coarseTag == null ? fineTag : coarseTag;
+    }
+
+    /**
+     * @param coarseTag a coarse class
+     * @return Set<String> the fine tags in the class, the tag itself if no fine tag maps to it
+     */
+    public Set<String> fine(String coarseTag) {
+        Set<String> tags = fineTags.get(coarseTag);
+        return tags == null ? Collections.singleton(coarseTag) : Collections.unmodifiableSet(tags);
+    }
+
+    /**
+     * @return Set<String> the coarse classes of the mapped tags
+     */
+    public Set<String> coarseTagSet() {
+        return Collections.unmodifiableSet(fineTags.keySet());
+    }
+
+    /**
+     * @param fineTagList the fine tags of a sentence
+     * @return List<String> their coarse classes
+     */
+    public List<String> coarse(List<String> fineTagList) {
+        List<String> coarseTagList = new ArrayList<>(fineTagList.size());
+        for (String tag : fineTagList) coarseTagList.add(coarse(tag));
+        return coarseTagList;
+    }
+
+    /**
+     * rewrites a tags file with the coarse class of every tag
+     *
+     * @param tagsFileName       the file with fine tags, one sentence per line
+     * @param coarseTagsFileName the file to write
+     */
+    public void mapTagFile(String tagsFileName, String coarseTagsFileName) throws IOException {
+        BufferedReader tagsInput = new BufferedReader(new FileReader(tagsFileName));
+        BufferedWriter coarseOutput = new BufferedWriter(new FileWriter(coarseTagsFileName));
+        String currentLine;
+        while ((currentLine = tagsInput.readLine()) != null) {
+            String[] tags = currentLine.split(" ");
+            for (int i = 0; i < tags.length; i++) {
+                if (i > 0) coarseOutput.write(' ');
+                coarseOutput.write(coarse(tags[i]));
+            }
+            coarseOutput.write('\n');
+        }
+        tagsInput.close();
+        coarseOutput.close();
+    }
+
+    /**
+     * reads a mapping file with one "fineTag coarseTag" pair per line, blank lines and lines starting with # are skipped
+     *
+     * @param mappingFileName the mapping file
+     * @return TagMapping the mapping
+     */
+    public static TagMapping read(String mappingFileName) throws IOException {
+        TagMapping mapping = new TagMapping();
+        BufferedReader input = new BufferedReader(new FileReader(mappingFileName));
+        String currentLine;
+        int lineNumber = 0;
+        while ((currentLine = input.readLine()) != null) {
+            lineNumber++;
+            currentLine = currentLine.trim();
+            if (currentLine.isEmpty() || currentLine.startsWith("#")) continue;
+            String[] fields = currentLine.split("\\s+");
+            if (fields.length != 2) {
+                input.close();
+                throw new IOException("Expected a fine and a coarse tag on line " + lineNumber + " of " + mappingFileName);
+            }
+            mapping.put(fields[0], fields[1]);
+        }
+        input.close();
+        return mapping;
+    }
+
+    /**
+     * the tags of the Brown files onto the twelve universal tags (Petrov, Das and McDonald)
+     * wh-words go to PRON, existential "there" to DET, the negator "*" to ADV and "to" to PRT, as in the universal mapping of the full Brown tags
+     *
+     * @return TagMapping the mapping
+     */
+    public static TagMapping brownToUniversal() {
+        TagMapping mapping = new TagMapping();
+        for (String tag : new String[]{"N", "NP"}) mapping.put(tag, "NOUN");
+        for (String tag : new String[]{"V", "VD", "VG", "VN", "VBZ", "MOD"}) mapping.put(tag, "VERB");
+        for (String tag : new String[]{"PRO", "WH"}) mapping.put(tag, "PRON");
+        for (String tag : new String[]{"DET", "EX"}) mapping.put(tag, "DET");
+        for (String tag : new String[]{"ADV", "*"}) mapping.put(tag, "ADV");
+        for (String tag : new String[]{"FW", "UH", "NIL"}) mapping.put(tag, "X");
+        for (String tag : new String[]{".", ",", ":", "``", "''", "'", "--", "(", ")"}) mapping.put(tag, ".");
+        mapping.put("ADJ", "ADJ");
+        mapping.put("P", "ADP");
+        mapping.put("TO", "PRT");
+        mapping.put("CNJ", "CONJ");
+        mapping.put("NUM", "NUM");
+        return mapping;
+    }
+}
@@ -0,0 +1,186 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * common contract of the POS taggers: decode a line, tag a test file and score a result file
+ * testing and scoring only depend on viterbiDecoding, so they are shared here
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public interface Tagger {
+
+    /**
+     * viterbi decoding
+     *
+     * @param line the string to be decoded to get the tags
+     * @return List<String> the list of decoded tags
+     */
+    List<String> viterbiDecoding(String line);
+
+    /**
+     * viterbi decoding of a batch of lines
+     *
+     * @param lines the strings to be decoded
+     * @return List<List<String>> the decoded tags of each line, in the same order
+     */
+    default List<List<String>> viterbiDecodingBatch(List<String> lines) {
+        List<List<String>> results = new ArrayList<>(lines.size());
+        for (String line : lines) results.add(viterbiDecoding(line));
+        return results;
+    }
+
+    /**
+     * estimates how many tags decoding will consider for a word, used to estimate the cost of a sentence
+     *
+     * @param word a word of a sentence to decode
+     * @return int the expected number of candidate tags
+     */
+    default int candidateTagCount(String word) {
+        return 1;
+    }
+
+    /**
+     * tests the model with the test sentences and corresponding tags
+     * write a file for the tags
+     *
+     * @param testSentencesFileName the file name of the testing sentences
+     * @param resultFileName        the file name of the testing tags
+     */
+    default void testingModel(String testSentencesFileName, String resultFileName) throws IOException {
+
+        // opens the file to read
+        BufferedReader testInput = new BufferedReader(new FileReader(testSentencesFileName));
+        // opens the file to write
+        BufferedWriter result = new BufferedWriter(new FileWriter(resultFileName));
+
+        // initializes the current line
+        String currentLine;
+
+        // reads the lines in batches and calls the batch Viterbi decoding method, which taggers may decode together
+        final int batchSize = 4096;
+        List<String> batch = new ArrayList<>();
+        do {
+            batch.clear();
+            while (batch.size() < batchSize && (currentLine = testInput.readLine()) != null) batch.add(currentLine);
+            for (List<String> currentTagList : viterbiDecodingBatch(batch)) {
+                // writes in the result file the tags from decoding
+                String tagLine = "";
+                for (int i = 0; i < currentTagList.size(); i++) tagLine += currentTagList.get(i) + " ";
+                tagLine += "\n";
+                result.write(tagLine);
+            }
+        } while (batch.size() == batchSize);
+
+        // closes the files
+        testInput.close();
+        result.close();
+    }
+
+    /**
+     * tests the model like testingModel, with reading, decoding and writing overlapped in a TaggingPipeline
+     *
+     * @param testSentencesFileName the file name of the testing sentences
+     * @param resultFileName        the file name of the testing tags
+     * @param numDecoders           the decoder threads, more than one needs decoding that is safe to call from many threads
+     */
+    default void testingModelPipelined(String testSentencesFileName, String resultFileName, int numDecoders) throws IOException {
+        new TaggingPipeline(this, numDecoders).run(testSentencesFileName, resultFileName);
+    }
+
+    /**
+     * tests the model with the test sentences, writing the tags as tag ids in a columnar file (see ColumnarTagWriter)
+     *
+     * @param testSentencesFileName the file name of the testing sentences
+     * @param resultFileName        the file name of the columnar tags
+     * @param tagSet                the tag dictionary, every decoded tag must be in it
+     */
+    default void testingModelColumnar(String testSentencesFileName, String resultFileName, List<String> tagSet) throws IOException {
+        try (BufferedReader testInput = new BufferedReader(new FileReader(testSentencesFileName));
+             ColumnarTagWriter result = new ColumnarTagWriter(resultFileName, tagSet)) {
+
+            // reads the lines in batches like testingModel, so the taggers decode them with their batch decoders
+            final int batchSize = 4096;
+            List<String> batch = new ArrayList<>();
+            String currentLine;
+            do {
+                batch.clear();
+                while (batch.size() < batchSize && (currentLine = testInput.readLine()) != null) batch.add(currentLine);
+                for (List<String> currentTagList : viterbiDecodingBatch(batch)) result.write(currentTagList);
+            } while (batch.size() == batchSize);
+        }
+    }
+
+    /**
+     * tests the model with the test sentences and corresponding tags
+     * write a file for the tags
+     *
+     * @param resultFileName      the file name of the testing tags
+     * @param correctTagsFileName the file name of the correct tags
+     * @return Double the accuracy ratio
+     */
+    default Double calculateAccuracy(String resultFileName, String correctTagsFileName) throws IOException {
+
+        // initializes the number of tags correct and the total tags in the result file
+        int numCorrect = 0;
+        int total = 0;
+
+        // opens the files
+        BufferedReader result = new BufferedReader(new FileReader(resultFileName));
+        BufferedReader correctTags = new BufferedReader(new FileReader(correctTagsFileName));
+
+        // initializes the lines from both files
+        String currentResultLine;
+        String currentTagLine;
+
+
+        // iteratively count the number of tags correct by comparing with the corresponding correct tags
+        while ((currentResultLine = result.readLine()) != null) {
+            currentTagLine = correctTags.readLine();
+            List<String> resultList = new ArrayList<>(Arrays.asList(currentResultLine.split(" ")));
+            List<String> tagList = new ArrayList<>(Arrays.asList((currentTagLine.split(" "))));
+            for (int i = 0; i < resultList.size(); i++) {
+                if (resultList.get(i).equals(tagList.get(i))) numCorrect += 1;
+                total += 1;
+            }
+        }
+
+        // closes the files
+        result.close();
+        correctTags.close();
+
+        // outputs the results
+        System.out.println("The POS tagger identified " + numCorrect + " out of " + total + " tags correctly.");
+        double accuracyRatio = ((double) numCorrect) / ((double) total);
+        System.out.println("The accuracy is: " + (accuracyRatio) * 100 + "%");
+
+        // returns the accuracy ratio
+        return accuracyRatio;
+
+    }
+
+    /**
+     * console based tagging
+     */
+    default void consoleBasedTagger() {
+        Scanner in = new Scanner(System.in);
+
+        // takes inputs from user until the user quits
+        while (true) {
+            System.out.println("Please enter a sentence to get tags (enter \"q\" to quit game)");
+            System.out.print("> ");
+            String line = in.nextLine();
+            // if user inputs "q", the tagger ends
+            if (line.equals("q")) return;
+
+            // calls Viterbi decoding on the provided line
+            List<String> tagList = viterbiDecoding(line);
+
+            // outputs the decoded tags
+            String tagLine = "";
+            for (int i = 0; i < tagList.size(); i++) tagLine += tagList.get(i) + " ";
+            tagLine += "\n";
+            System.out.println(tagLine);
+        }
+    }
+}
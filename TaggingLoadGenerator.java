@@ -0,0 +1,73 @@
+import java.io.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * load generator for TaggingServer
+ * a number of client threads each send one sentence per request, cycling through a sentence file,
+ * and the client-side throughput and latency percentiles are reported at the end
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class TaggingLoadGenerator {
+
+    /**
+     * runs the load
+     * usage: TaggingLoadGenerator [url] [clients] [seconds] [sentences-file]
+     */
+    public static void main(String[] args) throws Exception {
+
+        String url = args.length > 0 ? args[0] : "http://localhost:8080";
+        int numClients = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String sentencesFileName = args.length > 3 ? args[3] : "texts/brown-test-sentences.txt";
+
+        List<String> sentences = Files.readAllLines(Paths.get(sentencesFileName));
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        URI tagUri = URI.create(url + "/tag");
+        LatencyStats stats = new LatencyStats(1 << 18);
+        AtomicLong errors = new AtomicLong();
+        AtomicLong nextSentence = new AtomicLong();
+        long endNanos = System.nanoTime() + seconds * 1000000000L;
+
+        System.out.println("Sending load to " + tagUri + " with " + numClients + " clients for " + seconds + " s");
+
+        // each client sends requests back to back until the time is up
+        ExecutorService clients = Executors.newFixedThreadPool(numClients);
+        for (int c = 0; c < numClients; c++) {
+            clients.submit(() -> {
+                while (System.nanoTime() < endNanos) {
+                    String sentence = sentences.get((int) (nextSentence.getAndIncrement() % sentences.size()));
+                    HttpRequest request = HttpRequest.newBuilder(tagUri).POST(HttpRequest.BodyPublishers.ofString(sentence)).build();
+                    long start = System.nanoTime();
+                    try {
+                        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                        if (response.statusCode() != 200) errors.incrementAndGet();
+                        else stats.record(System.nanoTime() - start, 1);
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                }
+                return null;
+            });
+        }
+        clients.shutdown();
+        clients.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+
+        // reports the client-side view, then the server-side view
+        System.out.println("client: " + stats.summary() + " errors=" + errors.get());
+        System.out.printf("client: %.1f req/s per core of this machine (%d cores)%n",
+                stats.requestsPerSecond() / Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors());
+        HttpResponse<String> serverStats = client.send(HttpRequest.newBuilder(URI.create(url + "/stats")).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        System.out.print("server:\n" + serverStats.body());
+    }
+}
@@ -0,0 +1,282 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * tags a file in three overlapping stages: a reader thread, decoder threads and a writer
+ * lines travel in chunks from a fixed pool; the reader fills a free chunk, a decoder tags it in place with
+ * viterbiDecodingBatch, and the writer puts chunks back in reading order by sequence number, writes them and
+ * recycles them to the reader, so nothing is allocated per chunk once the pool is warm
+ * the stages hand chunks over through lock-free RingBuffers, and since the pool bounds the chunks in flight,
+ * a fast stage waits for a slow one instead of piling up work, so throughput is set by the slowest stage
+ *
+ * the output is the same as Tagger.testingModel; with more than one decoder the tagger's decoding must be
+ * safe to call from many threads
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class TaggingPipeline {
+
+    private final Tagger tagger;
+    private final int numDecoders;
+    public int chunkLines = 4096;       // the lines a chunk holds, decoded as one batch like the batches of testingModel
+    public int chunksPerDecoder = 2;    // the pool holds this many chunks per decoder, plus one being read and one being written
+
+    // pipeline state of the current run
+    private RingBuffer<Chunk> free;     // empty chunks, writer to reader
+    private RingBuffer<Chunk> read;     // filled chunks, reader to decoders
+    private RingBuffer<Chunk> decoded;  // tagged chunks, decoders to writer
+    private volatile long numChunks;    // the chunks of the file, -1 until the reader reaches its end
+    private volatile Throwable failure; // the first error of any stage, which stops all stages
+
+    private static final Chunk END = new Chunk(0);  // tells a decoder there are no more chunks
+
+    /**
+     * a pooled buffer of lines and their tags
+     */
+    private static class Chunk {
+        long sequence;                      // the position of the chunk in the file
+        final String[] lines;
+        int count;                          // the lines in use
+        final StringBuilder tagLines = new StringBuilder();   // the tag lines, as testingModel writes them
+
+        Chunk(int capacity) {
+            lines = new String[capacity];
+        }
+    }
+
+    /**
+     * instantiate the pipeline
+     *
+     * @param tagger      the tagger to decode with
+     * @param numDecoders the number of decoder threads
+     */
+    public TaggingPipeline(Tagger tagger, int numDecoders) {
+        if (numDecoders < 1) throw new IllegalArgumentException("At least one decoder is needed");
+        this.tagger = tagger;
+        this.numDecoders = numDecoders;
+    }
+
+    /**
+     * tags the test sentences and writes a file for the tags
+     *
+     * @param testSentencesFileName the file name of the testing sentences
+     * @param resultFileName        the file name of the testing tags
+     */
+    public void run(String testSentencesFileName, String resultFileName) throws IOException {
+
+        BufferedReader testInput = new BufferedReader(new FileReader(testSentencesFileName));
+        BufferedWriter result = new BufferedWriter(new FileWriter(resultFileName));
+
+        int poolSize = numDecoders * chunksPerDecoder + 2;
+        free = new RingBuffer<>(poolSize);
+        read = new RingBuffer<>(poolSize + numDecoders);
+        decoded = new RingBuffer<>(poolSize);
+        for (int i = 0; i < poolSize; i++) free.offer(new Chunk(chunkLines));
+        numChunks = -1;
+        failure = null;
+
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> readLoop(testInput), "pipeline-reader"));
+        for (int i = 0; i < numDecoders; i++) threads.add(new Thread(this::decodeLoop, "pipeline-decoder-" + i));
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // the calling thread is the writer
+        try {
+            writeLoop(result, poolSize);
+        } catch (Throwable e) {
+            fail(e);
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+                break;
+            }
+        }
+        testInput.close();
+        result.close();
+
+        if (failure instanceof IOException) throw (IOException) failure;
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure != null) throw new IOException("Tagging pipeline was interrupted", failure);
+    }
+
+    /**
+     * reader stage: fills free chunks with lines until the end of the file
+     */
+    private void readLoop(BufferedReader testInput) {
+        try {
+            long sequence = 0;
+            while (true) {
+                Chunk chunk = take(free);
+                if (chunk == null) return;
+                chunk.count = 0;
+                String currentLine;
+                while (chunk.count < chunk.lines.length && (currentLine = testInput.readLine()) != null) chunk.lines[chunk.count++] = currentLine;
+                if (chunk.count == 0) break;
+                chunk.sequence = sequence++;
+                put(read, chunk);
+                if (chunk.count < chunk.lines.length) break;
+            }
+            numChunks = sequence;
+            for (int i = 0; i < numDecoders; i++) put(read, END);
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * decoder stage: tags chunks until the reader runs out of them
+     */
+    private void decodeLoop() {
+        try {
+            while (true) {
+                Chunk chunk = take(read);
+                if (chunk == null || chunk == END) return;
+                List<List<String>> results = tagger.viterbiDecodingBatch(Arrays.asList(chunk.lines).subList(0, chunk.count));
+                chunk.tagLines.setLength(0);
+                for (List<String> currentTagList : results) {
+                    for (String tag : currentTagList) chunk.tagLines.append(tag).append(' ');
+                    chunk.tagLines.append('\n');
+                }
+                Arrays.fill(chunk.lines, 0, chunk.count, null);
+                put(decoded, chunk);
+            }
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * writer stage: writes the tagged chunks in reading order and hands them back to the reader
+     * a chunk that arrives early waits in the slot of its sequence number, the pool size bounds how early it can be
+     */
+    private void writeLoop(BufferedWriter result, int poolSize) throws IOException {
+        Chunk[] waiting = new Chunk[poolSize];
+        long next = 0;
+        int attempts = 0;
+        while (numChunks < 0 || next < numChunks) {
+            Chunk chunk = decoded.poll();
+            if (chunk == null) {
+                if (failure != null) return;
+                idle(attempts++);
+                continue;
+            }
+            attempts = 0;
+            waiting[(int) (chunk.sequence % poolSize)] = chunk;
+            Chunk inOrder;
+            while ((inOrder = waiting[(int) (next % poolSize)]) != null && inOrder.sequence == next) {
+                waiting[(int) (next % poolSize)] = null;
+                result.write(inOrder.tagLines.toString());
+                put(free, inOrder);
+                next++;
+            }
+        }
+    }
+
+    /**
+     * waits for an item, giving up when a stage has failed
+     *
+     * @return Chunk the item, or null after a failure
+     */
+    private Chunk take(RingBuffer<Chunk> ring) {
+        Chunk chunk;
+        int attempts = 0;
+        while ((chunk = ring.poll()) == null) {
+            if (failure != null) return null;
+            idle(attempts++);
+        }
+        return chunk;
+    }
+
+    /**
+     * waits for room for an item, giving up when a stage has failed
+     */
+    private void put(RingBuffer<Chunk> ring, Chunk chunk) {
+        int attempts = 0;
+        while (!ring.offer(chunk)) {
+            if (failure != null) return;
+            idle(attempts++);
+        }
+    }
+
+    /**
+     * a pause while another stage catches up: spins first, then parks for longer and longer up to a millisecond,
+     * so waiting stages give their core back to the busy ones
+     *
+     * @param attempts how many times the caller has already waited for the same item
+     */
+    private static void idle(int attempts) {
+        if (attempts < 100) Thread.onSpinWait();
+        else LockSupport.parkNanos(Math.min(1_000_000L, 1000L << Math.min(attempts - 100, 10)));
+    }
+
+    /**
+     * records the first error so every stage stops
+     */
+    private synchronized void fail(Throwable e) {
+        if (failure == null) failure = e;
+    }
+
+    // compares the serial testingModel with the pipeline on the Brown test sentences repeated into a larger file
+    // usage: java TaggingPipeline [repetitions] [decoders]
+    public static void main(String[] args) {
+
+        int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int numDecoders = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
+        try {
+            BufferedWriter repeated = new BufferedWriter(new FileWriter("texts/brown-test-sentences-repeated.txt"));
+            for (int r = 0; r < repetitions; r++) {
+                BufferedReader testInput = new BufferedReader(new FileReader("texts/brown-test-sentences.txt"));
+                String currentLine;
+                while ((currentLine = testInput.readLine()) != null) repeated.write(currentLine + "\n");
+                testInput.close();
+            }
+            repeated.close();
+
+            System.out.println("Training with the Brown corpus");
+            ViterbiTaggerEC tagger = new ViterbiTaggerEC("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt");
+            tagger.compactTables(true);
+            tagger.smoothTransitions(0.001, 1.0);
+            TaggingPipeline pipeline = new TaggingPipeline(tagger, numDecoders);
+
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                tagger.testingModel("texts/brown-test-sentences-repeated.txt", "texts/brown-test-tags-result-serial.txt");
+                double serialSeconds = (System.nanoTime() - start) / 1e9;
+                start = System.nanoTime();
+                pipeline.run("texts/brown-test-sentences-repeated.txt", "texts/brown-test-tags-result-pipeline.txt");
+                double pipelineSeconds = (System.nanoTime() - start) / 1e9;
+                System.out.println("round " + (round + 1) + ": serial " + String.format("%.2f", serialSeconds) + " s, pipeline with "
+                        + numDecoders + " decoders " + String.format("%.2f", pipelineSeconds) + " s");
+            }
+
+            // checks the pipeline wrote exactly what testingModel wrote
+            BufferedReader serial = new BufferedReader(new FileReader("texts/brown-test-tags-result-serial.txt"));
+            BufferedReader pipelined = new BufferedReader(new FileReader("texts/brown-test-tags-result-pipeline.txt"));
+            String serialLine;
+            String pipelineLine;
+            long lines = 0;
+            long mismatches = 0;
+            while ((serialLine = serial.readLine()) != null) {
+                pipelineLine = pipelined.readLine();
+                if (!serialLine.equals(pipelineLine)) mismatches++;
+                lines++;
+            }
+            if (pipelined.readLine() != null) mismatches++;
+            serial.close();
+            pipelined.close();
+            System.out.println("Compared " + lines + " lines, " + mismatches + " mismatches");
+        } catch (IOException e) {
+            System.err.println("Something went wrong while testing model: " + e.getMessage());
+        }
+    }
+}
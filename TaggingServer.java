@@ -0,0 +1,315 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * embedded HTTP tagging service
+ * concurrent requests are queued and micro-batched into the batch decoder of a trained model
+ *
+ * endpoints:
+ * POST /tag    one sentence per line in the body, one line of tags per sentence in the response
+ * GET  /stats  throughput and latency percentiles
+ *
+ * the queue is bounded: a request whose lines do not fit is answered 503 at once instead of waiting,
+ * and a request not decoded within the timeout is answered 504
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class TaggingServer {
+
+    private final Function<List<String>, List<List<String>>> batchDecoder;    // decodes a batch of lines
+    private final int maxBatchSize;                                             // most lines decoded in one batch
+    private final long maxWaitNanos;                                            // how long a batch waits to fill up
+    private final long timeoutMillis;                                           // how long a request waits for its tags
+    private final BlockingQueue<PendingLine> queue;                             // lines waiting for a decoder, bounded
+    private final LatencyStats requestStats = new LatencyStats(1 << 16);       // per-request latency, items are sentences
+    private final LatencyStats batchStats = new LatencyStats(1 << 12);         // per-batch decode time, items are lines
+    private HttpServer server;
+    private ExecutorService handlers;
+    private List<Thread> decoders;
+    private volatile boolean running;
+    private final AtomicLong rejected = new AtomicLong();                       // requests answered 503 because the queue was full
+
+    /**
+     * a line waiting to be decoded and the future its tags are delivered to
+     */
+    private static class PendingLine {
+        final String line;
+        final CompletableFuture<List<String>> tags = new CompletableFuture<>();
+
+        PendingLine(String line) {
+            this.line = line;
+        }
+    }
+
+    /**
+     * instantiate the server around a batch decoder
+     *
+     * @param batchDecoder  decodes a batch of lines, e.g. PosTagger::viterbiDecodingBatch
+     * @param maxBatchSize  most lines decoded in one batch
+     * @param maxWaitMicros how long a partial batch waits for more lines
+     */
+    public TaggingServer(Function<List<String>, List<List<String>>> batchDecoder, int maxBatchSize, long maxWaitMicros) {
+        this(batchDecoder, maxBatchSize, maxWaitMicros, 1 << 14, 30000);
+    }
+
+    /**
+     * instantiate the server around a batch decoder with a queue capacity and request timeout
+     *
+     * @param batchDecoder   decodes a batch of lines, e.g. PosTagger::viterbiDecodingBatch
+     * @param maxBatchSize   most lines decoded in one batch
+     * @param maxWaitMicros  how long a partial batch waits for more lines
+     * @param maxQueuedLines most lines waiting for a decoder, further requests are answered 503
+     * @param timeoutMillis  how long a request waits for its tags before it is answered 504
+     */
+    public TaggingServer(Function<List<String>, List<List<String>>> batchDecoder, int maxBatchSize, long maxWaitMicros,
+                         int maxQueuedLines, long timeoutMillis) {
+        this.batchDecoder = batchDecoder;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWaitMicros * 1000;
+        this.queue = new ArrayBlockingQueue<>(maxQueuedLines);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * starts listening and starts the decoder threads
+     *
+     * @param port        the port to listen on
+     * @param numDecoders the number of decoder threads
+     */
+    public void start(int port, int numDecoders) throws IOException {
+        running = true;
+
+        // each decoder thread pulls its own batches off the shared queue
+        decoders = new ArrayList<>();
+        for (int i = 0; i < numDecoders; i++) {
+            Thread decoder = new Thread(this::decodeLoop, "tagging-decoder-" + i);
+            decoder.setDaemon(true);
+            decoder.start();
+            decoders.add(decoder);
+        }
+
+        // request handlers only parse, enqueue and wait, so they are cheap threads from a cached pool
+        handlers = Executors.newCachedThreadPool(r -> {
+            Thread handler = new Thread(r, "tagging-handler");
+            handler.setDaemon(true);
+            return handler;
+        });
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.setExecutor(handlers);
+        server.createContext("/tag", this::handleTag);
+        server.createContext("/stats", this::handleStats);
+        server.start();
+    }
+
+    /**
+     * stops the server and the decoder threads, failing the lines still waiting
+     */
+    public void stop() {
+        running = false;
+        for (Thread decoder : decoders) decoder.interrupt();
+        for (Thread decoder : decoders) {
+            try {
+                decoder.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        failAll(queue, new IllegalStateException("Server is shutting down"));
+
+        // gives the handlers a moment to answer the failed requests before closing the connections
+        server.stop(1);
+        handlers.shutdownNow();
+    }
+
+    /**
+     * fails the futures of lines that will not be decoded and removes them from the collection
+     */
+    private static void failAll(Collection<PendingLine> pending, Throwable cause) {
+        List<PendingLine> failed = new ArrayList<>();
+        if (pending instanceof BlockingQueue) ((BlockingQueue<PendingLine>) pending).drainTo(failed);
+        else {
+            failed.addAll(pending);
+            pending.clear();
+        }
+        for (PendingLine line : failed) line.tags.completeExceptionally(cause);
+    }
+
+    /**
+     * takes batches off the queue and decodes them until the server stops
+     */
+    private void decodeLoop() {
+        List<PendingLine> batch = new ArrayList<>(maxBatchSize);
+        List<String> lines = new ArrayList<>(maxBatchSize);
+
+        while (running) {
+            try {
+                // blocks for the first line, then gives the batch a short time to fill up
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) continue;
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    PendingLine next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                failAll(batch, new IllegalStateException("Server is shutting down"));
+                return;
+            }
+
+            // drops the lines of requests that were already answered, e.g. rejected as overloaded
+            batch.removeIf(pending -> pending.tags.isDone());
+            if (batch.isEmpty()) continue;
+
+            // decodes the batch and hands each result back to its request
+            // an Error fails the batch too, so no request waits on a line that will never be decoded
+            for (PendingLine pending : batch) lines.add(pending.line);
+            long start = System.nanoTime();
+            try {
+                List<List<String>> results = batchDecoder.apply(lines);
+                for (int i = 0; i < batch.size(); i++) batch.get(i).tags.complete(results.get(i));
+            } catch (Throwable e) {
+                for (PendingLine pending : batch) pending.tags.completeExceptionally(e);
+            }
+            batchStats.record(System.nanoTime() - start, batch.size());
+            batch.clear();
+            lines.clear();
+        }
+    }
+
+    /**
+     * handles POST /tag
+     */
+    private void handleTag(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "Use POST with one sentence per line\n");
+            return;
+        }
+
+        // enqueues every non-empty line of the body, rejecting the request once the queue is full
+        List<PendingLine> pending = new ArrayList<>();
+        BufferedReader body = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = body.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            PendingLine pendingLine = new PendingLine(line);
+            pending.add(pendingLine);
+            if (!running || !queue.offer(pendingLine)) {
+                // the lines already queued are answered here, so the decoders skip them
+                for (PendingLine queued : pending) queued.tags.cancel(false);
+                rejected.incrementAndGet();
+                respond(exchange, 503, running ? "Server is overloaded, try again later\n" : "Server is shutting down\n");
+                return;
+            }
+        }
+
+        // waits for the tags of every line, in order, up to the request timeout
+        StringBuilder response = new StringBuilder();
+        long deadline = System.nanoTime() + timeoutMillis * 1000000;
+        try {
+            for (PendingLine pendingLine : pending) {
+                long remaining = deadline - System.nanoTime();
+                response.append(String.join(" ", pendingLine.tags.get(Math.max(remaining, 0), TimeUnit.NANOSECONDS))).append('\n');
+            }
+        } catch (TimeoutException e) {
+            for (PendingLine pendingLine : pending) pendingLine.tags.cancel(false);
+            respond(exchange, 504, "Timed out while decoding\n");
+            return;
+        } catch (InterruptedException e) {
+            for (PendingLine pendingLine : pending) pendingLine.tags.cancel(false);
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "Server is shutting down\n");
+            return;
+        } catch (ExecutionException e) {
+            int status = running ? 500 : 503;
+            respond(exchange, status, "Something went wrong while decoding: " + e.getCause() + "\n");
+            return;
+        }
+
+        respond(exchange, 200, response.toString());
+        requestStats.record(System.nanoTime() - start, pending.size());
+    }
+
+    /**
+     * handles GET /stats
+     */
+    private void handleStats(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, stats());
+    }
+
+    /**
+     * @return String the request and batch statistics
+     */
+    public String stats() {
+        return "requests: " + requestStats.summary() + "\n"
+                + "batches: " + batchStats.summary() + "\n"
+                + "queued: " + queue.size() + "\n"
+                + "rejected: " + rejected.get() + "\n";
+    }
+
+    /**
+     * writes a plain text response
+     */
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        // a length of -1 tells the server there is no body, 0 would mean chunked
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(bytes);
+        output.close();
+    }
+
+    /**
+     * trains a model and serves it
+     * usage: TaggingServer [port] [bigram|trigram] [train-sentences-file train-tags-file]
+     */
+    public static void main(String[] args) {
+
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        String engine = args.length > 1 ? args[1] : "bigram";
+        String trainSentences = args.length > 3 ? args[2] : "texts/brown-train-sentences.txt";
+        String trainTags = args.length > 3 ? args[3] : "texts/brown-train-tags.txt";
+
+        // loads the model and builds the smoothed table, whose batch decoder decodes a micro-batch in shared lattice steps
+        System.out.println("Training " + engine + " model with " + trainSentences);
+        Function<List<String>, List<List<String>>> batchDecoder;
+        try {
+            if (engine.equals("trigram")) {
+                ViterbiTaggerEC tagger = new ViterbiTaggerEC(trainSentences, trainTags);
+                tagger.compactTables(true);
+                tagger.smoothTransitions(0.001, 1.0);
+                batchDecoder = tagger::viterbiDecodingBatch;
+            } else {
+                PosTagger tagger = new PosTagger();
+                tagger.trainingModel(trainSentences, trainTags, true);
+                tagger.smoothTransitions(0.01, 1.0);
+                batchDecoder = tagger::viterbiDecodingBatch;
+            }
+        } catch (IOException e) {
+            System.err.println("Something went wrong while training model");
+            return;
+        }
+
+        TaggingServer server = new TaggingServer(batchDecoder, 64, 200);
+        try {
+            server.start(port, Runtime.getRuntime().availableProcessors());
+            System.out.println("Tagging server listening on port " + port + " (POST /tag, GET /stats)");
+        } catch (IOException e) {
+            System.err.println("Something went wrong while starting server: " + e.getMessage());
+        }
+    }
+}
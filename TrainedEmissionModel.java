@@ -0,0 +1,66 @@
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * EmissionModel over the observation scores learned in training (tag -> word -> log score)
+ * the rows are read through a function, so the model also follows lazily normalized or retrained scores
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class TrainedEmissionModel implements EmissionModel {
+
+    private final Collection<String> tags;                          // the tags that have observation scores
+    private final Function<String, ? extends Map<String, Double>> rowOf; // the observation scores of a tag
+
+    /**
+     * instantiate the model over observation scores
+     *
+     * @param obsScores the observation scores of a tagger
+     */
+    public TrainedEmissionModel(Map<String, ? extends Map<String, Double>> obsScores) {
+        this(obsScores.keySet(), obsScores::get);
+    }
+
+    /**
+     * instantiate the model over rows looked up on demand
+     *
+     * @param tags  the tags that have observation scores, may be a live view
+     * @param rowOf the observation scores of a tag
+     */
+    public TrainedEmissionModel(Collection<String> tags, Function<String, ? extends Map<String, Double>> rowOf) {
+        this.tags = tags;
+        this.rowOf = rowOf;
+    }
+
+    public double score(String tag, String word) {
+        Map<String, Double> row = rowOf.apply(tag);
+        Double score = row == null ? null : row.get(word);
+        return score == null ? Double.NaN : score;
+    }
+
+    public boolean contains(String word) {
+        for (String tag : tags) {
+            Map<String, Double> row = rowOf.apply(tag);
+            if (row != null && row.containsKey(word)) return true;
+        }
+        return false;
+    }
+
+    public double[][] scoreSentence(String[] words, Vocabulary tagIds) {
+        double[][] scores = new double[words.length][tagIds.size()];
+        for (double[] row : scores) Arrays.fill(row, Double.NaN);
+
+        // looks each row up once and reads all words from it
+        for (int tag = 0; tag < tagIds.size(); tag++) {
+            Map<String, Double> row = rowOf.apply(tagIds.string(tag));
+            if (row == null) continue;
+            for (int i = 0; i < words.length; i++) {
+                if (words[i] == null) continue;
+                Double score = row.get(words[i]);
+                if (score != null) scores[i][tag] = score;
+            }
+        }
+        return scores;
+    }
+}
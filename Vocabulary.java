@@ -0,0 +1,84 @@
+import java.util.*;
+
+/**
+ * two-way mapping between strings (words or tags) and dense integer ids
+ * ids are handed out in the order the strings are first added, starting at 0
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class Vocabulary {
+
+    private HashMap<String, Integer> ids;   // the id of each string
+    private ArrayList<String> strings;      // the string of each id
+
+    /**
+     * instantiate an empty vocabulary
+     */
+    public Vocabulary() {
+        ids = new HashMap<>();
+        strings = new ArrayList<>();
+    }
+
+    /**
+     * adds the string if it is not already in the vocabulary
+     *
+     * @param string the string to add
+     * @return int the id of the string
+     */
+    public int add(String string) {
+        Integer id = ids.get(string);
+        // assigns the next free id if the string is new
+        if (id == null) {
+            id = strings.size();
+            ids.put(string, id);
+            strings.add(string);
+        }
+        return id;
+    }
+
+    /**
+     * looks up the id of a string
+     *
+     * @param string the string to look up
+     * @return int the id of the string, or -1 if it is not in the vocabulary
+     */
+    public int id(String string) {
+        Integer id = ids.get(string);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * looks up the string of an id
+     *
+     * @param id the id to look up
+     * @return String the string with that id
+     */
+    public String string(int id) {
+        return strings.get(id);
+    }
+
+    /**
+     * @return int the number of strings in the vocabulary
+     */
+    public int size() {
+        return strings.size();
+    }
+
+    /**
+     * @param strings the strings to compare with
+     * @return boolean whether the vocabulary holds exactly these strings, in any order
+     */
+    public boolean hasSameStrings(Collection<String> strings) {
+        if (strings.size() != size()) return false;
+        for (String string : strings) if (!ids.containsKey(string)) return false;
+        return true;
+    }
+
+    /**
+     * @return List<String> the strings in id order
+     */
+    public List<String> strings() {
+        return Collections.unmodifiableList(strings);
+    }
+}
@@ -0,0 +1,107 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * bounded cache from a token as written to the id of its lowercased form in a word dictionary
+ * lowercasing and hashing then happen once per distinct token instead of once per occurrence,
+ * and the original token keeps its case for features such as capitalization
+ *
+ * the cache is safe to share between decoding threads; when it holds capacity tokens it is emptied
+ * and fills again with the tokens in current use
+ *
+ * @author Nour Hayek, Jack Zhang
+ */
+
+public class WordIdCache {
+
+    public final Vocabulary words;                          // the lowercased words of the model
+    public final int capacity;                              // the most tokens kept at once
+    private final ConcurrentHashMap<String, Integer> ids;   // token as written -> word id, -1 for unknown words
+
+    /**
+     * instantiate the cache over the words of a model
+     *
+     * @param modelWords the lowercased words the model has observation scores for
+     * @param capacity   the most tokens kept at once
+     */
+    public WordIdCache(Collection<String> modelWords, int capacity) {
+        this.words = new Vocabulary();
+        for (String word : modelWords) words.add(word);
+        this.capacity = capacity;
+        this.ids = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param token a token as written in the input
+     * @return int the id of the lowercased token, or -1 if the model never saw it
+     */
+    public int id(String token) {
+        Integer id = ids.get(token);
+        if (id != null) return id;
+        if (ids.size() >= capacity) ids.clear();
+        id = words.id(token.toLowerCase());
+        ids.put(token, id);
+        return id;
+    }
+
+    /**
+     * the lowercased word with its dictionary instance, whose hash code is computed only once
+     *
+     * @param token a token as written in the input
+     * @return String the lowercased word, or null if the model never saw it
+     */
+    public String word(String token) {
+        int id = id(token);
+        return id < 0 ? null : words.string(id);
+    }
+
+    /**
+     * @return int the number of tokens currently cached
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * whether a token looks like a proper noun: it starts with an upper case letter and is not the first word
+     *
+     * @param token    a token as written in the input
+     * @param position the position of the token in its sentence
+     * @return boolean whether the token is capitalized inside the sentence
+     */
+    public static boolean isCapitalized(String token, int position) {
+        return position > 0 && !token.isEmpty() && Character.isUpperCase(token.charAt(0));
+    }
+
+    // compares the lowercasing and the case-preserving paths of both taggers on the Brown test sentences
+    public static void main(String[] args) {
+
+        System.out.println("Training with the Brown corpus");
+        PosTagger bigram = new PosTagger("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt");
+        ViterbiTaggerEC trigram = new ViterbiTaggerEC("texts/brown-train-sentences.txt", "texts/brown-train-tags.txt");
+        trigram.compactTables(true);
+        String example = "yesterday Marisol flew to Quixadabad with her brother .";
+
+        try {
+            for (Tagger tagger : new Tagger[]{bigram, trigram}) {
+                String name = tagger == bigram ? "bigram" : "trigram";
+                for (int round = 0; round < 2; round++) {
+                    if (round == 1) {
+                        if (tagger == bigram) bigram.useWordIdCache(1 << 16);
+                        else trigram.useWordIdCache(1 << 16);
+                    }
+                    String path = round == 0 ? "lowercasing" : "case-preserving";
+                    long start = System.nanoTime();
+                    tagger.testingModel("texts/brown-test-sentences.txt", "texts/brown-test-tags-result-cased.txt");
+                    System.out.println(name + " " + path + ": tagged the Brown test sentences in "
+                            + String.format("%.2f", (System.nanoTime() - start) / 1e9) + " s");
+                    tagger.calculateAccuracy("texts/brown-test-tags-result-cased.txt", "texts/brown-test-tags.txt");
+                    System.out.println(example + " -> " + tagger.viterbiDecoding(example));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Something went wrong while testing model");
+        }
+    }
+}